@@ -2,18 +2,40 @@ package com.google.graphgeckos.dashboard;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.CharStreams;
+import com.google.graphgeckos.dashboard.api.AdminTokenFilter;
+import com.google.graphgeckos.dashboard.fetchers.ConditionalRequestCache;
+import com.google.graphgeckos.dashboard.fetchers.DeadlineMetrics;
+import com.google.graphgeckos.dashboard.fetchers.FetcherWebClient;
+import com.google.graphgeckos.dashboard.fetchers.HostConcurrencyLimiter;
+import com.google.graphgeckos.dashboard.fetchers.HttpFetcher;
+import com.google.graphgeckos.dashboard.fetchers.RequestBudgeter;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.AdaptivePollScheduler;
 import com.google.graphgeckos.dashboard.fetchers.buildbot.BuildBotClient;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.BuildBotIngestionPipeline;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.BuildBotIngestionPipeline.IngestionResult;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.BuilderCircuitBreaker;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.ChangeCache;
 import com.google.graphgeckos.dashboard.fetchers.github.GitHubClient;
-import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
+import com.google.graphgeckos.dashboard.storage.DataRepository;
+import com.google.graphgeckos.dashboard.storage.RevisionUpdateBuffer;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.cloud.gcp.data.datastore.repository.config.EnableDatastoreRepositories;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
@@ -23,6 +45,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.scheduling.annotation.SchedulingConfigurer;
 import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+import org.springframework.web.reactive.function.client.WebClient;
 
 @SpringBootApplication
 @Configuration
@@ -50,7 +73,37 @@ public class DashboardApplication implements SchedulingConfigurer {
 
   private static final Logger logger = Logger.getLogger(DashboardApplication.class.getName());
 
-  @Autowired private DatastoreRepository datastoreRepository;
+  /**
+   * Maximum size in bytes of a response body, both buffered by the {@link WebClient} and joined by
+   * the {@link HttpFetcher}. Declared ahead of the autowired beans, which are defined here and so
+   * may be created while the fields of this class are injected.
+   */
+  @Value("${dashboard.http.max-in-memory-size:" + FetcherWebClient.DEFAULT_MAX_IN_MEMORY_SIZE + "}")
+  private int maxInMemorySize;
+
+  @Autowired private BuildBotIngestionPipeline buildBotIngestionPipeline;
+
+  @Autowired private AdaptivePollScheduler pollScheduler;
+
+  @Autowired private BuilderCircuitBreaker circuitBreaker;
+
+  /** Maximum time to fetch the build bots due at a tick. */
+  @Value("${dashboard.buildbot.scheduler.cycle-budget-seconds:120}")
+  private long cycleBudgetSeconds;
+
+  @Autowired private GitHubClient gitHubClient;
+
+  /** Secret the GitHub webhook deliveries are signed with, empty if the webhook is disabled. */
+  @Value("${dashboard.github.webhook.secret:}")
+  private String webhookSecret;
+
+  /** Interval between two fetches of the GitHub commits when the webhook is disabled. */
+  @Value("${dashboard.github.poll-interval-millis:60000}")
+  private long gitHubPollIntervalMillis;
+
+  /** Interval between two fetches of the GitHub commits when the webhook is enabled. */
+  @Value("${dashboard.github.reconcile-interval-millis:600000}")
+  private long gitHubReconcileIntervalMillis;
 
   public static void main(String[] args) {
     SpringApplication.run(DashboardApplication.class, args);
@@ -66,15 +119,12 @@ public class DashboardApplication implements SchedulingConfigurer {
     return configuration.split("\\n");
   }
 
-  /** 
-   * Periodically fetches build bot status every 10 minutes.
-   *
+  /**
+   * Reads the names of the build bots to fetch from the configuration file at CONFIG_PATH.
    *
-   * @throws IllegalStateException if the configuration at CONFIG_PATH cannot be read or is empty.
+   * @throws IllegalStateException if the configuration cannot be read or is empty.
    */
-  @Scheduled(fixedDelay = 10 * 60 * 1000)
-  void runBuildBotsFetchers() {
-    logger.info("Fetching latest build bots status...");
+  static String[] loadBuildBotNames() {
     String configuration;
     try {
       configuration =
@@ -90,31 +140,304 @@ public class DashboardApplication implements SchedulingConfigurer {
       throw new IllegalStateException(
           "List of build bots to run can't be empty. Check the config file: " + CONFIG_PATH);
     }
+    return buildBots;
+  }
 
-    for (String buildBot : buildBots) {
-      logger.info("Fetching builds from build bot: " + buildBot);
-      new BuildBotClient(BASE_URL, datastoreRepository).run(buildBot);
+  /**
+   * Fetches the build bots which are due according to the {@link AdaptivePollScheduler}.
+   *
+   * <p>The due build bots are fetched concurrently by the {@link BuildBotIngestionPipeline}, the
+   * tick ends once all of them are done. Each result is fed back to the scheduler, which decides
+   * when the build bot is fetched next, and to the {@link BuilderCircuitBreaker}. The build bots
+   * whose circuit is open are not fetched, but deferred until the end of their backoff period. The
+   * tick is bounded by the cycle budget: the build bots left over when it is spent are due again at
+   * the next tick, and so is the trial of their circuit if it was half-open.
+   */
+  @Scheduled(fixedDelayString = "${dashboard.buildbot.scheduler.tick-millis:30000}")
+  void runBuildBotsFetchers() {
+    Instant start = Instant.now();
+    List<String> due = new ArrayList<>();
+    for (String buildBot : pollScheduler.takeDue(start)) {
+      if (circuitBreaker.allowRequest(buildBot, start)) {
+        due.add(buildBot);
+      } else {
+        pollScheduler.deferUntil(buildBot, circuitBreaker.getRetryTime(buildBot, start));
+      }
+    }
+    if (due.isEmpty()) {
+      return;
     }
+
+    logger.info(String.format("Fetching latest status of %d build bots...", due.size()));
+    IngestionResult result =
+        buildBotIngestionPipeline
+            .ingestWithin(due, Duration.ofSeconds(cycleBudgetSeconds))
+            .block();
+    Instant now = Instant.now();
+    Map<String, Integer> newBuilds = result.getNewBuilds();
+    for (String buildBot : due) {
+      Integer count = newBuilds.get(buildBot);
+      if (count != null) {
+        circuitBreaker.recordSuccess(buildBot);
+        pollScheduler.recordPoll(buildBot, count, now);
+      } else if (result.getFailed().contains(buildBot)) {
+        circuitBreaker.recordFailure(buildBot, now);
+        pollScheduler.recordFailure(buildBot, now);
+      } else {
+        circuitBreaker.recordCancelled(buildBot, now);
+        pollScheduler.deferUntil(buildBot, now);
+      }
+    }
+    logger.info(String.format("Fetched %d of %d build bots", newBuilds.size(), due.size()));
   }
 
-  /** Periodically fetches GitHub commits every minute. */
-  @Scheduled(fixedDelay = 60 * 1000)
+  /**
+   * Periodically fetches the latest GitHub commits, see {@link #getGitHubFetchIntervalMillis}.
+   */
   void runGitHubFetcher() {
     logger.info("Fetching latest GitHub commits...");
-    new GitHubClient(GITHUB_URL, datastoreRepository).run(30);
+    gitHubClient.run();
+  }
+
+  /**
+   * Returns the interval between two runs of {@link #runGitHubFetcher}. When a webhook secret is
+   * configured, pushed commits are recorded as soon as they arrive by the {@link
+   * com.google.graphgeckos.dashboard.api.GitHubWebhookController}, so the fetches are only a
+   * reconciliation pass catching the deliveries which were missed. Otherwise, they are the only
+   * way commits are recorded, and run at the shorter poll interval.
+   */
+  long getGitHubFetchIntervalMillis() {
+    return webhookSecret.isEmpty() ? gitHubPollIntervalMillis : gitHubReconcileIntervalMillis;
   }
 
   @Override
   public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
     taskRegistrar.setScheduler(taskExecutor());
+    taskRegistrar.addFixedDelayTask(this::runGitHubFetcher, getGitHubFetchIntervalMillis());
   }
 
   @Bean(destroyMethod = "shutdown")
   public Executor taskExecutor() {
-    // Set up a pool of 2 threads, one for the build bot fetchers and one for the GitHub fetcher.
+    // The scheduled jobs only trigger the fetch cycles, one thread for the build bot cycle and one
+    // for the GitHub fetcher. The build bots themselves are fetched without blocking by the
+    // ingestion pipeline, which caps them per host.
     return Executors.newScheduledThreadPool(2);
   }
 
+  /**
+   * HTTP client shared by all the fetchers, see {@link FetcherWebClient}.
+   *
+   * @param maxConnections maximum number of open connections
+   * @param maxIdleSeconds how long an unused connection is kept open
+   * @param connectTimeoutSeconds maximum time to open a connection
+   * @param readTimeoutSeconds maximum time to wait for data of a response
+   */
+  @Bean
+  public WebClient webClient(
+      @Value("${dashboard.http.max-connections:64}") int maxConnections,
+      @Value("${dashboard.http.max-idle-seconds:30}") long maxIdleSeconds,
+      @Value("${dashboard.http.connect-timeout-seconds:10}") long connectTimeoutSeconds,
+      @Value("${dashboard.http.read-timeout-seconds:30}") long readTimeoutSeconds) {
+    return FetcherWebClient.create(
+        maxConnections,
+        Duration.ofSeconds(maxIdleSeconds),
+        maxInMemorySize,
+        Duration.ofSeconds(connectTimeoutSeconds),
+        Duration.ofSeconds(readTimeoutSeconds));
+  }
+
+  /** Counts how often each deadline of the fetchers is hit, see {@link DeadlineMetrics}. */
+  @Bean
+  public DeadlineMetrics deadlineMetrics() {
+    return new DeadlineMetrics();
+  }
+
+  /**
+   * Budget of the requests of all the fetchers to each upstream host, see {@link RequestBudgeter}.
+   *
+   * @param requestsPerSecond number of requests per second to a host, unless its rate limit headers
+   *     say otherwise
+   * @param burst maximum number of requests made at once to a host
+   */
+  @Bean
+  public RequestBudgeter requestBudgeter(
+      @Value("${dashboard.http.budget.requests-per-second:10}") double requestsPerSecond,
+      @Value("${dashboard.http.budget.burst:20}") int burst) {
+    return new RequestBudgeter(requestsPerSecond, burst);
+  }
+
+  /**
+   * Performs the requests of all the fetchers within the budget of their host, making conditional
+   * requests for the responses which are polled, see {@link HttpFetcher}.
+   *
+   * @param conditionalRequestCacheSize maximum number of request URLs whose validators are kept
+   * @param requestTimeoutSeconds maximum time to get the full response to a single request
+   */
+  @Bean
+  public HttpFetcher httpFetcher(
+      WebClient client,
+      RequestBudgeter requestBudgeter,
+      DeadlineMetrics deadlineMetrics,
+      @Value("${dashboard.http.conditional-request-cache.maximum-size:10000}")
+          long conditionalRequestCacheSize,
+      @Value("${dashboard.http.request-timeout-seconds:30}") long requestTimeoutSeconds) {
+    HttpFetcher fetcher =
+        new HttpFetcher(
+            client, new ConditionalRequestCache(conditionalRequestCacheSize), requestBudgeter);
+    fetcher.setRequestTimeout(Duration.ofSeconds(requestTimeoutSeconds));
+    fetcher.setMaxBodySize(maxInMemorySize);
+    fetcher.setDeadlineMetrics(deadlineMetrics);
+    return fetcher;
+  }
+
+  /**
+   * Cache of the changes of the builds, shared by all the build bot fetchers.
+   *
+   * @param maximumSize maximum number of cached changes
+   * @param expireAfterHours how long a change is kept after being cached
+   * @param snapshotPath file the cache is saved to on shutdown and loaded from on startup, the
+   *     cache is not persisted if empty
+   */
+  @Bean(destroyMethod = "close")
+  public ChangeCache changeCache(
+      @Value("${dashboard.buildbot.change-cache.maximum-size:100000}") long maximumSize,
+      @Value("${dashboard.buildbot.change-cache.expire-after-hours:168}") long expireAfterHours,
+      @Value("${dashboard.buildbot.change-cache.snapshot-path:}") String snapshotPath) {
+    return new ChangeCache(
+        maximumSize,
+        Duration.ofHours(expireAfterHours),
+        snapshotPath.isEmpty() ? null : Paths.get(snapshotPath));
+  }
+
+  /**
+   * Write-behind buffer coalescing the builder updates of the revisions, see {@link
+   * RevisionUpdateBuffer}. Flushed on shutdown.
+   *
+   * @param maxPending number of queued updates which triggers a flush
+   * @param flushIntervalMillis longest time an update is queued
+   */
+  @Bean(destroyMethod = "close")
+  public RevisionUpdateBuffer revisionUpdateBuffer(
+      DataRepository repository,
+      @Value("${dashboard.storage.update-buffer.max-pending:500}") int maxPending,
+      @Value("${dashboard.storage.update-buffer.flush-interval-millis:1000}")
+          long flushIntervalMillis) {
+    return new RevisionUpdateBuffer(repository, maxPending, Duration.ofMillis(flushIntervalMillis));
+  }
+
+  /**
+   * Pipeline fetching all the build bots at each cycle, see {@link BuildBotIngestionPipeline}.
+   *
+   * @param builderConcurrency maximum number of build bots fetched at the same time
+   * @param changeConcurrency maximum number of changes of a build bot requested at the same time
+   * @param writeConcurrency maximum number of storage writes of a build bot running at once
+   * @param storageTimeoutSeconds maximum time to wait for a single storage call
+   * @param builderTimeoutSeconds maximum time to fetch a single build bot
+   * @param recentChangesTtlSeconds how long the latest changes are shared between the build bots
+   * @param perHostLimit maximum number of build bots fetched at the same time from the same host
+   */
+  @Bean
+  public BuildBotIngestionPipeline buildBotIngestionPipeline(
+      DataRepository repository,
+      HttpFetcher fetcher,
+      ChangeCache changeCache,
+      RevisionUpdateBuffer updateBuffer,
+      DeadlineMetrics deadlineMetrics,
+      @Value("${dashboard.buildbot.pipeline.builder-concurrency:64}") int builderConcurrency,
+      @Value("${dashboard.buildbot.pipeline.change-concurrency:4}") int changeConcurrency,
+      @Value("${dashboard.buildbot.pipeline.write-concurrency:4}") int writeConcurrency,
+      @Value("${dashboard.buildbot.pipeline.storage-timeout-seconds:30}")
+          long storageTimeoutSeconds,
+      @Value("${dashboard.buildbot.pipeline.builder-timeout-seconds:300}")
+          long builderTimeoutSeconds,
+      @Value("${dashboard.buildbot.pipeline.recent-changes-ttl-seconds:30}")
+          long recentChangesTtlSeconds,
+      @Value("${dashboard.buildbot.pipeline.per-host-limit:16}") int perHostLimit) {
+    BuildBotClient buildBotClient = new BuildBotClient(BASE_URL, repository, fetcher);
+    buildBotClient.setChangeCache(changeCache);
+    buildBotClient.setUpdateBuffer(updateBuffer);
+    buildBotClient.setChangeConcurrency(changeConcurrency);
+    buildBotClient.setWriteConcurrency(writeConcurrency);
+    buildBotClient.setStorageTimeout(Duration.ofSeconds(storageTimeoutSeconds));
+    buildBotClient.setRecentChangesTtl(Duration.ofSeconds(recentChangesTtlSeconds));
+    BuildBotIngestionPipeline pipeline =
+        new BuildBotIngestionPipeline(
+            buildBotClient,
+            builderConcurrency,
+            Duration.ofSeconds(builderTimeoutSeconds),
+            deadlineMetrics);
+    pipeline.setHostLimiter(new HostConcurrencyLimiter(perHostLimit));
+    return pipeline;
+  }
+
+  /**
+   * Client syncing the revisions with the LLVM GitHub commits, see {@link GitHubClient}. It keeps
+   * the last synced commit across the fetch cycles.
+   *
+   * @param maxPages maximum number of pages of 100 commits requested by a sync
+   */
+  @Bean
+  public GitHubClient gitHubClient(
+      DataRepository repository,
+      HttpFetcher fetcher,
+      @Value("${dashboard.github.sync.max-pages:10}") int maxPages) {
+    GitHubClient client = new GitHubClient(GITHUB_URL, repository, fetcher);
+    client.setMaxPages(maxPages);
+    return client;
+  }
+
+  /**
+   * Scheduler deciding when each build bot is fetched, see {@link AdaptivePollScheduler}.
+   *
+   * @param minIntervalSeconds shortest time between two fetches of a build bot
+   * @param maxIntervalSeconds longest time between two fetches of a build bot
+   * @param maxPollsPerTick maximum number of build bots fetched at each tick
+   */
+  @Bean
+  public AdaptivePollScheduler pollScheduler(
+      @Value("${dashboard.buildbot.scheduler.min-interval-seconds:60}") long minIntervalSeconds,
+      @Value("${dashboard.buildbot.scheduler.max-interval-seconds:3600}") long maxIntervalSeconds,
+      @Value("${dashboard.buildbot.scheduler.max-polls-per-tick:32}") int maxPollsPerTick) {
+    return new AdaptivePollScheduler(
+        Arrays.asList(loadBuildBotNames()),
+        Duration.ofSeconds(minIntervalSeconds),
+        Duration.ofSeconds(maxIntervalSeconds),
+        maxPollsPerTick,
+        Instant.now());
+  }
+
+  /**
+   * Health of each build bot, see {@link BuilderCircuitBreaker}.
+   *
+   * @param failureThreshold number of consecutive failures after which a build bot is not fetched
+   * @param baseBackoffSeconds how long a build bot is not fetched after it first kept failing
+   * @param maxBackoffSeconds longest time a failing build bot is not fetched
+   */
+  @Bean
+  public BuilderCircuitBreaker circuitBreaker(
+      @Value("${dashboard.buildbot.circuit.failure-threshold:3}") int failureThreshold,
+      @Value("${dashboard.buildbot.circuit.base-backoff-seconds:600}") long baseBackoffSeconds,
+      @Value("${dashboard.buildbot.circuit.max-backoff-seconds:21600}") long maxBackoffSeconds) {
+    return new BuilderCircuitBreaker(
+        failureThreshold,
+        Duration.ofSeconds(baseBackoffSeconds),
+        Duration.ofSeconds(maxBackoffSeconds));
+  }
+
+  /**
+   * Guards the /admin endpoints, see {@link AdminTokenFilter}.
+   *
+   * @param token token the admin requests must carry, empty to refuse all of them
+   */
+  @Bean
+  public FilterRegistrationBean<AdminTokenFilter> adminTokenFilter(
+      @Value("${dashboard.admin.token:}") String token) {
+    FilterRegistrationBean<AdminTokenFilter> registration =
+        new FilterRegistrationBean<>(new AdminTokenFilter(token));
+    registration.addUrlPatterns("/admin/*");
+    return registration;
+  }
+
   @Bean
   public CommandLineRunner commandLineRunner(ApplicationContext ctx) {
     return args -> {};
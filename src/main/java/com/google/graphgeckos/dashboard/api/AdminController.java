@@ -0,0 +1,143 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.api;
+
+import com.google.graphgeckos.dashboard.fetchers.DeadlineMetrics;
+import com.google.graphgeckos.dashboard.fetchers.DeadlineMetrics.Deadline;
+import com.google.graphgeckos.dashboard.fetchers.RequestBudgeter;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.BuilderCircuitBreaker;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.BuilderCircuitBreaker.Circuit;
+import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
+import com.google.graphgeckos.dashboard.storage.RecentRevisionCache;
+import com.google.graphgeckos.dashboard.storage.RevisionUpdateBuffer;
+import com.google.graphgeckos.dashboard.storage.RevisionUpdateBuffer.Stats;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Exposes the state of the fetchers and of the storage writes, for monitoring and maintenance.
+ *
+ * <p>The requests must carry the admin token, see {@link AdminTokenFilter}.
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+  /** Budget of the requests to each upstream host. */
+  @Autowired private RequestBudgeter requestBudgeter;
+
+  /** Health of each build bot. */
+  @Autowired private BuilderCircuitBreaker circuitBreaker;
+
+  /** Counts of the hit deadlines. */
+  @Autowired private DeadlineMetrics deadlineMetrics;
+
+  /** Write-behind buffer of the builder updates. */
+  @Autowired private RevisionUpdateBuffer updateBuffer;
+
+  /** Storage of the revisions, null if they are not stored in Datastore. */
+  @Autowired(required = false)
+  private DatastoreRepository datastoreRepository;
+
+  /**
+   * Returns the Datastore storage of the revisions, which the maintenance endpoints act on.
+   *
+   * @throws ResponseStatusException answering "404 Not Found" if the revisions are stored elsewhere
+   */
+  private DatastoreRepository getDatastoreRepository() {
+    if (datastoreRepository == null) {
+      throw new ResponseStatusException(
+          HttpStatus.NOT_FOUND, "The revisions are not stored in Datastore");
+    }
+    return datastoreRepository;
+  }
+
+  /**
+   * Handles GET requests for the request budgets.
+   *
+   * @return the number of requests each upstream host can currently take without waiting, keyed by
+   *     host
+   */
+  @GetMapping(value = "/budgets", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Map<String, Double> getBudgets() {
+    return requestBudgeter.getRemainingBudgets();
+  }
+
+  /**
+   * Handles GET requests for the circuits of the build bots.
+   *
+   * @return the state of the circuit of each build bot which failed since it was last fetched
+   *     successfully, keyed by build bot; the others are healthy
+   */
+  @GetMapping(value = "/circuits", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Map<String, Circuit> getCircuits() {
+    return circuitBreaker.getCircuits();
+  }
+
+  /**
+   * Handles GET requests for the deadline metrics.
+   *
+   * @return the number of times each deadline of the fetchers was hit since startup
+   */
+  @GetMapping(value = "/deadlines", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Map<Deadline, Long> getDeadlines() {
+    return deadlineMetrics.getCounts();
+  }
+
+  /**
+   * Handles GET requests for the state of the builder updates buffer.
+   *
+   * @return the number of queued builder updates, and the counts and latencies of their writes
+   */
+  @GetMapping(value = "/writes", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Stats getWrites() {
+    return updateBuffer.getStats();
+  }
+
+  /**
+   * Handles GET requests for the state of the cache of the newest revisions.
+   *
+   * @return the number of cached revisions, and of the reads served or not by the cache
+   */
+  @GetMapping(value = "/cache", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Map<String, Long> getCache() {
+    RecentRevisionCache cache = getDatastoreRepository().getRecentRevisions();
+    Map<String, Long> state = new LinkedHashMap<>();
+    state.put("size", (long) cache.size());
+    state.put("hits", cache.getHitCount());
+    state.put("misses", cache.getMissCount());
+    return state;
+  }
+
+  /**
+   * Handles POST requests to compact the revisions, removing the duplicate builder results stored
+   * before the revisions kept a single result per builder, and storing the counters of their
+   * builder results.
+   *
+   * @return the number of removed builder results
+   */
+  @PostMapping(value = "/compaction", produces = MediaType.APPLICATION_JSON_VALUE)
+  public int compact() {
+    return getDatastoreRepository().compactRevisionEntries();
+  }
+}
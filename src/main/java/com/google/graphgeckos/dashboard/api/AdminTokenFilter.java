@@ -0,0 +1,84 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.api;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.logging.Logger;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Guards the maintenance endpoints of the {@link AdminController}: every request must carry the
+ * configured admin token in its {@code Authorization: Bearer <token>} header. Requests are refused
+ * while no token is configured.
+ */
+public class AdminTokenFilter extends OncePerRequestFilter {
+
+  /** Prefix of the value of the authorization header. */
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  private static final Logger logger = Logger.getLogger(AdminTokenFilter.class.getName());
+
+  /** Token the requests must carry, empty if the endpoints are disabled. */
+  private final String token;
+
+  /** @param token token the requests must carry, empty to refuse all the requests */
+  public AdminTokenFilter(@NonNull String token) {
+    this.token = checkNotNull(token);
+  }
+
+  /**
+   * Lets the request through if it carries the token. Otherwise answers 401 (Unauthorized) if the
+   * token is missing or invalid, and 403 (Forbidden) if no token is configured.
+   */
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+      throws ServletException, IOException {
+    if (token.isEmpty()) {
+      logger.warning("Admin request refused: no token is configured");
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    if (!isTokenValid(request.getHeader(HttpHeaders.AUTHORIZATION))) {
+      logger.warning("Admin request refused: invalid token");
+      response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+      return;
+    }
+    chain.doFilter(request, response);
+  }
+
+  /** Returns true if {@code authorization} carries the token. */
+  private boolean isTokenValid(@Nullable String authorization) {
+    if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+      return false;
+    }
+    // Constant time comparison, so that the timing does not leak the token.
+    return MessageDigest.isEqual(
+        token.getBytes(StandardCharsets.UTF_8),
+        authorization.substring(BEARER_PREFIX.length()).getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -14,8 +14,20 @@
 
 package com.google.graphgeckos.dashboard.api;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
-import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
+import com.google.graphgeckos.dashboard.datatypes.RevisionPage;
+import com.google.graphgeckos.dashboard.storage.DataRepository;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -23,6 +35,7 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -30,14 +43,36 @@ import org.springframework.web.bind.annotation.RestController;
 public class DashboardController {
 
   /** Provides access to information in the storage. */
-  @Autowired private DatastoreRepository datastoreRepository;
+  @Autowired private DataRepository dataRepository;
+
+  /** Converts the revisions to JSON, as the responses do. */
+  @Autowired private ObjectMapper objectMapper;
+
+  /** The fields of the JSON representation of a revision, see {@link BuildInfo}. */
+  static final Set<String> FIELDS =
+      ImmutableSet.of(
+          "commitHash",
+          "timestamp",
+          "status",
+          "statusSummary",
+          "failedCount",
+          "passedCount",
+          "lostCount",
+          "builders");
+
+  /** The fields of a revision summary, enough for a row of the dashboard. */
+  static final List<String> SUMMARY_FIELDS =
+      ImmutableList.of("commitHash", "timestamp", "status", "statusSummary");
+
+  private static final TypeReference<Map<String, Object>> JSON_OBJECT =
+      new TypeReference<Map<String, Object>>() {};
 
   /**
    * Sets response status to Https.BAD_REQUEST (400) if the IllegalArgumentException is thrown
    * inside the getBuildInfo method.
    *
-   * @param e Exception thrown by {@code datastoreRepository}. {@link
-   *     DatastoreRepository::getBuildInfo} to learn what causes it.
+   * @param e Exception thrown by {@code dataRepository}. {@link
+   *     DataRepository::getBuildInfo} to learn what causes it.
    */
   @ExceptionHandler
   @ResponseStatus(HttpStatus.BAD_REQUEST)
@@ -45,11 +80,14 @@ public class DashboardController {
 
   /**
    * Handles GET requests from the frontend part of the application. Gets information from the
-   * database via {@code datastoreRepository}.
+   * database via {@code dataRepository}.
    *
    * @param number the number of database entries to retrieve.
    * @param offset the offset from the latest database entry, for which to consider the requested
    *     number of entries.
+   * @param fields the fields of each entry to return, all of them if none. Unless "builders" is one
+   *     of them, only the summaries of the entries are read, see {@link
+   *     DataRepository#getLastRevisionSummaries}.
    * @return list of a list containing at most {@code number} entries starting from the latest entry
    *     - {@code offset}. If the database has not enough entries for the requested {@code offset}
    *     and {@code number}, returns all available entries from that range.
@@ -58,7 +96,72 @@ public class DashboardController {
       value = "/builders/number={number}/offset={offset}",
       method = RequestMethod.GET,
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public Iterable<BuildInfo> getBuildInfo(@PathVariable int number, @PathVariable int offset) {
-    return datastoreRepository.getLastRevisionEntries(number, offset);
+  public Iterable<?> getBuildInfo(
+      @PathVariable int number,
+      @PathVariable int offset,
+      @RequestParam(required = false) List<String> fields) {
+    if (fields == null) {
+      return dataRepository.getLastRevisionEntries(number, offset);
+    }
+    for (String field : fields) {
+      checkArgument(FIELDS.contains(field), "Unknown field: %s", field);
+    }
+    if (fields.contains("builders")) {
+      return select(dataRepository.getLastRevisionEntries(number, offset), fields);
+    }
+    return select(dataRepository.getLastRevisionSummaries(number, offset), fields);
+  }
+
+  /**
+   * Handles GET requests for the summaries of the revisions, i.e. the {@link #SUMMARY_FIELDS} of
+   * each of them. The builder results are neither read nor returned, so the response is a fraction
+   * of the one of {@link #getBuildInfo}.
+   *
+   * @param number the number of database entries to retrieve.
+   * @param offset the offset from the latest database entry, for which to consider the requested
+   *     number of entries.
+   * @return list containing the summaries of at most {@code number} entries starting from the
+   *     latest entry - {@code offset}.
+   */
+  @RequestMapping(
+      value = "/builders/summary/number={number}/offset={offset}",
+      method = RequestMethod.GET,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public Iterable<Map<String, Object>> getBuildSummaries(
+      @PathVariable int number, @PathVariable int offset) {
+    return select(dataRepository.getLastRevisionSummaries(number, offset), SUMMARY_FIELDS);
+  }
+
+  /** Returns the JSON representations of {@code revisions}, with only the given {@code fields}. */
+  private List<Map<String, Object>> select(List<BuildInfo> revisions, List<String> fields) {
+    List<Map<String, Object>> selected = new ArrayList<>(revisions.size());
+    for (BuildInfo revision : revisions) {
+      Map<String, Object> json = objectMapper.convertValue(revision, JSON_OBJECT);
+      Map<String, Object> revisionFields = new LinkedHashMap<>();
+      for (String field : fields) {
+        revisionFields.put(field, json.get(field));
+      }
+      selected.add(revisionFields);
+    }
+    return selected;
+  }
+
+  /**
+   * Handles GET requests for a page of revisions. Unlike {@link #getBuildInfo}, any page costs the
+   * same as the first one, however deep it is.
+   *
+   * @param number the number of database entries to retrieve.
+   * @param pageToken the token of the page, as returned with the previous page, or none for the
+   *     latest entries.
+   * @return a page containing at most {@code number} entries, and the token of the next page, which
+   *     is null once there are no more entries.
+   */
+  @RequestMapping(
+      value = "/builders/number={number}",
+      method = RequestMethod.GET,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public RevisionPage getBuildInfoPage(
+      @PathVariable int number, @RequestParam(required = false) String pageToken) {
+    return dataRepository.getRevisionEntriesPage(number, pageToken);
   }
 }
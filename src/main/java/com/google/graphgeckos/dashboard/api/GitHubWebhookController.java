@@ -0,0 +1,128 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.datatypes.GitHubPushEvent;
+import com.google.graphgeckos.dashboard.storage.DataRepository;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.logging.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Receives the GitHub push webhook, so that the revisions are created as soon as they are pushed
+ * instead of at the next poll of the GitHub API.
+ *
+ * <p>Every delivery must be signed with the secret configured for the webhook on GitHub: the
+ * {@code X-Hub-Signature-256} header carries the HMAC-SHA256 of the body, keyed with the secret.
+ * Deliveries are refused while no secret is configured.
+ */
+@RestController
+public class GitHubWebhookController {
+
+  /** Prefix of the value of the signature header. */
+  private static final String SIGNATURE_PREFIX = "sha256=";
+
+  private static final Logger logger = Logger.getLogger(GitHubWebhookController.class.getName());
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  /** Stores the pushed revisions. */
+  @Autowired private DataRepository dataRepository;
+
+  /** Secret the deliveries are signed with, empty if the webhook is disabled. */
+  @Value("${dashboard.github.webhook.secret:}")
+  private String secret;
+
+  /** Full name of the ref whose pushes are recorded, pushes to other refs are ignored. */
+  @Value("${dashboard.github.webhook.ref:refs/heads/main}")
+  private String ref;
+
+  /**
+   * Handles a webhook delivery. "ping" events are acknowledged, and the commits of a "push" event
+   * to the tracked ref are all created as revisions, in bulk, before answering, so that GitHub
+   * reports the delivery as failed if storing them did.
+   *
+   * @param event type of the event, from the {@code X-GitHub-Event} header
+   * @param signature signature of the body, from the {@code X-Hub-Signature-256} header
+   * @param body the JSON payload of the event
+   * @return 401 (Unauthorized) if the signature is missing or invalid, 403 (Forbidden) if no secret
+   *     is configured, 400 (Bad Request) if the payload of a push cannot be read, 500 (Internal
+   *     Server Error) if its commits cannot be stored, 202 (Accepted) once a push is stored, and
+   *     204 (No Content) for the events which are ignored
+   */
+  @PostMapping("/github/webhook")
+  public ResponseEntity<Void> onEvent(
+      @RequestHeader("X-GitHub-Event") String event,
+      @RequestHeader(value = "X-Hub-Signature-256", required = false) @Nullable String signature,
+      @RequestBody byte[] body) {
+    if (secret.isEmpty()) {
+      logger.warning("GitHub webhook delivery refused: no secret is configured");
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    if (!isSignatureValid(signature, body)) {
+      logger.warning("GitHub webhook delivery refused: invalid signature");
+      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+    }
+    if (!event.equals("push")) {
+      return ResponseEntity.noContent().build();
+    }
+
+    GitHubPushEvent push;
+    try {
+      push = objectMapper.readValue(body, GitHubPushEvent.class);
+    } catch (IOException e) {
+      logger.warning("GitHub webhook: cannot read push event: " + e.getMessage());
+      return ResponseEntity.badRequest().build();
+    }
+    if (!ref.equals(push.getRef())) {
+      return ResponseEntity.noContent().build();
+    }
+
+    List<GitHubData> revisions = push.getRevisions();
+    if (!dataRepository.createRevisionEntries(revisions)) {
+      logger.warning(String.format("GitHub webhook: failed to store %d commits", revisions.size()));
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
+    logger.info(String.format("GitHub webhook: stored %d pushed commits", revisions.size()));
+    return ResponseEntity.accepted().build();
+  }
+
+  /** Returns true if {@code signature} is the signature of {@code body} with the secret. */
+  private boolean isSignatureValid(@Nullable String signature, byte[] body) {
+    if (signature == null || !signature.startsWith(SIGNATURE_PREFIX)) {
+      return false;
+    }
+    String expected =
+        SIGNATURE_PREFIX
+            + Hashing.hmacSha256(secret.getBytes(StandardCharsets.UTF_8)).hashBytes(body);
+    // Constant time comparison, so that the timing does not leak the expected signature.
+    return MessageDigest.isEqual(
+        expected.getBytes(StandardCharsets.UTF_8), signature.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -21,10 +21,12 @@ import com.google.common.base.MoreObjects;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import org.springframework.cloud.gcp.data.datastore.core.mapping.Entity;
 import org.springframework.cloud.gcp.data.datastore.core.mapping.Field;
 import org.springframework.data.annotation.Transient;
 import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 
 /**
  * Contains the information retrieved from a single build bot. It is used as a member of {@link
@@ -52,6 +54,13 @@ public class BuildBotData {
   @Field(name = "name")
   private String name;
 
+  /**
+   * ID of the build, unique among the builds of all the buildbots. Null for the results stored
+   * before builds were identified.
+   */
+  @Field(name = "buildId")
+  private Integer buildId;
+
   /** The logs of each compilation stage, stored as described by {@link Log}. */
   @Field(name = "logs")
   private List<Log> logs = new ArrayList<>();
@@ -129,6 +138,11 @@ public class BuildBotData {
     return name;
   }
 
+  @Nullable
+  public Integer getBuildId() {
+    return buildId;
+  }
+
   @NonNull
   public List<Log> getLogs() {
     return logs;
@@ -153,6 +167,10 @@ public class BuildBotData {
     this.name = name;
   }
 
+  public void setBuildId(@Nullable Integer buildId) {
+    this.buildId = buildId;
+  }
+
   public void setLogs(@NonNull List<Log> logs) {
     this.logs = new ArrayList<>(logs);
   }
@@ -177,18 +195,25 @@ public class BuildBotData {
     }
 
     BuildBotData other = (BuildBotData) o;
-    return timestamp.equals(other.timestamp)
-        && name.equals(other.name)
+    return Objects.equals(timestamp, other.timestamp)
+        && Objects.equals(name, other.name)
+        && Objects.equals(buildId, other.buildId)
         && logs.equals(other.logs)
         && status.equals(other.status);
   }
 
+  @Override
+  public int hashCode() {
+    return Objects.hash(timestamp, name, buildId, logs, status);
+  }
+
   @Override
   public String toString() {
     final MoreObjects.ToStringHelper helper =
         MoreObjects.toStringHelper("BuildBotData")
             .add("commitHash", commitHash)
             .add("name", name)
+            .add("buildId", buildId)
             .add("timestamp", timestamp)
             .add("status", status);
     return helper.toString();
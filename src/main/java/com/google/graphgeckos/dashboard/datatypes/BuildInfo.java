@@ -14,14 +14,19 @@
 
 package com.google.graphgeckos.dashboard.datatypes;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.cloud.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.springframework.cloud.gcp.data.datastore.core.mapping.Entity;
 import org.springframework.cloud.gcp.data.datastore.core.mapping.Field;
 import org.springframework.cloud.gcp.data.datastore.core.mapping.Unindexed;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 
 /**
  * This class encapsulates all the information gathered about a specific LLVM revision.
@@ -41,16 +46,46 @@ public class BuildInfo {
   @Field(name = "timestamp")
   private Timestamp timestamp;
 
-  /** List of buildbots which attempted compilation and their results. */
+  /**
+   * List of buildbots which attempted compilation and their results, with at most one result per
+   * buildbot, see {@link #addBuilder}.
+   */
   @Unindexed
   @Field(name = "builders")
   private List<BuildBotData> builders;
 
+  /** Position of the result of each buildbot in {@code builders}, built on first use. */
+  @Transient private Map<String, Integer> builderPositions;
+
+  /**
+   * Names of the buildbots whose result is stored outside of the builder list, see {@link
+   * #recordBuilder}, so that their results can be looked up by key. Null for the revisions stored
+   * before the names were recorded.
+   */
+  @Unindexed
+  @Field(name = "builderNames")
+  private List<String> builderNames;
+
   /** The global compilation status of the revision. */
   @Unindexed
   @Field(name = "status")
   private RevisionStatus status;
 
+  /** Number of builders whose result is {@link BuilderStatus#FAILED}. */
+  @Unindexed
+  @Field(name = "failedCount")
+  private int failedCount;
+
+  /** Number of builders whose result is {@link BuilderStatus#PASSED}. */
+  @Unindexed
+  @Field(name = "passedCount")
+  private int passedCount;
+
+  /** Number of builders whose result is {@link BuilderStatus#LOST}. */
+  @Unindexed
+  @Field(name = "lostCount")
+  private int lostCount;
+
   /** Used by Spring GCP. */
   public BuildInfo() {}
 
@@ -63,9 +98,36 @@ public class BuildInfo {
     this.commitHash = creationData.getCommitHash();
     this.timestamp = Timestamp.parseTimestamp(creationData.getTimestamp());
     this.builders = new ArrayList<>();
+    this.builderNames = new ArrayList<>();
     this.status = RevisionStatus.lost;
   }
 
+  /**
+   * Copies {@code other}, with a builder list of its own, so that the copy can be updated while
+   * {@code other} is being read.
+   */
+  public BuildInfo(BuildInfo other) {
+    this.commitHash = other.commitHash;
+    this.timestamp = other.timestamp;
+    this.builders = new ArrayList<>(other.builders);
+    this.builderNames = other.builderNames == null ? null : new ArrayList<>(other.builderNames);
+    this.status = other.status;
+    this.failedCount = other.failedCount;
+    this.passedCount = other.passedCount;
+    this.lostCount = other.lostCount;
+  }
+
+  /**
+   * Returns a copy of this revision without its builder results, but with the same status and
+   * counters of builder results.
+   */
+  @NonNull
+  public BuildInfo toSummary() {
+    BuildInfo summary = new BuildInfo(this);
+    summary.builders = new ArrayList<>();
+    return summary;
+  }
+
   @NonNull
   public String getCommitHash() {
     return commitHash;
@@ -81,11 +143,56 @@ public class BuildInfo {
     return builders;
   }
 
+  /**
+   * Returns the names of the buildbots whose result is stored outside of the builder list, or null
+   * if the revision was stored before they were recorded.
+   */
+  @JsonIgnore
+  @Nullable
+  public List<String> getBuilderNames() {
+    return builderNames;
+  }
+
   @NonNull
   public RevisionStatus getStatus() {
     return status;
   }
 
+  /** Returns the number of builders whose result is {@link BuilderStatus#FAILED}. */
+  public int getFailedCount() {
+    return failedCount;
+  }
+
+  /** Returns the number of builders whose result is {@link BuilderStatus#PASSED}. */
+  public int getPassedCount() {
+    return passedCount;
+  }
+
+  /** Returns the number of builders whose result is {@link BuilderStatus#LOST}. */
+  public int getLostCount() {
+    return lostCount;
+  }
+
+  /**
+   * Returns a summary of the builder results backing the status, e.g. "3/120 failed", read from the
+   * counters without going through the builder list.
+   */
+  @NonNull
+  public String getStatusSummary() {
+    int count;
+    switch (status) {
+      case failed:
+        count = failedCount;
+        break;
+      case passed:
+        count = passedCount;
+        break;
+      default:
+        count = lostCount;
+    }
+    return String.format("%d/%d %s", count, failedCount + passedCount + lostCount, status);
+  }
+
   public void setCommitHash(@NonNull String commitHash) {
     this.commitHash = commitHash;
   }
@@ -96,36 +203,151 @@ public class BuildInfo {
 
   public void setBuilders(@NonNull List<BuildBotData> builders) {
     this.builders = new ArrayList<>(builders);
+    this.builderPositions = null;
+    recount();
   }
 
-  /** Adds a new builder to the builder list and recomputes the revision status. */
-  public void addBuilder(@NonNull BuildBotData update) {
-    builders.add(update);
+  /**
+   * Records the result of a builder and updates the revision status, in constant time: the number
+   * of builders with each result is kept up to date, also when a builder's result changes, and the
+   * status is derived from these counters.
+   *
+   * <p>The builder list holds at most one result per builder: the result of its latest build, i.e.
+   * the one with the highest build ID. Adding a result which is already stored, or which is from an
+   * older build than the stored one, has no effect, so that the same builds can be ingested again
+   * without growing the entity.
+   *
+   * @return true only if the builder list changed, i.e. the entity needs to be written.
+   */
+  public boolean addBuilder(@NonNull BuildBotData update) {
+    Map<String, Integer> positions = getBuilderPositions();
+    Integer position = positions.get(update.getName());
+    if (position == null) {
+      positions.put(update.getName(), builders.size());
+      builders.add(update);
+    } else {
+      BuildBotData current = builders.get(position);
+      if (!supersedes(update, current)) {
+        return false;
+      }
+      builders.set(position, update);
+      count(current.getStatus(), -1);
+    }
+    count(update.getStatus(), 1);
 
-    reanalyseStatus();
+    updateStatus();
+    return true;
   }
 
   /**
-   * Updates the {@code status} field according to all the aggregated builder statuses. If there is
-   * no builder data, or all builder data are lost, the status will be {@code lost}.
+   * Records the result of a builder which is stored outside of the builder list, e.g. as its own
+   * entity: like {@link #addBuilder}, but only the counters and the status are updated, from the
+   * result which is stored for the same builder. The name of a builder without a stored result is
+   * recorded.
+   *
+   * @param current the stored result of the builder, or null if there is none
+   * @return true only if {@code update} replaces {@code current}, i.e. it needs to be written. The
+   *     builder names and the counters only change if {@code current} is null or has another
+   *     status.
    */
-  private void reanalyseStatus() {
-    boolean hasPassed = false;
+  public boolean recordBuilder(@Nullable BuildBotData current, @NonNull BuildBotData update) {
+    if (current != null) {
+      if (!supersedes(update, current)) {
+        return false;
+      }
+      count(current.getStatus(), -1);
+    } else if (builderNames != null) {
+      builderNames.add(update.getName());
+    }
+    count(update.getStatus(), 1);
 
-    for (BuildBotData builder : builders) {
-      if (builder.getStatus() == BuilderStatus.FAILED) {
-        this.status = RevisionStatus.failed;
+    updateStatus();
+    return true;
+  }
 
-        return;
-      } else if (builder.getStatus() == BuilderStatus.PASSED) {
-        hasPassed = true;
+  /**
+   * Removes the duplicate results of the builders, which were stored before the builder list held
+   * at most one result per builder: only the result of the latest build of each builder is kept.
+   *
+   * @return the number of removed results.
+   */
+  public int compactBuilders() {
+    List<BuildBotData> stored = builders;
+    builders = new ArrayList<>();
+    builderPositions = new HashMap<>();
+    failedCount = passedCount = lostCount = 0;
+    for (BuildBotData builder : stored) {
+      addBuilder(builder);
+    }
+    updateStatus();
+    return stored.size() - builders.size();
+  }
+
+  /**
+   * Returns the position of the result of each builder, building it on first use. The counters of
+   * the entities stored before they were kept are computed at the same time.
+   */
+  private Map<String, Integer> getBuilderPositions() {
+    if (builderPositions == null) {
+      builderPositions = new HashMap<>();
+      for (int i = 0; i < builders.size(); i++) {
+        builderPositions.put(builders.get(i).getName(), i);
+      }
+      if (failedCount + passedCount + lostCount != builders.size()) {
+        recount();
       }
     }
+    return builderPositions;
+  }
 
-    if (hasPassed) {
-      this.status = RevisionStatus.passed;
+  /**
+   * Returns the order of the build of {@code builder} among the builds of the same builder. The
+   * results stored without build ID come before all the others.
+   */
+  private static long getBuildOrder(BuildBotData builder) {
+    return builder.getBuildId() == null ? -1 : builder.getBuildId();
+  }
+
+  /** Returns whether {@code update} is a new result of the builder of {@code current}. */
+  private static boolean supersedes(BuildBotData update, BuildBotData current) {
+    return getBuildOrder(update) >= getBuildOrder(current) && !update.equals(current);
+  }
+
+  /** Adds {@code delta} to the number of builders whose result is {@code builderStatus}. */
+  private void count(BuilderStatus builderStatus, int delta) {
+    switch (builderStatus) {
+      case FAILED:
+        failedCount += delta;
+        break;
+      case PASSED:
+        passedCount += delta;
+        break;
+      default:
+        lostCount += delta;
+    }
+  }
+
+  /** Recomputes the counters from the builder list, and the status from the counters. */
+  private void recount() {
+    failedCount = passedCount = lostCount = 0;
+    for (BuildBotData builder : builders) {
+      count(builder.getStatus(), 1);
+    }
+    updateStatus();
+  }
+
+  /**
+   * Updates the {@code status} field according to the counters of the builder results. If a builder
+   * failed, the status is {@code failed}. Otherwise, if there is no builder data, or all builder
+   * data are lost, the status will be {@code lost}.
+   */
+  private void updateStatus() {
+    if (failedCount > 0) {
+      status = RevisionStatus.failed;
+    } else if (passedCount > 0) {
+      status = RevisionStatus.passed;
     } else {
-      this.status = RevisionStatus.lost;
+      status = RevisionStatus.lost;
     }
   }
 
@@ -14,6 +14,7 @@
 
 package com.google.graphgeckos.dashboard.datatypes;
 
+import java.util.Objects;
 import org.springframework.cloud.gcp.data.datastore.core.mapping.Entity;
 import org.springframework.cloud.gcp.data.datastore.core.mapping.Field;
 import org.springframework.cloud.gcp.data.datastore.core.mapping.Unindexed;
@@ -31,8 +32,9 @@ public class BuilderIndex {
   @Field(name = "builderName")
   private String name;
 
+  /** Number of the last build of the builder added to the revision entries. */
   @Unindexed
-  @Field(name = "timestamp")
+  @Field(name = "index")
   private int index;
 
   public BuilderIndex() {}
@@ -69,6 +71,11 @@ public class BuilderIndex {
     }
 
     BuilderIndex other = (BuilderIndex) o;
-    return this.name == other.name && this.index == other.index;
+    return Objects.equals(this.name, other.name) && this.index == other.index;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(name, index);
   }
 }
@@ -0,0 +1,63 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.datatypes;
+
+import com.google.cloud.datastore.Key;
+import org.springframework.cloud.gcp.data.datastore.core.mapping.Entity;
+import org.springframework.cloud.gcp.data.datastore.core.mapping.Field;
+import org.springframework.cloud.gcp.data.datastore.core.mapping.Unindexed;
+import org.springframework.data.annotation.Id;
+
+/**
+ * The result of a builder for a revision, stored as its own "builder" entity under the key of the
+ * "revision" entity instead of in its builder list, so that it can be written without rewriting
+ * the revision and its other results. Used as a Datastore entity inside DatastoreRepository when
+ * the revisions are stored with {@code BuilderLayout.CHILD_ENTITIES}.
+ */
+@Entity(name = "builder")
+public class BuilderResult {
+
+  /** The key of the entity: the key of the revision, then the name of the builder. */
+  @Id private Key key;
+
+  /** The result of the latest build of the builder for the revision. */
+  @Unindexed
+  @Field(name = "result")
+  private BuildBotData result;
+
+  /** Used by Spring GCP. */
+  public BuilderResult() {}
+
+  public BuilderResult(Key key, BuildBotData result) {
+    this.key = key;
+    this.result = result;
+  }
+
+  public Key getKey() {
+    return key;
+  }
+
+  public BuildBotData getResult() {
+    return result;
+  }
+
+  public void setKey(Key key) {
+    this.key = key;
+  }
+
+  public void setResult(BuildBotData result) {
+    this.result = result;
+  }
+}
@@ -62,6 +62,12 @@ public class GitHubData {
 
   public GitHubData() {}
 
+  public GitHubData(String commitHash, String timestamp, String repositoryLink) {
+    this.commitHash = commitHash;
+    this.timestamp = timestamp;
+    this.repositoryLink = repositoryLink;
+  }
+
   public GitHubData(String commitHash, Timestamp timestamp) {
     this.commitHash = commitHash;
     this.timestamp = timestamp.toString();
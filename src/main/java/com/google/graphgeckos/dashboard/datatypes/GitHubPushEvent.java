@@ -0,0 +1,81 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.datatypes;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The payload of a GitHub "push" webhook event, reduced to the pushed branch and its commits. Each
+ * pushed commit becomes a revision, see {@link #getRevisions()}.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GitHubPushEvent {
+
+  /** A commit of the push. */
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class Commit {
+    /** The commit hash. */
+    @JsonProperty("id")
+    private String id;
+
+    /** Time of the commit, in the ISO 8601 format. */
+    @JsonProperty("timestamp")
+    private String timestamp;
+
+    /** Link to the commit page of the repository. */
+    @JsonProperty("url")
+    private String url;
+
+    public Commit() {}
+
+    public Commit(String id, String timestamp, String url) {
+      this.id = id;
+      this.timestamp = timestamp;
+      this.url = url;
+    }
+  }
+
+  /** Full name of the pushed ref, e.g. "refs/heads/main". */
+  @JsonProperty("ref")
+  private String ref;
+
+  /** The pushed commits, oldest first. Empty if the ref was deleted. */
+  @JsonProperty("commits")
+  private List<Commit> commits = new ArrayList<>();
+
+  public GitHubPushEvent() {}
+
+  public GitHubPushEvent(String ref, List<Commit> commits) {
+    this.ref = ref;
+    this.commits.addAll(commits);
+  }
+
+  /** Returns the full name of the pushed ref. */
+  public String getRef() {
+    return ref;
+  }
+
+  /** Returns the pushed commits as revisions, in the order they were pushed. */
+  public List<GitHubData> getRevisions() {
+    List<GitHubData> revisions = new ArrayList<>(commits.size());
+    for (Commit commit : commits) {
+      revisions.add(new GitHubData(commit.id, commit.timestamp, commit.url));
+    }
+    return revisions;
+  }
+}
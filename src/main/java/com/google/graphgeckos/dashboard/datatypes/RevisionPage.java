@@ -0,0 +1,47 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.datatypes;
+
+import java.util.List;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * A page of revisions, going down in chronological order, along with the token to request the next
+ * one. Used to transfer the revisions from the DataRepository to the REST API component.
+ */
+public class RevisionPage {
+
+  /** The revisions of the page, from the latest. */
+  private final List<BuildInfo> revisions;
+
+  /** Opaque token to request the next page, null if there are no more revisions. */
+  @Nullable private final String nextPageToken;
+
+  public RevisionPage(@NonNull List<BuildInfo> revisions, @Nullable String nextPageToken) {
+    this.revisions = revisions;
+    this.nextPageToken = nextPageToken;
+  }
+
+  @NonNull
+  public List<BuildInfo> getRevisions() {
+    return revisions;
+  }
+
+  @Nullable
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * A bounded cache of the validators (ETag and Last-Modified) of the last processed response of each
+ * request URL, used to make conditional requests.
+ *
+ * <p>A server answers a conditional request with "304 Not Modified" and no body when the resource
+ * did not change, so the unchanged response needs neither to be transferred nor processed again.
+ * GitHub does not count such responses against the rate limit.
+ */
+public class ConditionalRequestCache {
+
+  /** The validators of the last processed response, keyed by request URL. */
+  private final Cache<String, Validators> cache;
+
+  /** The validators of a response. At least one of them is set. */
+  static final class Validators {
+    @Nullable private final String entityTag;
+    @Nullable private final String lastModified;
+
+    private Validators(@Nullable String entityTag, @Nullable String lastModified) {
+      this.entityTag = entityTag;
+      this.lastModified = lastModified;
+    }
+
+    /** Returns the validators of a response with {@code headers}, or null if it has none. */
+    @Nullable
+    static Validators of(HttpHeaders headers) {
+      String entityTag = headers.getETag();
+      String lastModified = headers.getFirst(HttpHeaders.LAST_MODIFIED);
+      if (entityTag == null && lastModified == null) {
+        return null;
+      }
+      return new Validators(entityTag, lastModified);
+    }
+  }
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param maximumSize maximum number of request URLs whose validators are kept, must be > 0
+   * @throws IllegalArgumentException if {@code maximumSize} is <= 0
+   */
+  public ConditionalRequestCache(long maximumSize) {
+    checkArgument(maximumSize > 0, "maximumSize must be > 0");
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+  }
+
+  /**
+   * Makes the request to {@code url} conditional on the last processed response having changed,
+   * by adding its validators to {@code headers}. Has no effect if there are no such validators.
+   */
+  void addConditions(@NonNull String url, @NonNull HttpHeaders headers) {
+    Validators validators = cache.getIfPresent(url);
+    if (validators == null) {
+      return;
+    }
+    if (validators.entityTag != null) {
+      headers.setIfNoneMatch(validators.entityTag);
+    }
+    if (validators.lastModified != null) {
+      headers.set(HttpHeaders.IF_MODIFIED_SINCE, validators.lastModified);
+    }
+  }
+
+  /** Records {@code validators} as the ones of the last processed response of {@code url}. */
+  void put(@NonNull String url, @NonNull Validators validators) {
+    cache.put(checkNotNull(url), checkNotNull(validators));
+  }
+
+  /** Forgets the validators of {@code url}, so the next request to it is not conditional. */
+  public void invalidate(@NonNull String url) {
+    cache.invalidate(url);
+  }
+
+  /** Returns the approximate number of request URLs whose validators are cached. */
+  public long size() {
+    return cache.size();
+  }
+}
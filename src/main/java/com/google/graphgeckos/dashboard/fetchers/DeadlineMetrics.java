@@ -0,0 +1,91 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import com.google.common.base.Throwables;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.handler.timeout.ReadTimeoutException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.lang.NonNull;
+
+/**
+ * Counts how often each of the deadlines of the fetchers is hit, so that a stalled upstream or a
+ * too tight configuration shows up in the monitoring.
+ *
+ * <p>This class is thread-safe.
+ */
+public class DeadlineMetrics {
+
+  /** A deadline of the fetchers. */
+  public enum Deadline {
+    /** Opening a connection to the upstream host, see {@link FetcherWebClient}. */
+    CONNECT,
+    /** Waiting for data on an open connection, see {@link FetcherWebClient}. */
+    READ,
+    /** Getting the full response to a single request, see {@link HttpFetcher}. */
+    REQUEST,
+    /** Fetching all the new builds of a single builder. */
+    BUILDER,
+    /** Fetching all the builders due at a tick. */
+    CYCLE
+  }
+
+  /** Number of times each deadline was hit. */
+  private final Map<Deadline, AtomicLong> counts = new EnumMap<>(Deadline.class);
+
+  public DeadlineMetrics() {
+    for (Deadline deadline : Deadline.values()) {
+      counts.put(deadline, new AtomicLong());
+    }
+  }
+
+  /** Records that {@code deadline} was hit. */
+  public void record(@NonNull Deadline deadline) {
+    counts.get(deadline).incrementAndGet();
+  }
+
+  /**
+   * Records the connect or read deadline if it is the cause of {@code error}. Other errors are
+   * ignored.
+   */
+  public void recordIfTimeout(@NonNull Throwable error) {
+    for (Throwable cause : Throwables.getCausalChain(error)) {
+      if (cause instanceof ConnectTimeoutException) {
+        record(Deadline.CONNECT);
+        return;
+      }
+      if (cause instanceof ReadTimeoutException) {
+        record(Deadline.READ);
+        return;
+      }
+    }
+  }
+
+  /** Returns the number of times {@code deadline} was hit. */
+  public long getCount(@NonNull Deadline deadline) {
+    return counts.get(deadline).get();
+  }
+
+  /** Returns the number of times each deadline was hit. */
+  public Map<Deadline, Long> getCounts() {
+    Map<Deadline, Long> snapshot = new EnumMap<>(Deadline.class);
+    for (Map.Entry<Deadline, AtomicLong> entry : counts.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().get());
+    }
+    return snapshot;
+  }
+}
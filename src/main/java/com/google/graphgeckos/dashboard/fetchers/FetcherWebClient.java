@@ -0,0 +1,163 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Creates the {@link WebClient} shared by the fetchers.
+ *
+ * <p>Building a {@link WebClient} sets up a connection pool, TLS and the codecs, so the fetchers
+ * must not build one per request. The client returned here keeps HTTP/1.1 connections alive in a
+ * bounded pool, uses TLS for https URLs only and buffers responses large enough for a full page of
+ * builds or commits. Opening a connection and every wait for data of a response are bounded by the
+ * connect and read timeouts, so a hung connection fails instead of stalling its fetcher.
+ *
+ * <p>HTTP/2 is not used: the HTTP/2 client of reactor-netty 0.9 is only set up for clients which
+ * speak nothing else, and fails on servers which accept it, so HTTP/1.1 is kept over TLS as well.
+ */
+public final class FetcherWebClient {
+
+  /** Maximum number of open connections, across all hosts. */
+  public static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+  /** How long an unused connection is kept open in the pool. */
+  public static final Duration DEFAULT_MAX_IDLE_TIME = Duration.ofSeconds(30);
+
+  /**
+   * Maximum size of a response body buffered in memory. A page of 100 GitHub commits is a few
+   * hundred KiB, well above the 256 KiB WebFlux default.
+   */
+  public static final int DEFAULT_MAX_IN_MEMORY_SIZE = 4 * 1024 * 1024;
+
+  /** Maximum time to open a connection. */
+  public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+  /** Maximum time to wait for data on an open connection while a response is expected. */
+  public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(30);
+
+  /** Maximum time to wait for a free connection of the pool. */
+  private static final Duration PENDING_ACQUIRE_TIMEOUT = Duration.ofSeconds(45);
+
+  /** Client used by fetchers which were not given one explicitly. */
+  private static volatile WebClient defaultClient;
+
+  private FetcherWebClient() {}
+
+  /**
+   * Creates a new pooled client with the default connect and read timeouts.
+   *
+   * @param maxConnections maximum number of open connections, must be > 0
+   * @param maxIdleTime how long an unused connection is kept open
+   * @param maxInMemorySize maximum size in bytes of a buffered response body, must be > 0
+   * @throws IllegalArgumentException if {@code maxConnections} or {@code maxInMemorySize} is <= 0
+   */
+  public static WebClient create(int maxConnections, Duration maxIdleTime, int maxInMemorySize) {
+    return create(
+        maxConnections,
+        maxIdleTime,
+        maxInMemorySize,
+        DEFAULT_CONNECT_TIMEOUT,
+        DEFAULT_READ_TIMEOUT);
+  }
+
+  /**
+   * Creates a new pooled client.
+   *
+   * @param maxConnections maximum number of open connections, must be > 0
+   * @param maxIdleTime how long an unused connection is kept open
+   * @param maxInMemorySize maximum size in bytes of a buffered response body, must be > 0
+   * @param connectTimeout maximum time to open a connection, must be positive
+   * @param readTimeout maximum time to wait for data of a response, must be positive
+   * @throws IllegalArgumentException if any argument is out of range
+   */
+  public static WebClient create(
+      int maxConnections,
+      Duration maxIdleTime,
+      int maxInMemorySize,
+      Duration connectTimeout,
+      Duration readTimeout) {
+    checkArgument(maxConnections > 0, "maxConnections must be > 0");
+    checkArgument(maxInMemorySize > 0, "maxInMemorySize must be > 0");
+    checkArgument(
+        !connectTimeout.isNegative() && !connectTimeout.isZero(), "connectTimeout must be > 0");
+    checkArgument(!readTimeout.isNegative() && !readTimeout.isZero(), "readTimeout must be > 0");
+
+    ConnectionProvider connectionProvider =
+        ConnectionProvider.builder("fetchers")
+            .maxConnections(maxConnections)
+            .maxIdleTime(maxIdleTime)
+            .pendingAcquireTimeout(PENDING_ACQUIRE_TIMEOUT)
+            .build();
+
+    HttpClient plainClient =
+        HttpClient.create(connectionProvider)
+            .tcpConfiguration(
+                tcp ->
+                    tcp.option(
+                        ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis()))
+            // Added for each request only, so that idle pooled connections do not time out. The
+            // handler is removed when the connection is released.
+            .doOnRequest(
+                (request, connection) ->
+                    connection.addHandlerLast(
+                        "readTimeout",
+                        new ReadTimeoutHandler(readTimeout.toMillis(), TimeUnit.MILLISECONDS)))
+            .keepAlive(true)
+            .compress(true)
+            .protocol(HttpProtocol.HTTP11);
+    HttpClient tlsClient = plainClient.secure();
+    ClientHttpConnector plainConnector = new ReactorClientHttpConnector(plainClient);
+    ClientHttpConnector tlsConnector = new ReactorClientHttpConnector(tlsClient);
+
+    ExchangeStrategies strategies =
+        ExchangeStrategies.builder()
+            .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(maxInMemorySize))
+            .build();
+
+    return WebClient.builder()
+        .clientConnector(
+            (method, uri, requestCallback) ->
+                ("https".equalsIgnoreCase(uri.getScheme()) ? tlsConnector : plainConnector)
+                    .connect(method, uri, requestCallback))
+        .exchangeStrategies(strategies)
+        .build();
+  }
+
+  /** Returns a lazily created client with the default settings, shared by all its callers. */
+  public static WebClient getDefault() {
+    if (defaultClient == null) {
+      synchronized (FetcherWebClient.class) {
+        if (defaultClient == null) {
+          defaultClient =
+              create(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_IDLE_TIME, DEFAULT_MAX_IN_MEMORY_SIZE);
+        }
+      }
+    }
+    return defaultClient;
+  }
+}
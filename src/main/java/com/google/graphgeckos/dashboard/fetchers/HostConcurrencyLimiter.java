@@ -0,0 +1,120 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import org.springframework.lang.NonNull;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Caps the number of tasks running at the same time against each upstream host, without
+ * blocking: a task over the limit of its host is queued and started as soon as one of the running
+ * tasks of the host completes, fails or is cancelled. A task cancelled while queued is dropped.
+ *
+ * <p>This class is thread-safe.
+ */
+public class HostConcurrencyLimiter {
+
+  /** The tasks of a host. */
+  private static final class Host {
+    /** Number of running tasks. */
+    int running;
+
+    /** Tasks waiting for a running one to complete, in arrival order. */
+    final Queue<MonoSink<Void>> pending = new ArrayDeque<>();
+  }
+
+  /** Maximum number of tasks running at the same time against a host. */
+  private final int perHostLimit;
+
+  /** The hosts which have running tasks, guarded by {@code this}. */
+  private final Map<String, Host> hosts = new HashMap<>();
+
+  /**
+   * @param perHostLimit maximum number of tasks running at the same time against a host, must be
+   *     > 0
+   * @throws IllegalArgumentException if {@code perHostLimit} is <= 0
+   */
+  public HostConcurrencyLimiter(int perHostLimit) {
+    checkArgument(perHostLimit > 0, "perHostLimit must be > 0");
+    this.perHostLimit = perHostLimit;
+  }
+
+  /**
+   * Returns a {@link Mono} which, once subscribed to, subscribes to {@code task} as soon as fewer
+   * than the limit of tasks are running against {@code host}, and emits its result.
+   */
+  public <T> Mono<T> limit(@NonNull String host, @NonNull Mono<T> task) {
+    checkNotNull(host);
+    checkNotNull(task);
+    return Mono.<Void>create(sink -> acquire(host, sink))
+        .then(Mono.defer(() -> task).doFinally(signal -> release(host)));
+  }
+
+  /** Returns the number of tasks running against {@code host}. */
+  public synchronized int getRunning(@NonNull String host) {
+    Host tasks = hosts.get(host);
+    return tasks == null ? 0 : tasks.running;
+  }
+
+  /** Starts the task of {@code sink} right away if the host is under its limit, or queues it. */
+  private void acquire(String host, MonoSink<Void> sink) {
+    synchronized (this) {
+      Host tasks = hosts.computeIfAbsent(host, h -> new Host());
+      if (tasks.running == perHostLimit) {
+        tasks.pending.add(sink);
+        sink.onCancel(() -> cancel(host, sink));
+        return;
+      }
+      tasks.running++;
+    }
+    sink.onCancel(() -> cancel(host, sink));
+    sink.success();
+  }
+
+  /** Drops the queued task of {@code sink}, or gives back its slot if it was already handed one. */
+  private void cancel(String host, MonoSink<Void> sink) {
+    synchronized (this) {
+      if (hosts.get(host).pending.remove(sink)) {
+        return;
+      }
+    }
+    // Cancelled after being handed a slot, but before starting.
+    release(host);
+  }
+
+  /** Hands the slot of a completed task to the next queued task of the host. */
+  private void release(String host) {
+    MonoSink<Void> next;
+    synchronized (this) {
+      Host tasks = hosts.get(host);
+      next = tasks.pending.poll();
+      if (next == null && --tasks.running == 0) {
+        hosts.remove(host);
+      }
+    }
+    // Started outside of the lock, as the task may run right away on this thread.
+    if (next != null) {
+      next.success();
+    }
+  }
+}
@@ -0,0 +1,315 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.graphgeckos.dashboard.fetchers.ConditionalRequestCache.Validators;
+import com.google.graphgeckos.dashboard.fetchers.DeadlineMetrics.Deadline;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+/**
+ * Performs the HTTP GET requests of the fetchers on the shared {@link WebClient}.
+ *
+ * <p>Response bodies are returned as a single {@link DataBuffer}, to be read by a streaming reader.
+ * When given a {@link ConditionalRequestCache}, {@link #getIfModified} makes conditional requests
+ * and completes empty when the server answers "304 Not Modified", so that unchanged responses are
+ * neither deserialized nor written to the storage again. When given a {@link RequestBudgeter},
+ * every request waits for the budget of its host, without blocking, and every answer adapts that
+ * budget. Each request, body included, must complete within the request timeout, and every hit
+ * deadline is counted by the {@link DeadlineMetrics}. Bodies larger than the maximum body size are
+ * refused rather than buffered.
+ */
+public class HttpFetcher {
+
+  /** Client performing the requests. */
+  private final WebClient webClient;
+
+  /** Validators of the processed responses, null if requests are never conditional. */
+  @Nullable private final ConditionalRequestCache conditionalRequestCache;
+
+  /** Budget of the requests to each host, null if requests are never delayed. */
+  @Nullable private final RequestBudgeter requestBudgeter;
+
+  /** Maximum time to get the full response to a single request. */
+  private Duration requestTimeout = Duration.ofSeconds(30);
+
+  /** Maximum size in bytes of a response body. */
+  private int maxBodySize = FetcherWebClient.DEFAULT_MAX_IN_MEMORY_SIZE;
+
+  /** Counts the hit deadlines. */
+  private DeadlineMetrics deadlineMetrics = new DeadlineMetrics();
+
+  /** Number of requests answered with "304 Not Modified". */
+  private final AtomicLong notModifiedCount = new AtomicLong();
+
+  /** Client used by fetchers which were not given one explicitly. */
+  private static volatile HttpFetcher defaultFetcher;
+
+  /** A modified response body, see {@link #getIfModified}. */
+  public static final class ModifiedResponse {
+    private final String url;
+    private final DataBuffer body;
+    @Nullable private final Validators validators;
+    @Nullable private final ConditionalRequestCache cache;
+
+    private ModifiedResponse(
+        String url,
+        DataBuffer body,
+        @Nullable Validators validators,
+        @Nullable ConditionalRequestCache cache) {
+      this.url = url;
+      this.body = body;
+      this.validators = validators;
+      this.cache = cache;
+    }
+
+    /** Returns the body of the response, which must be released once read. */
+    public DataBuffer getBody() {
+      return body;
+    }
+
+    /**
+     * Marks this response as fully processed, so that the next request to the same URL is answered
+     * with "304 Not Modified" if the response did not change. Responses which are not marked, e.g.
+     * because storing them failed, are processed again on the next request.
+     */
+    public void markProcessed() {
+      if (cache != null && validators != null) {
+        cache.put(url, validators);
+      }
+    }
+  }
+
+  /**
+   * Creates a fetcher which never makes conditional requests.
+   *
+   * @param webClient client performing the requests, see {@link FetcherWebClient}
+   */
+  public HttpFetcher(@NonNull WebClient webClient) {
+    this(webClient, null);
+  }
+
+  /**
+   * Creates a fetcher.
+   *
+   * @param webClient client performing the requests, see {@link FetcherWebClient}
+   * @param conditionalRequestCache validators of the processed responses, or null to never make
+   *     conditional requests
+   */
+  public HttpFetcher(
+      @NonNull WebClient webClient, @Nullable ConditionalRequestCache conditionalRequestCache) {
+    this(webClient, conditionalRequestCache, null);
+  }
+
+  /**
+   * Creates a fetcher.
+   *
+   * @param webClient client performing the requests, see {@link FetcherWebClient}
+   * @param conditionalRequestCache validators of the processed responses, or null to never make
+   *     conditional requests
+   * @param requestBudgeter budget of the requests to each host, or null to never delay requests
+   */
+  public HttpFetcher(
+      @NonNull WebClient webClient,
+      @Nullable ConditionalRequestCache conditionalRequestCache,
+      @Nullable RequestBudgeter requestBudgeter) {
+    this.webClient = checkNotNull(webClient);
+    this.conditionalRequestCache = conditionalRequestCache;
+    this.requestBudgeter = requestBudgeter;
+  }
+
+  /** Returns a lazily created fetcher on the default client, shared by all its callers. */
+  public static HttpFetcher getDefault() {
+    if (defaultFetcher == null) {
+      synchronized (HttpFetcher.class) {
+        if (defaultFetcher == null) {
+          defaultFetcher = new HttpFetcher(FetcherWebClient.getDefault());
+        }
+      }
+    }
+    return defaultFetcher;
+  }
+
+  /**
+   * Returns the body of a GET request to {@code url}. The result is empty if the body is empty, and
+   * fails with a {@code WebClientResponseException} if the server answers with an error status,
+   * with a {@link TimeoutException} if the response takes longer than the request timeout, or with
+   * a {@link DataBufferLimitException} if the body is larger than the maximum body size.
+   */
+  public Mono<DataBuffer> get(@NonNull String url, @NonNull MediaType accept) {
+    return fetch(
+        url,
+        accept,
+        false,
+        response -> {
+          if (response.statusCode().isError()) {
+            return response
+                .createException()
+                .flatMap(exception -> Mono.<DataBuffer>error(exception));
+          }
+          return DataBufferUtils.join(response.bodyToFlux(DataBuffer.class), maxBodySize);
+        });
+  }
+
+  /**
+   * Returns the response to a GET request to {@code url}, made conditional on the last response
+   * marked as processed having changed. The result is empty if the server answers "304 Not
+   * Modified" or the body is empty, and fails with a {@code WebClientResponseException} if the
+   * server answers with an error status, with a {@link TimeoutException} if the response takes
+   * longer than the request timeout, or with a {@link DataBufferLimitException} if the body is
+   * larger than the maximum body size.
+   */
+  public Mono<ModifiedResponse> getIfModified(@NonNull String url, @NonNull MediaType accept) {
+    return fetch(
+        url,
+        accept,
+        true,
+        response -> {
+          if (response.statusCode() == HttpStatus.NOT_MODIFIED) {
+            notModifiedCount.incrementAndGet();
+            return response.releaseBody().then(Mono.<ModifiedResponse>empty());
+          }
+          if (response.statusCode().isError()) {
+            return response
+                .createException()
+                .flatMap(exception -> Mono.<ModifiedResponse>error(exception));
+          }
+          Validators validators = Validators.of(response.headers().asHttpHeaders());
+          return DataBufferUtils.join(response.bodyToFlux(DataBuffer.class), maxBodySize)
+              .map(body -> new ModifiedResponse(url, body, validators, conditionalRequestCache));
+        });
+  }
+
+  /**
+   * Makes a GET request to {@code url} once the budget of its host allows it, adapts the budget to
+   * the answer, and reads the answer with {@code handler}. Waiting for the budget does not count
+   * towards the request timeout.
+   *
+   * @param conditional whether to make the request conditional on the last processed response
+   */
+  private <T> Mono<T> fetch(
+      String url,
+      MediaType accept,
+      boolean conditional,
+      Function<ClientResponse, Mono<T>> handler) {
+    String host = requestBudgeter == null ? null : getHost(url);
+    Mono<T> request =
+        Mono.defer(
+                () ->
+                    webClient
+                        .get()
+                        .uri(url)
+                        .accept(accept)
+                        .headers(
+                            headers -> {
+                              if (conditional && conditionalRequestCache != null) {
+                                conditionalRequestCache.addConditions(url, headers);
+                              }
+                            })
+                        .exchange())
+            .doOnNext(
+                response -> {
+                  if (host != null) {
+                    requestBudgeter.update(
+                        host, response.statusCode(), response.headers().asHttpHeaders());
+                  }
+                })
+            .flatMap(handler)
+            .timeout(
+                requestTimeout,
+                Mono.defer(
+                    () -> {
+                      deadlineMetrics.record(Deadline.REQUEST);
+                      return Mono.error(
+                          new TimeoutException(
+                              String.format("No response from %s within %s", url, requestTimeout)));
+                    }))
+            .doOnError(deadlineMetrics::recordIfTimeout);
+    if (host == null) {
+      return request;
+    }
+    return Mono.defer(
+            () -> {
+              Duration wait = requestBudgeter.acquire(host);
+              return wait.isZero() ? Mono.<Long>empty() : Mono.delay(wait);
+            })
+        .then(request);
+  }
+
+  /** Returns the host of {@code url}, or null if it has none. */
+  @Nullable
+  private static String getHost(String url) {
+    try {
+      return URI.create(url).getHost();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Returns the budget of the requests to each host, null if requests are never delayed. */
+  @Nullable
+  public RequestBudgeter getRequestBudgeter() {
+    return requestBudgeter;
+  }
+
+  /** Returns the number of times each deadline was hit. */
+  public DeadlineMetrics getDeadlineMetrics() {
+    return deadlineMetrics;
+  }
+
+  /** Sets the maximum time to get the full response to a single request. */
+  public void setRequestTimeout(@NonNull Duration requestTimeout) {
+    checkArgument(
+        !requestTimeout.isNegative() && !requestTimeout.isZero(), "requestTimeout must be > 0");
+    this.requestTimeout = requestTimeout;
+  }
+
+  /**
+   * Sets the maximum size in bytes of a response body, which should be the maximum in-memory size
+   * of the {@link WebClient}, see {@link FetcherWebClient}.
+   *
+   * @throws IllegalArgumentException if {@code maxBodySize} is <= 0
+   */
+  public void setMaxBodySize(int maxBodySize) {
+    checkArgument(maxBodySize > 0, "maxBodySize must be > 0");
+    this.maxBodySize = maxBodySize;
+  }
+
+  /** Sets the metrics the hit deadlines are recorded to. */
+  public void setDeadlineMetrics(@NonNull DeadlineMetrics deadlineMetrics) {
+    this.deadlineMetrics = checkNotNull(deadlineMetrics);
+  }
+
+  /** Returns the number of requests answered with "304 Not Modified". */
+  public long getNotModifiedCount() {
+    return notModifiedCount.get();
+  }
+}
@@ -0,0 +1,240 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * Budgets the requests made to each upstream host with a token bucket, so that the fetchers stay
+ * at the highest rate the host sustains instead of running into "403 Forbidden" or "429 Too Many
+ * Requests" answers.
+ *
+ * <p>Each host starts with {@code burst} tokens, refilled at {@code requestsPerSecond}. A request
+ * takes a token, and waits for the bucket to refill if there is none left. The bucket follows the
+ * answers of the host:
+ *
+ * <ul>
+ *   <li>{@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset} (GitHub) cap the tokens to the
+ *       remaining quota, and spread it evenly until the reset. An exhausted quota pauses the host
+ *       until the reset.
+ *   <li>{@code Retry-After}, in seconds or as a date, pauses the host until then.
+ *   <li>A 429 answer without any of these headers pauses the host for a minute.
+ * </ul>
+ *
+ * <p>This class is thread-safe.
+ */
+public class RequestBudgeter {
+
+  /** How long a host which answered 429 without saying when to retry is paused. */
+  static final Duration DEFAULT_PAUSE = Duration.ofMinutes(1);
+
+  /** The token bucket of a host. */
+  private static final class Bucket {
+    /** Available tokens, negative when requests are waiting for the refill. */
+    double tokens;
+
+    /** Number of tokens added per second. */
+    double refillRate;
+
+    /** Time of the last refill. */
+    Instant lastRefill;
+
+    /** Time before which no request is made to the host, null if it is not paused. */
+    @Nullable Instant pausedUntil;
+
+    Bucket(double tokens, double refillRate, Instant now) {
+      this.tokens = tokens;
+      this.refillRate = refillRate;
+      this.lastRefill = now;
+    }
+  }
+
+  /** Default number of requests per second of each host. */
+  private final double requestsPerSecond;
+
+  /** Maximum number of tokens of a bucket, i.e. of requests made at once after an idle period. */
+  private final int burst;
+
+  /** Source of the current time. */
+  private final Clock clock;
+
+  /** The buckets, keyed by host. Guarded by {@code this}. */
+  private final Map<String, Bucket> buckets = new HashMap<>();
+
+  private static final Logger logger = Logger.getLogger(RequestBudgeter.class.getName());
+
+  /**
+   * Creates a budgeter.
+   *
+   * @param requestsPerSecond default number of requests per second of each host, must be > 0
+   * @param burst maximum number of requests made at once to a host, must be > 0
+   * @throws IllegalArgumentException if {@code requestsPerSecond} or {@code burst} is <= 0
+   */
+  public RequestBudgeter(double requestsPerSecond, int burst) {
+    this(requestsPerSecond, burst, Clock.systemUTC());
+  }
+
+  RequestBudgeter(double requestsPerSecond, int burst, @NonNull Clock clock) {
+    checkArgument(requestsPerSecond > 0, "requestsPerSecond must be > 0");
+    checkArgument(burst > 0, "burst must be > 0");
+
+    this.requestsPerSecond = requestsPerSecond;
+    this.burst = burst;
+    this.clock = checkNotNull(clock);
+  }
+
+  /**
+   * Takes a token of {@code host} for a request.
+   *
+   * @return how long the request must wait before being made, zero if it can be made right away
+   */
+  public synchronized Duration acquire(@NonNull String host) {
+    Instant now = clock.instant();
+    Bucket bucket = refill(host, now);
+    bucket.tokens--;
+
+    Duration wait = Duration.ZERO;
+    if (bucket.tokens < 0) {
+      wait = Duration.ofNanos((long) (-bucket.tokens / bucket.refillRate * 1e9));
+    }
+    if (bucket.pausedUntil != null && bucket.pausedUntil.isAfter(now)) {
+      Duration pause = Duration.between(now, bucket.pausedUntil);
+      if (pause.compareTo(wait) > 0) {
+        wait = pause;
+      }
+    }
+    return wait;
+  }
+
+  /** Adapts the bucket of {@code host} to an answer of the host with {@code status}. */
+  public synchronized void update(
+      @NonNull String host, @NonNull HttpStatus status, @NonNull HttpHeaders headers) {
+    Instant now = clock.instant();
+    Bucket bucket = refill(host, now);
+
+    Long remaining = parseLong(headers.getFirst("X-RateLimit-Remaining"));
+    Long reset = parseLong(headers.getFirst("X-RateLimit-Reset"));
+    Instant retryAfter = parseRetryAfter(headers.getFirst(HttpHeaders.RETRY_AFTER), now);
+
+    if (remaining != null && reset != null) {
+      Instant resetTime = Instant.ofEpochSecond(reset);
+      if (remaining == 0) {
+        pause(host, bucket, resetTime);
+      } else {
+        double untilReset = Math.max(1, Duration.between(now, resetTime).getSeconds());
+        bucket.refillRate = Math.min(requestsPerSecond, remaining / untilReset);
+        bucket.tokens = Math.min(bucket.tokens, remaining);
+      }
+    }
+    if (retryAfter != null) {
+      pause(host, bucket, retryAfter);
+    } else if (status == HttpStatus.TOO_MANY_REQUESTS && remaining == null) {
+      pause(host, bucket, now.plus(DEFAULT_PAUSE));
+    }
+  }
+
+  /** Returns the number of requests {@code host} can currently take without waiting. */
+  public synchronized double getRemainingBudget(@NonNull String host) {
+    Instant now = clock.instant();
+    Bucket bucket = refill(host, now);
+    if (bucket.pausedUntil != null && bucket.pausedUntil.isAfter(now)) {
+      return 0;
+    }
+    return Math.max(0, bucket.tokens);
+  }
+
+  /** Returns the remaining budget of every host requested so far, sorted by host. */
+  public synchronized Map<String, Double> getRemainingBudgets() {
+    Map<String, Double> budgets = new TreeMap<>();
+    for (String host : buckets.keySet()) {
+      budgets.put(host, getRemainingBudget(host));
+    }
+    return budgets;
+  }
+
+  /** Returns the bucket of {@code host}, after adding the tokens refilled since the last call. */
+  private Bucket refill(String host, Instant now) {
+    Bucket bucket = buckets.get(host);
+    if (bucket == null) {
+      bucket = new Bucket(burst, requestsPerSecond, now);
+      buckets.put(host, bucket);
+      return bucket;
+    }
+    if (now.isAfter(bucket.lastRefill)) {
+      double elapsed = Duration.between(bucket.lastRefill, now).toNanos() / 1e9;
+      bucket.tokens = Math.min(burst, bucket.tokens + elapsed * bucket.refillRate);
+      bucket.lastRefill = now;
+    }
+    if (bucket.pausedUntil != null && !bucket.pausedUntil.isAfter(now)) {
+      // The quota was reset, the rate is learnt again from the next answers.
+      bucket.pausedUntil = null;
+      bucket.refillRate = requestsPerSecond;
+    }
+    return bucket;
+  }
+
+  /** Pauses {@code host} until {@code until}. */
+  private void pause(String host, Bucket bucket, Instant until) {
+    if (bucket.pausedUntil == null || until.isAfter(bucket.pausedUntil)) {
+      logger.warning(String.format("Rate limited by %s, pausing until %s", host, until));
+      bucket.pausedUntil = until;
+    }
+  }
+
+  @Nullable
+  private static Long parseLong(@Nullable String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** Parses a {@code Retry-After} header, given either in seconds or as an HTTP date. */
+  @Nullable
+  private static Instant parseRetryAfter(@Nullable String value, Instant now) {
+    if (value == null) {
+      return null;
+    }
+    Long seconds = parseLong(value);
+    if (seconds != null) {
+      return now.plusSeconds(seconds);
+    }
+    try {
+      return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * Decides which builders to poll and when, learning the build cadence of each of them.
+ *
+ * <p>Each builder has its own polling interval, kept between {@code minInterval} and {@code
+ * maxInterval}. After a poll which found new builds, the interval moves towards the observed time
+ * per build, so a builder is polled about once per new build. After a poll which found nothing, or
+ * failed, the interval doubles. Builders wait in a priority queue ordered by their next due time,
+ * and at most {@code maxPollsPerTick} of them are handed out at each tick, the most overdue first.
+ *
+ * <p>This class is thread-safe.
+ */
+public class AdaptivePollScheduler {
+
+  /** Weight of the latest observation in the learned interval, the rest is the previous one. */
+  private static final double SMOOTHING = 0.5;
+
+  /** Shortest polling interval of a builder. */
+  private final Duration minInterval;
+
+  /** Longest polling interval of a builder, reached by idle builders. */
+  private final Duration maxInterval;
+
+  /** Maximum number of builders polled at each tick, the global request budget. */
+  private final int maxPollsPerTick;
+
+  /** The builders waiting for their next poll, the earliest due first. */
+  private final PriorityQueue<BuilderSchedule> queue =
+      new PriorityQueue<>(Comparator.comparing((BuilderSchedule schedule) -> schedule.nextDue));
+
+  /** The schedule of every builder, whether queued or being polled. */
+  private final Map<String, BuilderSchedule> schedules = new HashMap<>();
+
+  /** The polling state of a single builder. */
+  private static class BuilderSchedule {
+    private final String builder;
+    private Duration interval;
+    private Instant nextDue;
+    @Nullable private Instant lastPoll;
+
+    private BuilderSchedule(String builder, Duration interval, Instant nextDue) {
+      this.builder = builder;
+      this.interval = interval;
+      this.nextDue = nextDue;
+    }
+  }
+
+  /**
+   * Creates a scheduler with all the {@code builders} due at {@code now}. Builders start with the
+   * shortest interval, which grows until it matches their cadence.
+   *
+   * @param builders names of the builders to poll
+   * @param minInterval shortest polling interval of a builder, must be positive
+   * @param maxInterval longest polling interval of a builder, must not be shorter than {@code
+   *     minInterval}
+   * @param maxPollsPerTick maximum number of builders polled at each tick, must be > 0
+   * @throws IllegalArgumentException if any argument is out of range
+   */
+  public AdaptivePollScheduler(
+      @NonNull Collection<String> builders,
+      @NonNull Duration minInterval,
+      @NonNull Duration maxInterval,
+      int maxPollsPerTick,
+      @NonNull Instant now) {
+    checkArgument(!minInterval.isNegative() && !minInterval.isZero(), "minInterval must be > 0");
+    checkArgument(maxInterval.compareTo(minInterval) >= 0, "maxInterval must be >= minInterval");
+    checkArgument(maxPollsPerTick > 0, "maxPollsPerTick must be > 0");
+    checkNotNull(now);
+
+    this.minInterval = minInterval;
+    this.maxInterval = maxInterval;
+    this.maxPollsPerTick = maxPollsPerTick;
+    for (String builder : builders) {
+      BuilderSchedule schedule = new BuilderSchedule(checkNotNull(builder), minInterval, now);
+      if (schedules.putIfAbsent(builder, schedule) == null) {
+        queue.add(schedule);
+      }
+    }
+  }
+
+  /**
+   * Returns the builders due at {@code now}, the most overdue first and no more than {@code
+   * maxPollsPerTick} of them. They leave the queue until their poll is recorded; the other due
+   * builders stay first in line for the next tick.
+   */
+  public synchronized List<String> takeDue(@NonNull Instant now) {
+    List<String> due = new ArrayList<>();
+    while (due.size() < maxPollsPerTick
+        && !queue.isEmpty()
+        && !queue.peek().nextDue.isAfter(now)) {
+      due.add(queue.poll().builder);
+    }
+    return due;
+  }
+
+  /**
+   * Records a successful poll of {@code builder} which found {@code newBuilds} new finished
+   * builds, adapts its interval and puts it back in the queue.
+   *
+   * @throws IllegalArgumentException if {@code builder} is unknown or {@code newBuilds} is < 0
+   */
+  public synchronized void recordPoll(
+      @NonNull String builder, int newBuilds, @NonNull Instant now) {
+    checkArgument(newBuilds >= 0, "newBuilds must be >= 0");
+    BuilderSchedule schedule = getSchedule(builder);
+
+    if (newBuilds == 0) {
+      schedule.interval = schedule.interval.multipliedBy(2);
+    } else if (schedule.lastPoll != null) {
+      long elapsedMillis = Duration.between(schedule.lastPoll, now).toMillis();
+      long perBuildMillis = elapsedMillis / newBuilds;
+      long learnedMillis =
+          Math.round(SMOOTHING * perBuildMillis + (1 - SMOOTHING) * schedule.interval.toMillis());
+      schedule.interval = Duration.ofMillis(learnedMillis);
+    }
+    reschedule(schedule, now);
+  }
+
+  /**
+   * Records a failed poll of {@code builder}, backs its interval off and puts it back in the queue.
+   *
+   * @throws IllegalArgumentException if {@code builder} is unknown
+   */
+  public synchronized void recordFailure(@NonNull String builder, @NonNull Instant now) {
+    BuilderSchedule schedule = getSchedule(builder);
+    schedule.interval = schedule.interval.multipliedBy(2);
+    reschedule(schedule, now);
+  }
+
+  /**
+   * Puts {@code builder}, which was taken but not polled, back in the queue to be due at {@code
+   * until}. Its interval is unchanged.
+   *
+   * @throws IllegalArgumentException if {@code builder} is unknown
+   */
+  public synchronized void deferUntil(@NonNull String builder, @NonNull Instant until) {
+    BuilderSchedule schedule = getSchedule(builder);
+    queue.remove(schedule);
+    schedule.nextDue = checkNotNull(until);
+    queue.add(schedule);
+  }
+
+  /** Returns the current polling interval of {@code builder}, or null if it is unknown. */
+  @Nullable
+  public synchronized Duration getInterval(@NonNull String builder) {
+    BuilderSchedule schedule = schedules.get(builder);
+    return schedule == null ? null : schedule.interval;
+  }
+
+  /** Returns the number of builders waiting in the queue, i.e. not being polled. */
+  public synchronized int getQueuedCount() {
+    return queue.size();
+  }
+
+  private BuilderSchedule getSchedule(String builder) {
+    BuilderSchedule schedule = schedules.get(checkNotNull(builder));
+    checkArgument(schedule != null, "Unknown builder: %s", builder);
+    return schedule;
+  }
+
+  /** Clamps the interval of {@code schedule} and queues it for its next poll. */
+  private void reschedule(BuilderSchedule schedule, Instant now) {
+    // The due time is the ordering key, the schedule must leave the queue before it changes.
+    queue.remove(schedule);
+    if (schedule.interval.compareTo(minInterval) < 0) {
+      schedule.interval = minInterval;
+    } else if (schedule.interval.compareTo(maxInterval) > 0) {
+      schedule.interval = maxInterval;
+    }
+    schedule.lastPoll = now;
+    schedule.nextDue = now.plus(schedule.interval);
+    queue.add(schedule);
+  }
+}
@@ -16,21 +16,39 @@ package com.google.graphgeckos.dashboard.fetchers.buildbot;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.util.Preconditions;
 import com.google.cloud.Timestamp;
 import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
 import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
 import com.google.graphgeckos.dashboard.datatypes.Log;
-import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
+import com.google.graphgeckos.dashboard.fetchers.HttpFetcher;
+import com.google.graphgeckos.dashboard.fetchers.HttpFetcher.ModifiedResponse;
+import com.google.graphgeckos.dashboard.storage.BuildbotNotFoundException;
+import com.google.graphgeckos.dashboard.storage.DataRepository;
+import com.google.graphgeckos.dashboard.storage.RevisionUpdateBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
 import org.springframework.lang.NonNull;
-import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 /**
  * A single build JSON, as returned by:
@@ -42,6 +60,14 @@ class BuildJson {
   @JsonProperty("buildid")
   int buildId;
 
+  /** Number of this build. It increases with each build performed by the builder. */
+  @JsonProperty("number")
+  int number;
+
+  /** Whether this build has finished. Builds missing the field are assumed to be finished. */
+  @JsonProperty("complete")
+  boolean complete = true;
+
   /**
    * The state of this build.
    *
@@ -51,16 +77,26 @@ class BuildJson {
    */
   @JsonProperty("state_string")
   String stateString;
-}
 
-/**
- * A collection of builds, as returned by:
- * http://lab.llvm.org:8011/api/v2/builders/clang-x86_64-debian-fast/builds?order=-number&limit=20
- */
-@JsonIgnoreProperties(ignoreUnknown = true)
-class BuildsJson {
-  @JsonProperty("builds")
-  BuildJson[] builds;
+  /**
+   * The revision this build was made from, as reported by the "got_revision" build property. Only
+   * present when the builds are requested with {@code property=got_revision}.
+   */
+  String revision;
+
+  /**
+   * Extracts the revision from the build properties. Each property is a two-element list: its value
+   * and the name of the step which set it.
+   *
+   * @param properties representation of the "properties" JSON field
+   */
+  @JsonProperty("properties")
+  private void unpackProperties(Map<String, List<Object>> properties) {
+    List<Object> gotRevision = properties.get("got_revision");
+    if (gotRevision != null && !gotRevision.isEmpty() && gotRevision.get(0) instanceof String) {
+      revision = (String) gotRevision.get(0);
+    }
+  }
 }
 
 /** A change JSON, as returned by: http://lab.llvm.org:8011/api/v2/changes?limit=1 */
@@ -75,22 +111,22 @@ class ChangeJson {
   long whenSecondsSinceEpoch;
 }
 
-/** A collection of changes, as returned by: http://lab.llvm.org:8011/api/v2/changes?limit=5 */
-@JsonIgnoreProperties(ignoreUnknown = true)
-class ChangesJson {
-  @JsonProperty("changes")
-  ChangeJson[] changes;
-}
-
 /**
  * A BuildBot v2 API JSON data fetcher.
  *
  * <p>The LLVM build bots are served at: http://lab.llvm.org:8011/api/v2/.
+ *
+ * <p>Fetching a builder is a non-blocking pipeline, see {@link #ingest(String)}: requests run on
+ * the event loop of the {@link HttpFetcher}, and only the calls to the blocking storage are moved
+ * to a bounded elastic scheduler. Each request is bounded by the deadlines of the {@link
+ * HttpFetcher} and each storage call by a timeout, and the per-build stages never run more than a
+ * bounded number of requests or writes at once. When given a {@link RevisionUpdateBuffer}, the
+ * builds are written through it, coalesced with the updates of the other builders.
  */
 public class BuildBotClient {
 
   /** Provides access to the storage. */
-  @Autowired private DatastoreRepository datastoreRepository;
+  @Autowired private DataRepository dataRepository;
 
   /**
    * Base url of the BuildBot API.
@@ -99,115 +135,562 @@ public class BuildBotClient {
    */
   private String baseUrl;
 
-  /** Default object mapper used to deserialize JSON data. */
-  private ObjectMapper objectMapper = new ObjectMapper();
+  /** Performs the requests, see {@link HttpFetcher}. */
+  private final HttpFetcher httpFetcher;
+
+  /** How builds are mapped to their changes. */
+  private ChangeResolution changeResolution = ChangeResolution.BATCHED;
+
+  /** Changes already resolved, checked before any request. Null if there is no cache. */
+  private ChangeCache changeCache;
+
+  /** Buffer the builds are written through. Null if they are written one by one. */
+  private RevisionUpdateBuffer updateBuffer;
+
+  /** Maximum number of changes of a builder requested at once, one per build. */
+  private int changeConcurrency = 4;
+
+  /** Maximum number of storage writes of a builder running at once. */
+  private int writeConcurrency = 4;
+
+  /** Maximum time to wait for a single storage call. */
+  private Duration storageTimeout = Duration.ofSeconds(30);
+
+  /** How long the latest changes are shared between the builders once fetched. */
+  private Duration recentChangesTtl = Duration.ofSeconds(30);
+
+  /**
+   * The latest changes, keyed by their revision, fetched at most once per {@code recentChangesTtl}
+   * and shared by all the builders fetched meanwhile. Failed fetches are not kept.
+   */
+  private final Mono<Map<String, ChangeJson>> recentChanges =
+      Mono.defer(this::fetchRecentChanges)
+          .cache(changes -> recentChangesTtl, e -> Duration.ZERO, () -> Duration.ZERO);
+
+  /** Number of builds requested from a builder in one go. */
+  private static final int BUILDS_LIMIT = 20;
+
+  /**
+   * Maximum number of pages of new builds fetched from a builder in one run. Whatever is left is
+   * fetched on the next run, starting from the recorded index.
+   */
+  private static final int MAX_PAGES = 10;
+
+  /**
+   * Number of latest changes requested by the bulk changes query. A builder's latest builds are
+   * nearly always made from changes within this window; the others are resolved one by one.
+   */
+  private static final int CHANGES_LIMIT = 500;
 
   private static final Logger logger = Logger.getLogger(BuildBotClient.class.getName());
 
-  public BuildBotClient(@NonNull String baseUrl, DatastoreRepository repository) {
+  public BuildBotClient(
+      @NonNull String baseUrl, DataRepository repository, @NonNull HttpFetcher httpFetcher) {
     this.baseUrl = Preconditions.checkNotNull(baseUrl);
-    this.datastoreRepository = repository;
+    this.dataRepository = repository;
+    this.httpFetcher = Preconditions.checkNotNull(httpFetcher);
+  }
+
+  public BuildBotClient(@NonNull String baseUrl, DataRepository repository) {
+    this(baseUrl, repository, HttpFetcher.getDefault());
   }
 
   public BuildBotClient(@NonNull String baseUrl) {
-    this.baseUrl = Preconditions.checkNotNull(baseUrl);
+    this(baseUrl, null);
+  }
+
+  /** Reads a response body, see {@link BuildBotJsonReader}. */
+  private interface BodyReader<T> {
+    T read(InputStream body) throws IOException;
+  }
+
+  /** A page of builds, see {@link #getBuilds}. */
+  private static class BuildsPage {
+    private final BuildJson[] builds;
+    private final ModifiedResponse response;
+
+    private BuildsPage(BuildJson[] builds, ModifiedResponse response) {
+      this.builds = builds;
+      this.response = response;
+    }
+  }
+
+  /** The outcome of adding builds of a builder to the storage, see {@link #addBuilds}. */
+  private static class AddedBuilds {
+    /** The new index of the builder. */
+    private final int index;
+
+    /** Number of builds written to the storage. */
+    private final int written;
+
+    private AddedBuilds(int index, int written) {
+      this.index = index;
+      this.written = written;
+    }
+  }
+
+  /** The outcome of adding a single build to the storage, see {@link #addBuild}. */
+  private enum BuildOutcome {
+    WRITTEN,
+    /** The build has no change, so there is nothing to write. */
+    SKIPPED,
+    NOT_WRITTEN
   }
 
   /**
-   * Returns the text of a HTTP GET request to the base URL.
+   * Returns the body of a HTTP GET request to the base URL, as read by {@code reader} straight from
+   * the network buffers. The result is empty if the body is empty, and fails if the request fails,
+   * hits a deadline of the {@link HttpFetcher}, or {@code reader} fails to read the body.
    *
-   * The endpoint is computed from the arguments via {@code String.format}.
-   * 
+   * <p>The endpoint is computed from the arguments via {@code String.format}.
+   *
+   * @param reader reads the body into the returned object
    * @param format format string for the HTTP endpoint relative to the base URL.
    * @param args the args to substitute in the format string.
    */
-  private String httpGet(String format, Object... args) {
-    return WebClient.builder()
-        .baseUrl(baseUrl)
-        .defaultHeader(HttpHeaders.CONTENT_TYPE, "application/json")
-        .build()
-        .get()
-        .uri(String.format(format, args))
-        .accept(MediaType.TEXT_PLAIN)
-        .retrieve()
-        .bodyToMono(String.class)
-        .block();
-  }
-
-  /** Returns the latest 20 builds for {@code builderId}, or null if they cannot be retrieved. */
-  private BuildJson[] getLatestBuilds(String builderId) {
-    String response;
-    try {
-      response = httpGet("/builders/%s/builds?order=-buildid&limit=20", builderId);
-    } catch (Exception e) {
-      logger.warning(
-          String.format("Failed to fetch latest builds for builderId: %s: %s", builderId, e));
-      return null;
-    }
-    if (response == null) {
-      logger.warning(String.format("Failed to get build results for builderId: %s", builderId));
-      return null;
+  private <T> Mono<T> httpGet(BodyReader<T> reader, String format, Object... args) {
+    return httpFetcher
+        .get(baseUrl + String.format(format, args), MediaType.TEXT_PLAIN)
+        .flatMap(body -> read(body, reader));
+  }
+
+  /** Reads {@code body} with {@code reader} and releases it. */
+  private static <T> Mono<T> read(DataBuffer body, BodyReader<T> reader) {
+    try (InputStream input = body.asInputStream(true)) {
+      return Mono.justOrEmpty(reader.read(input));
+    } catch (IOException e) {
+      return Mono.error(new UncheckedIOException(e));
     }
-    try {
-      BuildsJson builds = objectMapper.readValue(response, BuildsJson.class);
-      if (builds == null) return null;
-      return builds.builds;
-    } catch (JsonProcessingException e) {
-      logger.severe(String.format("Failed to deserialize GET response %s: %s", response, e));
+  }
+
+  /**
+   * Runs the blocking storage call {@code call} on a bounded elastic scheduler, so it never blocks
+   * an event loop, and fails if it takes longer than the storage timeout.
+   */
+  private <T> Mono<T> storage(Callable<T> call) {
+    return Mono.fromCallable(call).subscribeOn(Schedulers.boundedElastic()).timeout(storageTimeout);
+  }
+
+  /**
+   * Returns a page of builds of {@code builderId}, requested only if it changed since it was last
+   * processed. The result is empty if the page did not change or cannot be deserialized, and fails
+   * if it cannot be fetched.
+   *
+   * @param selection the query parameters selecting and ordering the builds, e.g. "order=-number"
+   */
+  private Mono<BuildsPage> getBuilds(String builderId, String selection) {
+    String endpoint;
+    if (changeResolution == ChangeResolution.BATCHED) {
+      endpoint =
+          String.format(
+              "/builders/%s/builds?%s&limit=%d&property=got_revision",
+              builderId,
+              selection,
+              BUILDS_LIMIT);
+    } else {
+      endpoint =
+          String.format("/builders/%s/builds?%s&limit=%d", builderId, selection, BUILDS_LIMIT);
     }
-    return null;
+    return httpFetcher
+        .getIfModified(baseUrl + endpoint, MediaType.TEXT_PLAIN)
+        .flatMap(
+            response ->
+                read(response.getBody(), BuildBotJsonReader::readBuilds)
+                    .map(builds -> new BuildsPage(builds, response)))
+        .onErrorResume(
+            UncheckedIOException.class,
+            e -> {
+              logger.severe(String.format("Failed to deserialize builds of %s: %s", builderId, e));
+              return Mono.empty();
+            });
+  }
+
+  /** Returns the latest 20 builds for {@code builderId}, see {@link #getBuilds}. */
+  private Mono<BuildsPage> getLatestBuilds(String builderId) {
+    return getBuilds(builderId, "order=-number");
   }
 
   /**
-   * Returns the change of the build identified by {@code buildId}, or null if the build is not
-   * found.
+   * Returns the first 20 builds of {@code builderId} with a number greater than {@code index}, in
+   * increasing order, see {@link #getBuilds}.
    */
-  private ChangeJson getChange(int buildId) {
-    String response = httpGet("/builds/%d/changes?limit=1", buildId);
-    try {
-      ChangesJson changes = objectMapper.readValue(response, ChangesJson.class);
-      if (changes != null && changes.changes != null && changes.changes.length > 0) {
-        return changes.changes[0];
+  private Mono<BuildsPage> getBuildsAfter(String builderId, int index) {
+    return getBuilds(builderId, String.format("order=number&number__gt=%d", index));
+  }
+
+  /**
+   * Returns the change of the build identified by {@code buildId}, or an empty optional if the
+   * build has no change. The result is empty if the response is empty, and fails if the changes
+   * cannot be fetched or deserialized.
+   */
+  private Mono<Optional<ChangeJson>> getChange(int buildId) {
+    return httpGet(BuildBotJsonReader::readChanges, "/builds/%d/changes?limit=1", buildId)
+        .map(changes -> changes.length > 0 ? Optional.of(changes[0]) : Optional.empty());
+  }
+
+  /**
+   * Requests the latest {@code CHANGES_LIMIT} changes, keyed by their revision. Only the fields
+   * needed to build a {@link BuildBotData} are requested.
+   */
+  private Mono<Map<String, ChangeJson>> fetchRecentChanges() {
+    return httpGet(
+            BuildBotJsonReader::readChanges,
+            "/changes?order=-changeid&limit=%d&field=revision&field=when_timestamp",
+            CHANGES_LIMIT)
+        .map(
+            changes -> {
+              Map<String, ChangeJson> changesByRevision = new HashMap<>();
+              for (ChangeJson change : changes) {
+                if (change.revision != null) {
+                  changesByRevision.putIfAbsent(change.revision, change);
+                }
+              }
+              return Collections.unmodifiableMap(changesByRevision);
+            });
+  }
+
+  /**
+   * Returns the latest {@code CHANGES_LIMIT} changes, keyed by their revision, or an empty map if
+   * they cannot be retrieved. The changes are shared by the builders fetched within {@code
+   * recentChangesTtl} of each other, so a cycle requests them once rather than once per builder.
+   */
+  private Mono<Map<String, ChangeJson>> getRecentChanges() {
+    return recentChanges
+        .onErrorResume(
+            e -> {
+              logger.warning(String.format("Failed to fetch the latest changes: %s", e));
+              return Mono.empty();
+            })
+        .defaultIfEmpty(new HashMap<>());
+  }
+
+  /**
+   * Maps each of the {@code builds} to its change, or to an empty optional if the build has no
+   * change. Builds whose change cannot be resolved, e.g. because its request failed, are left out
+   * of the result.
+   *
+   * <p>Changes found in the {@link ChangeCache} are used as they are. In {@link
+   * ChangeResolution#BATCHED} mode, the builds carrying their revision are joined with
+   * the latest changes, so the common case costs a single request whatever the number of builds.
+   * Only the remaining builds, and all of them in {@link ChangeResolution#PER_BUILD} mode, are
+   * resolved with one request each, at most {@code changeConcurrency} at once.
+   */
+  private Mono<Map<Integer, Optional<ChangeJson>>> resolveChanges(List<BuildJson> builds) {
+    Map<Integer, Optional<ChangeJson>> changesByBuild = new ConcurrentHashMap<>();
+    List<BuildJson> uncached = new ArrayList<>();
+    for (BuildJson build : builds) {
+      ChangeJson cached = changeCache == null ? null : changeCache.get(build.buildId);
+      if (cached == null) {
+        uncached.add(build);
+      } else {
+        changesByBuild.put(build.buildId, Optional.of(cached));
       }
-    } catch (JsonProcessingException e) {
-      logger.severe(String.format("Failed to deserialize GET response %s: %s", response, e));
     }
-    return null;
+
+    boolean joinRecentChanges =
+        changeResolution == ChangeResolution.BATCHED
+            && uncached.stream().anyMatch(build -> build.revision != null);
+    Mono<Map<String, ChangeJson>> recentChanges =
+        joinRecentChanges ? getRecentChanges() : Mono.just(new HashMap<>());
+
+    return recentChanges
+        .flatMapMany(
+            changesByRevision -> {
+              List<BuildJson> unresolved = new ArrayList<>();
+              for (BuildJson build : uncached) {
+                ChangeJson change =
+                    build.revision == null ? null : changesByRevision.get(build.revision);
+                if (change == null) {
+                  unresolved.add(build);
+                } else {
+                  cacheChange(build.buildId, change);
+                  changesByBuild.put(build.buildId, Optional.of(change));
+                }
+              }
+              return Flux.fromIterable(unresolved);
+            })
+        .flatMap(
+            build ->
+                getChange(build.buildId)
+                    .doOnNext(
+                        change -> {
+                          change.ifPresent(found -> cacheChange(build.buildId, found));
+                          changesByBuild.put(build.buildId, change);
+                        })
+                    .onErrorResume(
+                        e -> {
+                          logger.warning(
+                              String.format(
+                                  "Failed to fetch the changes of build %d: %s",
+                                  build.buildId, e));
+                          return Mono.empty();
+                        }),
+            changeConcurrency)
+        .then(Mono.fromCallable(() -> changesByBuild));
+  }
+
+  /** Adds {@code change} to the change cache, if there is one. */
+  private void cacheChange(int buildId, ChangeJson change) {
+    if (changeCache != null) {
+      changeCache.put(buildId, change);
+    }
   }
 
   /**
-   * Fetches build information for the {@code buildBot}.
-   * Starts fetching process. Fetches data every {@code delay} seconds from the url: {@code
-   * baseUrl}/{@code buildBot}/builds/{@code buildId}. E.g with buildBot =
-   * "clang-x86_64-debian-fast" and buildId = 1000, baseUrl =
-   * "http://lab.llvm.org:8011/json/builders" the request url will be
-   * http://lab.llvm.org:8011/json/builders/clang-x86_64-debian-fast/builds/1000 Adds valid fetched
-   * data in the form of {@link BuildBotData} to the storage and tries to fetch an entry with the
-   * next buildId after waiting for {@code delay} seconds. If the fetched data is empty (invalid)
-   * waits for {@code delay} seconds and tries to make the same request.
+   * Fetches the builds of {@code buildBot} that were not fetched yet and adds them to the storage,
+   * blocking until done. Failures are logged.
    *
    * @param buildBot name of the BuildBot as it is in the API (e.g "clang-x86_64-debian-fast")
-   * @param initialBuildId the id of the BuildBot's build from where to start fetching data
+   * @see #ingest(String)
    */
   public void run(@NonNull String buildBot) {
     Preconditions.checkNotNull(buildBot);
+    try {
+      ingest(buildBot).block();
+    } catch (RuntimeException e) {
+      logger.warning(String.format("Failed to fetch builds of %s: %s", buildBot, e));
+    }
+  }
+
+  /**
+   * Returns a {@link Mono} which, once subscribed to, fetches the builds of {@code buildBot} that
+   * were not fetched yet and adds them to the storage.
+   *
+   * <p>The number of the last build added is stored as the builder's {@link BuilderIndex}, so each
+   * run only requests the builds after it, paging forward while full pages come back. A builder
+   * without an index yet starts from its latest builds. Builds are added in increasing order up to
+   * the first unfinished one, which is fetched again on the next run.
+   *
+   * @param buildBot name of the BuildBot as it is in the API (e.g "clang-x86_64-debian-fast")
+   * @return the number of builds written to the storage; fails if the builds of the builder cannot
+   *     be fetched or stored
+   */
+  public Mono<Integer> ingest(@NonNull String buildBot) {
+    Preconditions.checkNotNull(buildBot);
+
+    return storage(() -> dataRepository.getBuilderIndex(buildBot))
+        .flatMap(index -> ingestAfter(buildBot, index, 0).map(added -> added.written))
+        .onErrorResume(
+            BuildbotNotFoundException.class,
+            e -> {
+              logger.info(
+                  String.format("No index for %s, starting from its latest builds", buildBot));
+              return getLatestBuilds(buildBot)
+                  .flatMap(
+                      page -> {
+                        return addBuilds(buildBot, getFinishedBuilds(page.builds), -1)
+                            .doOnSuccess(added -> page.response.markProcessed())
+                            .map(added -> added.written);
+                      })
+                  .defaultIfEmpty(0);
+            });
+  }
+
+  /**
+   * Adds the builds of {@code buildBot} after {@code index}, starting from the page number {@code
+   * page} and paging forward while full pages of finished builds come back.
+   *
+   * @return the new index of the builder and the number of builds written over all the pages
+   */
+  private Mono<AddedBuilds> ingestAfter(String buildBot, int index, int page) {
+    if (page >= MAX_PAGES) {
+      return Mono.just(new AddedBuilds(index, 0));
+    }
+    return getBuildsAfter(buildBot, index)
+        .flatMap(
+            buildsPage -> {
+              BuildJson[] builds = buildsPage.builds;
+              return addBuilds(buildBot, getFinishedBuilds(builds), index)
+                  .doOnSuccess(added -> buildsPage.response.markProcessed())
+                  .flatMap(
+                      added -> {
+                        boolean allAdded = builds.length > 0 && added.index == maxNumber(builds);
+                        if (!allAdded || added.index <= index || builds.length < BUILDS_LIMIT) {
+                          return Mono.just(added);
+                        }
+                        return ingestAfter(buildBot, added.index, page + 1)
+                            .map(next -> new AddedBuilds(next.index, added.written + next.written));
+                      });
+            })
+        .defaultIfEmpty(new AddedBuilds(index, 0));
+  }
+
+  /**
+   * Returns the finished {@code builds} in increasing order of their number, up to the first
+   * unfinished one.
+   */
+  private static List<BuildJson> getFinishedBuilds(BuildJson[] builds) {
+    BuildJson[] sorted = Arrays.copyOf(builds, builds.length);
+    Arrays.sort(sorted, Comparator.comparingInt(build -> build.number));
+
+    List<BuildJson> finished = new ArrayList<>();
+    for (BuildJson build : sorted) {
+      if (!build.complete) {
+        break;
+      }
+      finished.add(build);
+    }
+    return finished;
+  }
+
+  /**
+   * Adds the {@code finished} builds to the storage and records the number of the last one of them
+   * stored in a row as the builder's index.
+   *
+   * <p>The builds are written concurrently, but the index never moves past a build that was not
+   * written, e.g. because its change could not be resolved or its revision is not stored yet: the
+   * result then fails once the index is recorded, and the next run starts again from that build.
+   * Builds without a change are skipped.
+   *
+   * @param finished finished builds, in increasing order of their number
+   * @param index the current index of the builder, -1 if it has none
+   * @return the new index of the builder and the number of builds written
+   */
+  private Mono<AddedBuilds> addBuilds(String buildBot, List<BuildJson> finished, int index) {
+    if (finished.isEmpty()) {
+      return Mono.just(new AddedBuilds(index, 0));
+    }
+
+    return resolveChanges(finished)
+        .flatMapMany(
+            changes ->
+                Flux.fromIterable(finished)
+                    .flatMapSequential(
+                        build -> addBuild(buildBot, build, changes.get(build.buildId)),
+                        writeConcurrency))
+        .collectList()
+        .flatMap(
+            outcomes -> {
+              int added = 0;
+              int written = 0;
+              while (added < outcomes.size() && outcomes.get(added) != BuildOutcome.NOT_WRITTEN) {
+                if (outcomes.get(added) == BuildOutcome.WRITTEN) {
+                  written++;
+                }
+                added++;
+              }
+              int newIndex = added == 0 ? index : Math.max(index, finished.get(added - 1).number);
+              AddedBuilds result = new AddedBuilds(newIndex, written);
+              Mono<AddedBuilds> recorded =
+                  newIndex > index
+                      ? storage(
+                              () ->
+                                  dataRepository.updateBuilderIndex(
+                                      new BuilderIndex(buildBot, newIndex)))
+                          .thenReturn(result)
+                      : Mono.just(result);
+              if (added == finished.size()) {
+                return recorded;
+              }
+              String message =
+                  String.format(
+                      "Failed to store build %d of %s", finished.get(added).number, buildBot);
+              return recorded.then(Mono.error(new IllegalStateException(message)));
+            });
+  }
+
+  /**
+   * Adds {@code build} to the storage.
+   *
+   * @param change the change of the build, empty if it has none, null if it was not resolved
+   */
+  private Mono<BuildOutcome> addBuild(
+      String buildBot, BuildJson build, Optional<ChangeJson> change) {
+    if (change == null) {
+      return Mono.just(BuildOutcome.NOT_WRITTEN);
+    }
+    if (!change.isPresent()) {
+      logger.info(String.format("Build %d of %s has no change", build.number, buildBot));
+      return Mono.just(BuildOutcome.SKIPPED);
+    }
+
+    BuildBotData data =
+        new BuildBotData(
+            change.get().revision, buildBot, new ArrayList<Log>(), BuilderStatus.PASSED);
+    data.setBuildId(build.buildId);
+    data.setTimestamp(Timestamp.ofTimeSecondsAndNanos(change.get().whenSecondsSinceEpoch, 0));
+    logger.info("Updating: " + data);
+    Mono<Boolean> write;
+    if (updateBuffer != null) {
+      write = Mono.defer(() -> Mono.fromFuture(updateBuffer.add(data))).timeout(storageTimeout);
+    } else {
+      write = storage(() -> dataRepository.updateRevisionEntry(data));
+    }
+    return write
+        .map(
+            written -> {
+              if (!written) {
+                logger.warning(String.format("Revision %s is not stored", data.getCommitHash()));
+                return BuildOutcome.NOT_WRITTEN;
+              }
+              return BuildOutcome.WRITTEN;
+            })
+        .onErrorResume(
+            e -> {
+              logger.warning(String.format("Failed to store %s: %s", data, e));
+              return Mono.just(BuildOutcome.NOT_WRITTEN);
+            });
+  }
 
-    BuildJson[] builds = getLatestBuilds(buildBot);
-    logger.info("builds: " + builds);
-    if (builds == null) return;
+  /** Returns the highest build number among {@code builds}. */
+  private static int maxNumber(BuildJson[] builds) {
+    int max = Integer.MIN_VALUE;
     for (BuildJson build : builds) {
-      ChangeJson change = getChange(build.buildId);
-      logger.info("change: " + change);
-      if (change == null) continue;
-      BuildBotData data =
-          new BuildBotData(change.revision, buildBot, new ArrayList<Log>(), BuilderStatus.PASSED);
-      data.setTimestamp(Timestamp.ofTimeSecondsAndNanos(change.whenSecondsSinceEpoch, 0));
-      logger.info("Updating: " + data);
-      datastoreRepository.updateRevisionEntry(data);
+      max = Math.max(max, build.number);
     }
+    return max;
+  }
+
+  public String getBaseUrl() {
+    return baseUrl;
   }
 
   public void setBaseUrl(String baseUrl) {
     this.baseUrl = baseUrl;
   }
+
+  public void setChangeResolution(@NonNull ChangeResolution changeResolution) {
+    this.changeResolution = Preconditions.checkNotNull(changeResolution);
+  }
+
+  public void setChangeCache(ChangeCache changeCache) {
+    this.changeCache = changeCache;
+  }
+
+  public void setUpdateBuffer(RevisionUpdateBuffer updateBuffer) {
+    this.updateBuffer = updateBuffer;
+  }
+
+  /**
+   * Sets the maximum number of changes of a builder requested at once.
+   *
+   * @throws IllegalArgumentException if {@code changeConcurrency} is <= 0
+   */
+  public void setChangeConcurrency(int changeConcurrency) {
+    Preconditions.checkArgument(changeConcurrency > 0, "changeConcurrency must be > 0");
+    this.changeConcurrency = changeConcurrency;
+  }
+
+  /**
+   * Sets the maximum number of storage writes of a builder running at once.
+   *
+   * @throws IllegalArgumentException if {@code writeConcurrency} is <= 0
+   */
+  public void setWriteConcurrency(int writeConcurrency) {
+    Preconditions.checkArgument(writeConcurrency > 0, "writeConcurrency must be > 0");
+    this.writeConcurrency = writeConcurrency;
+  }
+
+  /**
+   * Sets how long the latest changes are shared between the builders once fetched. Builds made
+   * from newer changes are resolved one by one meanwhile.
+   */
+  public void setRecentChangesTtl(@NonNull Duration recentChangesTtl) {
+    this.recentChangesTtl = Preconditions.checkNotNull(recentChangesTtl);
+  }
+
+  /** Sets the maximum time to wait for a single storage call. */
+  public void setStorageTimeout(@NonNull Duration storageTimeout) {
+    this.storageTimeout = Preconditions.checkNotNull(storageTimeout);
+  }
 }
@@ -0,0 +1,237 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.graphgeckos.dashboard.fetchers.DeadlineMetrics;
+import com.google.graphgeckos.dashboard.fetchers.DeadlineMetrics.Deadline;
+import com.google.graphgeckos.dashboard.fetchers.HostConcurrencyLimiter;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/**
+ * Fetches many builders at once without blocking: builders -> builds -> changes -> storage.
+ *
+ * <p>Builders are pulled from the input only as fast as earlier ones finish, so at most {@code
+ * builderConcurrency} of them are in flight at any time whatever the number of configured builders.
+ * With a {@link HostConcurrencyLimiter}, the builders in flight against the build bot host are
+ * further capped to its per-host limit, shared with the other users of the limiter.
+ * Within a builder, the {@link BuildBotClient} bounds the number of concurrent change requests and
+ * storage writes, and each of its requests and storage calls has its own deadline. Since no thread
+ * waits on the network, hundreds of builders can be in flight on the few event loop threads of the
+ * shared {@code WebClient}.
+ *
+ * <p>Each builder must be fetched within the builder timeout, and all of them within the cycle
+ * budget given to {@link #ingestWithin}: once it is spent, the builders still in flight are
+ * cancelled and the others are not started, to be fetched again at the next cycle.
+ */
+public class BuildBotIngestionPipeline {
+
+  /** Fetches each of the builders. */
+  private final BuildBotClient client;
+
+  /** Maximum number of builders fetched at once. */
+  private final int builderConcurrency;
+
+  /** Maximum time to fetch a single builder, all its pages included. */
+  private final Duration builderTimeout;
+
+  /** Counts the builders and cycles which hit their deadline. */
+  private final DeadlineMetrics deadlineMetrics;
+
+  /** Caps the builders fetched at once from the build bot host, null if only builderConcurrency. */
+  @Nullable private HostConcurrencyLimiter hostLimiter;
+
+  /** Number of new builds of a failed builder, in the outcomes of {@link #ingestWithin}. */
+  private static final int FAILED = -1;
+
+  private static final Logger logger = Logger.getLogger(BuildBotIngestionPipeline.class.getName());
+
+  /** The outcome of fetching a batch of builders, see {@link #ingestWithin}. */
+  public static final class IngestionResult {
+    private final Map<String, Integer> newBuilds;
+    private final Set<String> failed;
+    private final Set<String> unfinished;
+
+    private IngestionResult(
+        Map<String, Integer> newBuilds, Set<String> failed, Set<String> unfinished) {
+      this.newBuilds = newBuilds;
+      this.failed = failed;
+      this.unfinished = unfinished;
+    }
+
+    /** Returns the number of builds written of each builder fetched without error. */
+    public Map<String, Integer> getNewBuilds() {
+      return newBuilds;
+    }
+
+    /** Returns the builders which failed or hit the builder timeout. */
+    public Set<String> getFailed() {
+      return failed;
+    }
+
+    /** Returns the builders which were cancelled or not started because the budget was spent. */
+    public Set<String> getUnfinished() {
+      return unfinished;
+    }
+  }
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param client fetches each of the builders
+   * @param builderConcurrency maximum number of builders fetched at once, must be > 0
+   * @param builderTimeout maximum time to fetch a single builder
+   * @throws IllegalArgumentException if {@code builderConcurrency} is <= 0
+   */
+  public BuildBotIngestionPipeline(
+      @NonNull BuildBotClient client, int builderConcurrency, @NonNull Duration builderTimeout) {
+    this(client, builderConcurrency, builderTimeout, new DeadlineMetrics());
+  }
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param client fetches each of the builders
+   * @param builderConcurrency maximum number of builders fetched at once, must be > 0
+   * @param builderTimeout maximum time to fetch a single builder
+   * @param deadlineMetrics counts the builders and cycles which hit their deadline
+   * @throws IllegalArgumentException if {@code builderConcurrency} is <= 0
+   */
+  public BuildBotIngestionPipeline(
+      @NonNull BuildBotClient client,
+      int builderConcurrency,
+      @NonNull Duration builderTimeout,
+      @NonNull DeadlineMetrics deadlineMetrics) {
+    checkArgument(builderConcurrency > 0, "builderConcurrency must be > 0");
+
+    this.client = checkNotNull(client);
+    this.builderConcurrency = builderConcurrency;
+    this.builderTimeout = checkNotNull(builderTimeout);
+    this.deadlineMetrics = checkNotNull(deadlineMetrics);
+  }
+
+  /**
+   * Returns a {@link Mono} which, once subscribed to, fetches all the {@code buildBots}. A failing
+   * or timed out builder is logged and does not prevent the others from being fetched.
+   *
+   * @return the number of builds written of each builder fetched without error, the failed
+   *     builders are left out
+   */
+  public Mono<Map<String, Integer>> ingestAll(@NonNull Collection<String> buildBots) {
+    return ingest(buildBots, null).map(IngestionResult::getNewBuilds);
+  }
+
+  /**
+   * Returns a {@link Mono} which, once subscribed to, fetches the {@code buildBots} for at most
+   * {@code budget}. A failing or timed out builder is logged and does not prevent the others from
+   * being fetched. When the budget is spent, the builders in flight are cancelled and the result
+   * is emitted right away.
+   */
+  public Mono<IngestionResult> ingestWithin(
+      @NonNull Collection<String> buildBots, @NonNull Duration budget) {
+    return ingest(buildBots, checkNotNull(budget));
+  }
+
+  private Mono<IngestionResult> ingest(Collection<String> buildBots, @Nullable Duration budget) {
+    Flux<Tuple2<String, Integer>> outcomes =
+        Flux.fromIterable(buildBots)
+            .flatMap(
+                buildBot ->
+                    limitHost(
+                            client
+                                .ingest(buildBot)
+                                .timeout(
+                                    builderTimeout,
+                                    Mono.defer(
+                                        () -> {
+                                          deadlineMetrics.record(Deadline.BUILDER);
+                                          return Mono.error(
+                                              new TimeoutException(
+                                                  "Timed out after " + builderTimeout));
+                                        })))
+                        .map(newBuilds -> Tuples.of(buildBot, newBuilds))
+                        .onErrorResume(
+                            e -> {
+                              logger.warning(
+                                  String.format("Failed to fetch builds of %s: %s", buildBot, e));
+                              return Mono.just(Tuples.of(buildBot, FAILED));
+                            }),
+                builderConcurrency);
+    if (budget != null) {
+      outcomes = outcomes.take(budget);
+    }
+    return outcomes
+        .collectList()
+        .map(
+            list -> {
+              Map<String, Integer> newBuilds = new HashMap<>();
+              Set<String> failed = new HashSet<>();
+              for (Tuple2<String, Integer> outcome : list) {
+                if (outcome.getT2() == FAILED) {
+                  failed.add(outcome.getT1());
+                } else {
+                  newBuilds.put(outcome.getT1(), outcome.getT2());
+                }
+              }
+              Set<String> unfinished = new LinkedHashSet<>(buildBots);
+              unfinished.removeAll(newBuilds.keySet());
+              unfinished.removeAll(failed);
+              if (!unfinished.isEmpty()) {
+                deadlineMetrics.record(Deadline.CYCLE);
+                logger.warning(
+                    String.format(
+                        "Cycle budget of %s spent, %d build bots left for the next cycle",
+                        budget, unfinished.size()));
+              }
+              return new IngestionResult(newBuilds, failed, unfinished);
+            });
+  }
+
+  /**
+   * Sets the limiter capping the builders fetched at once from the build bot host, null to only
+   * cap them to {@code builderConcurrency}.
+   */
+  public void setHostLimiter(@Nullable HostConcurrencyLimiter hostLimiter) {
+    this.hostLimiter = hostLimiter;
+  }
+
+  /**
+   * Returns {@code ingestion}, started once the build bot host is under its limit. The builder
+   * timeout runs from the start, not while queued.
+   */
+  private Mono<Integer> limitHost(Mono<Integer> ingestion) {
+    if (hostLimiter == null) {
+      return ingestion;
+    }
+    return hostLimiter.limit(URI.create(client.getBaseUrl()).getHost(), ingestion);
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads BuildBot API responses token by token, straight into {@link BuildJson} and {@link
+ * ChangeJson}.
+ *
+ * <p>Unlike deserializing with an {@code ObjectMapper}, this never materializes the response as a
+ * {@code String} nor builds maps and lists for the fields which are not used, such as the build
+ * properties other than "got_revision"; unknown values are skipped without being decoded.
+ */
+final class BuildBotJsonReader {
+
+  /** Thread-safe factory of the parsers. */
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private BuildBotJsonReader() {}
+
+  /**
+   * Reads a collection of builds, as returned by /builders/{builder}/builds.
+   *
+   * @return the builds, or null if the input is empty or has no "builds" field
+   * @throws IOException if the input cannot be read or is not valid JSON of the expected shape
+   */
+  static BuildJson[] readBuilds(InputStream input) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(input)) {
+      if (parser.nextToken() == null) {
+        return null;
+      }
+      expect(parser, JsonToken.START_OBJECT);
+
+      BuildJson[] builds = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (field.equals("builds") && value == JsonToken.START_ARRAY) {
+          List<BuildJson> list = new ArrayList<>();
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            list.add(readBuild(parser));
+          }
+          builds = list.toArray(new BuildJson[0]);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return builds;
+    }
+  }
+
+  /**
+   * Reads a collection of changes, as returned by /changes or /builds/{buildId}/changes.
+   *
+   * @return the changes, or null if the input is empty or has no "changes" field
+   * @throws IOException if the input cannot be read or is not valid JSON of the expected shape
+   */
+  static ChangeJson[] readChanges(InputStream input) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(input)) {
+      if (parser.nextToken() == null) {
+        return null;
+      }
+      expect(parser, JsonToken.START_OBJECT);
+
+      ChangeJson[] changes = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (field.equals("changes") && value == JsonToken.START_ARRAY) {
+          List<ChangeJson> list = new ArrayList<>();
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            list.add(readChange(parser));
+          }
+          changes = list.toArray(new ChangeJson[0]);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return changes;
+    }
+  }
+
+  /** Reads a single build, the parser being on its START_OBJECT token. */
+  private static BuildJson readBuild(JsonParser parser) throws IOException {
+    BuildJson build = new BuildJson();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      switch (field) {
+        case "buildid":
+          build.buildId = parser.getValueAsInt();
+          break;
+        case "number":
+          build.number = parser.getValueAsInt();
+          break;
+        case "complete":
+          build.complete = value != JsonToken.VALUE_FALSE;
+          break;
+        case "state_string":
+          build.stateString = parser.getValueAsString();
+          break;
+        case "properties":
+          if (value == JsonToken.START_OBJECT) {
+            build.revision = readRevisionProperty(parser);
+          } else {
+            parser.skipChildren();
+          }
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return build;
+  }
+
+  /**
+   * Reads the value of the "got_revision" property out of the build properties, the parser being
+   * on their START_OBJECT token. Each property is a list of its value and the step which set it.
+   *
+   * @return the revision, or null if the property is missing
+   */
+  private static String readRevisionProperty(JsonParser parser) throws IOException {
+    String revision = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String property = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if (property.equals("got_revision") && value == JsonToken.START_ARRAY) {
+        JsonToken element = parser.nextToken();
+        if (element == JsonToken.VALUE_STRING) {
+          revision = parser.getText();
+        }
+        while (element != null && element != JsonToken.END_ARRAY) {
+          parser.skipChildren();
+          element = parser.nextToken();
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return revision;
+  }
+
+  /** Reads a single change, the parser being on its START_OBJECT token. */
+  private static ChangeJson readChange(JsonParser parser) throws IOException {
+    ChangeJson change = new ChangeJson();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "revision":
+          change.revision = parser.getValueAsString();
+          break;
+        case "when_timestamp":
+          change.whenSecondsSinceEpoch = parser.getValueAsLong();
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return change;
+  }
+
+  /** Throws if the current token of {@code parser} is not {@code expected}. */
+  private static void expect(JsonParser parser, JsonToken expected) throws JsonParseException {
+    if (parser.currentToken() != expected) {
+      throw new JsonParseException(
+          parser, String.format("Expected %s but found %s", expected, parser.currentToken()));
+    }
+  }
+}
@@ -0,0 +1,232 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * Keeps track of the health of each builder, so that the builders which keep failing, e.g. renamed
+ * or offline ones, stop taking fetch capacity from the healthy ones.
+ *
+ * <p>The circuit of a builder starts {@link State#CLOSED}: the builder is fetched normally. After
+ * {@code failureThreshold} consecutive failures it opens: the builder is not fetched until the end
+ * of a backoff period, which doubles with each consecutive opening, from {@code baseBackoff} up to
+ * {@code maxBackoff}, and is jittered so that builders which failed together are not retried
+ * together. Once the period is over the circuit is half-open: a single trial fetch is allowed,
+ * which closes the circuit if it succeeds and opens it again if it fails. A trial which neither
+ * succeeds nor fails, e.g. because it was cancelled, lets the next one through.
+ *
+ * <p>This class is thread-safe.
+ */
+public class BuilderCircuitBreaker {
+
+  /** State of the circuit of a builder. */
+  public enum State {
+    /** The builder is healthy and fetched normally. */
+    CLOSED,
+    /** The builder kept failing and is not fetched until the end of its backoff period. */
+    OPEN,
+    /** The backoff period is over, a trial fetch decides whether the builder recovered. */
+    HALF_OPEN
+  }
+
+  /** Relative amplitude of the random variation of the backoff periods. */
+  static final double JITTER = 0.2;
+
+  /** Number of consecutive failures which open the circuit. */
+  private final int failureThreshold;
+
+  /** Backoff period after the circuit opens for the first time. */
+  private final Duration baseBackoff;
+
+  /** Longest backoff period. */
+  private final Duration maxBackoff;
+
+  /** Source of the jitter. Guarded by {@code this}. */
+  private final Random random;
+
+  /** The circuit of every builder which failed at least once since it was last healthy. */
+  private final Map<String, Circuit> circuits = new HashMap<>();
+
+  private static final Logger logger = Logger.getLogger(BuilderCircuitBreaker.class.getName());
+
+  /** A snapshot of the circuit of a builder. */
+  public static final class Circuit {
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int consecutiveOpenings;
+    @Nullable private Instant retryAt;
+
+    private Circuit() {}
+
+    private Circuit(Circuit other) {
+      this.state = other.state;
+      this.consecutiveFailures = other.consecutiveFailures;
+      this.consecutiveOpenings = other.consecutiveOpenings;
+      this.retryAt = other.retryAt;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    /** Returns the number of failures since the last successful fetch. */
+    public int getConsecutiveFailures() {
+      return consecutiveFailures;
+    }
+
+    /** Returns the end of the backoff period if the circuit is open, otherwise null. */
+    @Nullable
+    public Instant getRetryAt() {
+      return retryAt;
+    }
+  }
+
+  /**
+   * Creates a circuit breaker with all the circuits closed.
+   *
+   * @param failureThreshold number of consecutive failures which open the circuit, must be > 0
+   * @param baseBackoff backoff period after the circuit opens for the first time, must be positive
+   * @param maxBackoff longest backoff period, must not be shorter than {@code baseBackoff}
+   * @throws IllegalArgumentException if any argument is out of range
+   */
+  public BuilderCircuitBreaker(
+      int failureThreshold, @NonNull Duration baseBackoff, @NonNull Duration maxBackoff) {
+    this(failureThreshold, baseBackoff, maxBackoff, new Random());
+  }
+
+  BuilderCircuitBreaker(
+      int failureThreshold,
+      @NonNull Duration baseBackoff,
+      @NonNull Duration maxBackoff,
+      @NonNull Random random) {
+    checkArgument(failureThreshold > 0, "failureThreshold must be > 0");
+    checkArgument(!baseBackoff.isNegative() && !baseBackoff.isZero(), "baseBackoff must be > 0");
+    checkArgument(maxBackoff.compareTo(baseBackoff) >= 0, "maxBackoff must be >= baseBackoff");
+
+    this.failureThreshold = failureThreshold;
+    this.baseBackoff = baseBackoff;
+    this.maxBackoff = maxBackoff;
+    this.random = checkNotNull(random);
+  }
+
+  /**
+   * Returns whether {@code builder} may be fetched at {@code now}. An open circuit whose backoff
+   * period is over becomes half-open, and the fetch allowed then is its trial.
+   */
+  public synchronized boolean allowRequest(@NonNull String builder, @NonNull Instant now) {
+    Circuit circuit = circuits.get(checkNotNull(builder));
+    if (circuit == null || circuit.state == State.CLOSED) {
+      return true;
+    }
+    if (circuit.state == State.OPEN && !circuit.retryAt.isAfter(now)) {
+      circuit.state = State.HALF_OPEN;
+      circuit.retryAt = null;
+      return true;
+    }
+    // Only a single trial is in flight while half-open.
+    return false;
+  }
+
+  /**
+   * Returns when {@code builder} may be fetched again: the end of its backoff period if its circuit
+   * is open, otherwise {@code now}.
+   */
+  public synchronized Instant getRetryTime(@NonNull String builder, @NonNull Instant now) {
+    Circuit circuit = circuits.get(checkNotNull(builder));
+    if (circuit == null || circuit.retryAt == null || circuit.retryAt.isBefore(now)) {
+      return now;
+    }
+    return circuit.retryAt;
+  }
+
+  /** Records a successful fetch of {@code builder}, which closes its circuit. */
+  public synchronized void recordSuccess(@NonNull String builder) {
+    Circuit circuit = circuits.remove(checkNotNull(builder));
+    if (circuit != null && circuit.state != State.CLOSED) {
+      logger.info(String.format("Builder %s recovered, closing its circuit", builder));
+    }
+  }
+
+  /**
+   * Records a failed fetch of {@code builder} at {@code now}, which opens its circuit if it was
+   * half-open or if the builder failed {@code failureThreshold} times in a row.
+   */
+  public synchronized void recordFailure(@NonNull String builder, @NonNull Instant now) {
+    Circuit circuit = circuits.computeIfAbsent(checkNotNull(builder), name -> new Circuit());
+    circuit.consecutiveFailures++;
+    if (circuit.state == State.HALF_OPEN || circuit.consecutiveFailures >= failureThreshold) {
+      Duration backoff = getBackoff(circuit.consecutiveOpenings);
+      circuit.consecutiveOpenings++;
+      circuit.state = State.OPEN;
+      circuit.retryAt = now.plus(backoff);
+      logger.warning(
+          String.format(
+              "Builder %s failed %d times in a row, not fetching it until %s",
+              builder, circuit.consecutiveFailures, circuit.retryAt));
+    }
+  }
+
+  /**
+   * Records a fetch of {@code builder} cancelled at {@code now} before it succeeded or failed, e.g.
+   * because the cycle budget was spent. This says nothing about the health of the builder, so its
+   * failures are left as they are, but if the fetch was the trial of a half-open circuit, the
+   * circuit allows another trial from {@code now} on.
+   */
+  public synchronized void recordCancelled(@NonNull String builder, @NonNull Instant now) {
+    Circuit circuit = circuits.get(checkNotNull(builder));
+    if (circuit != null && circuit.state == State.HALF_OPEN) {
+      circuit.state = State.OPEN;
+      circuit.retryAt = checkNotNull(now);
+    }
+  }
+
+  /** Returns a snapshot of the circuit of {@code builder}. */
+  public synchronized Circuit getCircuit(@NonNull String builder) {
+    Circuit circuit = circuits.get(checkNotNull(builder));
+    return circuit == null ? new Circuit() : new Circuit(circuit);
+  }
+
+  /** Returns a snapshot of the circuit of each builder which is not healthy, sorted by builder. */
+  public synchronized Map<String, Circuit> getCircuits() {
+    Map<String, Circuit> snapshot = new TreeMap<>();
+    for (Map.Entry<String, Circuit> entry : circuits.entrySet()) {
+      snapshot.put(entry.getKey(), new Circuit(entry.getValue()));
+    }
+    return snapshot;
+  }
+
+  /** Returns the jittered backoff period of a circuit opened {@code openings} times in a row. */
+  private Duration getBackoff(int openings) {
+    long millis = baseBackoff.toMillis();
+    for (int i = 0; i < openings && millis < maxBackoff.toMillis(); i++) {
+      millis *= 2;
+    }
+    millis = Math.min(millis, maxBackoff.toMillis());
+    double jitter = 1 + JITTER * (2 * random.nextDouble() - 1);
+    return Duration.ofMillis(Math.round(millis * jitter));
+  }
+}
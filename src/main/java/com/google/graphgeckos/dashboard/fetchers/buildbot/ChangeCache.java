@@ -0,0 +1,191 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * A bounded in-process cache of the change each build was made from, keyed by build id.
+ *
+ * <p>The change of a finished build never changes, so once resolved it does not need to be fetched
+ * again. Entries are evicted once the cache holds {@code maximumSize} of them, or once they are
+ * older than {@code expireAfterWrite}. When given a snapshot file, the cache is loaded from it on
+ * construction and written back to it on {@link #close()}, so a redeploy does not start cold.
+ */
+public class ChangeCache {
+
+  /** The cached changes, keyed by build id. */
+  private final Cache<Integer, ChangeJson> cache;
+
+  /** How long an entry is kept after being written. */
+  private final Duration expireAfterWrite;
+
+  /** File the cache is persisted to, null if it is not persisted. */
+  @Nullable private final Path snapshotPath;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private static final Logger logger = Logger.getLogger(ChangeCache.class.getName());
+
+  /** The content of a snapshot file. */
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  private static class Snapshot {
+    /** When the snapshot was written, in milliseconds since the epoch. */
+    @JsonProperty("savedAt")
+    long savedAtMillis;
+
+    /** The cached changes, keyed by build id. */
+    @JsonProperty("changes")
+    Map<Integer, ChangeJson> changes = new HashMap<>();
+  }
+
+  /**
+   * Creates an empty cache which is not persisted.
+   *
+   * @param maximumSize maximum number of cached changes, must be > 0
+   * @param expireAfterWrite how long a change is kept after being cached
+   * @throws IllegalArgumentException if {@code maximumSize} is <= 0
+   */
+  public ChangeCache(long maximumSize, @NonNull Duration expireAfterWrite) {
+    this(maximumSize, expireAfterWrite, null);
+  }
+
+  /**
+   * Creates a cache persisted to {@code snapshotPath}, loading the snapshot if there is one and it
+   * is younger than {@code expireAfterWrite}.
+   *
+   * @param maximumSize maximum number of cached changes, must be > 0
+   * @param expireAfterWrite how long a change is kept after being cached
+   * @param snapshotPath file the cache is persisted to, or null to keep it in memory only
+   * @throws IllegalArgumentException if {@code maximumSize} is <= 0
+   */
+  public ChangeCache(
+      long maximumSize, @NonNull Duration expireAfterWrite, @Nullable Path snapshotPath) {
+    checkArgument(maximumSize > 0, "maximumSize must be > 0");
+    checkNotNull(expireAfterWrite);
+
+    this.expireAfterWrite = expireAfterWrite;
+    this.snapshotPath = snapshotPath;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite.toMillis(), TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+
+    if (snapshotPath != null && Files.exists(snapshotPath)) {
+      load(snapshotPath);
+    }
+  }
+
+  /** Returns the cached change of the build {@code buildId}, or null if it is not cached. */
+  @Nullable
+  ChangeJson get(int buildId) {
+    return cache.getIfPresent(buildId);
+  }
+
+  /** Caches {@code change} as the change of the build {@code buildId}. */
+  void put(int buildId, @NonNull ChangeJson change) {
+    cache.put(buildId, checkNotNull(change));
+  }
+
+  /** Returns the number of lookups which found a cached change. */
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  /** Returns the number of lookups which did not find a cached change. */
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  /** Returns the approximate number of cached changes. */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Writes the cache to its snapshot file, if it has one. The file is replaced atomically, so a
+   * crash while saving leaves the previous snapshot in place.
+   *
+   * @throws IOException if the snapshot cannot be written
+   */
+  public void save() throws IOException {
+    if (snapshotPath == null) {
+      return;
+    }
+
+    Snapshot snapshot = new Snapshot();
+    snapshot.savedAtMillis = System.currentTimeMillis();
+    snapshot.changes.putAll(cache.asMap());
+
+    Path directory = snapshotPath.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, "changes", ".tmp");
+    objectMapper.writeValue(temporary.toFile(), snapshot);
+    Files.move(
+        temporary,
+        snapshotPath,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Saves the cache to its snapshot file, logging failures. Called on shutdown. */
+  public void close() {
+    try {
+      save();
+    } catch (IOException e) {
+      logger.warning(String.format("Failed to save the change cache to %s: %s", snapshotPath, e));
+    }
+  }
+
+  /** Loads the cache from {@code path}, unless the snapshot is too old to be trusted. */
+  private void load(Path path) {
+    Snapshot snapshot;
+    try {
+      snapshot = objectMapper.readValue(path.toFile(), Snapshot.class);
+    } catch (IOException e) {
+      logger.warning(String.format("Ignoring unreadable change cache snapshot %s: %s", path, e));
+      return;
+    }
+
+    long ageMillis = System.currentTimeMillis() - snapshot.savedAtMillis;
+    if (ageMillis > expireAfterWrite.toMillis()) {
+      logger.info(
+          String.format("Ignoring change cache snapshot %s saved %d ms ago", path, ageMillis));
+      return;
+    }
+    cache.putAll(snapshot.changes);
+    logger.info(String.format("Loaded %d changes from %s", snapshot.changes.size(), path));
+  }
+}
@@ -0,0 +1,28 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+/** How {@link BuildBotClient} finds the change (revision) each build was made from. */
+public enum ChangeResolution {
+  /** Requests /builds/{buildId}/changes once for every build. */
+  PER_BUILD,
+
+  /**
+   * Reads the revision from the "got_revision" property returned along with the builds, and joins
+   * it locally with one bulk /changes request to get the commit times. Builds which cannot be
+   * resolved this way fall back to {@link #PER_BUILD}.
+   */
+  BATCHED;
+}
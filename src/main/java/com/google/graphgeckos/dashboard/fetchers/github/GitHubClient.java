@@ -15,21 +15,43 @@
 package com.google.graphgeckos.dashboard.fetchers.github;
 
 import com.google.api.client.util.Preconditions;
+import com.google.cloud.Timestamp;
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
 import com.google.graphgeckos.dashboard.datatypes.GitHubData;
-import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
-import java.time.Duration;
+import com.google.graphgeckos.dashboard.fetchers.HttpFetcher;
+import com.google.graphgeckos.dashboard.fetchers.HttpFetcher.ModifiedResponse;
+import com.google.graphgeckos.dashboard.storage.DataRepository;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 import java.util.logging.Logger;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
 import org.springframework.lang.NonNull;
-import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.lang.Nullable;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+/**
+ * Synchronizes the revisions with the commits of a GitHub repository.
+ *
+ * <p>The client remembers the last synced commit, the cursor, which is initially the newest stored
+ * revision. Each sync requests the commits since the cursor's timestamp, 100 per page, newest
+ * first, and pages back until the cursor is reached, so no commit is missed however many of them
+ * landed since the previous sync. The new commits are then written in a single batch, and the
+ * cursor only moves once all of them were written.
+ */
 public class GitHubClient {
 
+  /** Number of commits requested per page, the maximum allowed by the GitHub API. */
+  static final int PER_PAGE = 100;
+
   /** Provides access to the storage. */
-  private DatastoreRepository datastoreRepository;
+  private DataRepository dataRepository;
 
   /**
    * The GitHub API URL of the commits of the repository, e.g.:
@@ -37,44 +59,201 @@ public class GitHubClient {
    */
   private String url;
 
+  /** Performs the requests, see {@link HttpFetcher}. */
+  private final HttpFetcher httpFetcher;
+
+  /** Maximum number of pages requested by a sync. */
+  private int maxPages = 10;
+
+  /** The last synced commit, null until known. */
+  @Nullable private volatile GitHubData cursor;
+
+  /** Whether the cursor was initialized from the storage. */
+  private volatile boolean cursorLoaded;
+
   private static final Logger logger = Logger.getLogger(GitHubClient.class.getName());
 
-  public GitHubClient(@NonNull String baseUrl, @NonNull DatastoreRepository repository) {
+  /** The commits of a sync, newest first, and the response of its first page. */
+  private static class SyncBatch {
+    final List<GitHubData> commits = new ArrayList<>();
+    ModifiedResponse firstPage;
+  }
+
+  public GitHubClient(
+      @NonNull String baseUrl,
+      @NonNull DataRepository repository,
+      @NonNull HttpFetcher httpFetcher) {
     this.url = Preconditions.checkNotNull(baseUrl);
-    this.datastoreRepository = Preconditions.checkNotNull(repository);
+    this.dataRepository = Preconditions.checkNotNull(repository);
+    this.httpFetcher = Preconditions.checkNotNull(httpFetcher);
   }
 
-  public void run(@NonNull long delay) {
+  public GitHubClient(@NonNull String baseUrl, @NonNull DataRepository repository) {
+    this(baseUrl, repository, HttpFetcher.getDefault());
+  }
 
+  /** Syncs the new commits, logging the errors instead of throwing them. */
+  public void run() {
     logger.info(String.format("GitHub: started fetching from the base url: %s", url));
-    WebClient.builder()
-        .baseUrl(url)
-        .defaultHeader(HttpHeaders.CONTENT_TYPE, "application/json")
-        .build()
-        .get()
-        .uri(url)
-        .accept(MediaType.APPLICATION_JSON)
-        .retrieve()
-        .bodyToMono(GitHubData[].class)
-        .onErrorResume(
-            e -> {
-              logger.info("Ignoring error: " + e.getMessage());
-              return Mono.empty();
+    try {
+      Integer synced = sync().block();
+      logger.info(String.format("GitHub: synced %d new commits", synced));
+    } catch (RuntimeException e) {
+      logger.info("Ignoring error: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns a {@link Mono} which, once subscribed to, creates a revision for each commit pushed
+   * since the cursor and then moves the cursor to the newest commit. Without a cursor only the
+   * first page is synced.
+   *
+   * <p>The first page is requested conditionally: once the cursor stopped moving, the first page is
+   * answered with "304 Not Modified" until a commit is pushed, and no other request is made.
+   *
+   * @return the number of commits written
+   */
+  public Mono<Integer> sync() {
+    return loadCursor()
+        .map(Optional::of)
+        .defaultIfEmpty(Optional.empty())
+        .flatMap(since -> fetchPage(new SyncBatch(), since.orElse(null), 1))
+        .publishOn(Schedulers.boundedElastic())
+        .map(this::write)
+        .defaultIfEmpty(0);
+  }
+
+  /** Returns the cursor, initialized from the newest stored revision on first use. */
+  private Mono<GitHubData> loadCursor() {
+    if (cursorLoaded) {
+      return Mono.justOrEmpty(cursor);
+    }
+    return Mono.fromCallable(
+            () -> {
+              List<BuildInfo> newest = dataRepository.getLastRevisionEntries(1, 0);
+              if (cursor == null && !newest.isEmpty()) {
+                BuildInfo revision = newest.get(0);
+                cursor =
+                    new GitHubData(
+                        revision.getCommitHash(), revision.getTimestamp().toString(), null);
+              }
+              cursorLoaded = true;
+              return cursor;
             })
-        .subscribe(
-            responses -> {
-              if (responses == null) {
-                logger.info(String.format("GitHub: Error occurred, waiting for %d seconds", delay));
-                return;
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  /**
+   * Adds the commits of {@code page} and of the following ones to {@code batch}, stopping at the
+   * {@code since} commit. Completes empty if the first page was not modified.
+   */
+  private Mono<SyncBatch> fetchPage(SyncBatch batch, @Nullable GitHubData since, int page) {
+    String pageUrl = getPageUrl(since, page);
+    Mono<DataBuffer> body;
+    if (page == 1) {
+      // Unchanged commits are answered with "304 Not Modified", which completes empty.
+      body =
+          httpFetcher
+              .getIfModified(pageUrl, MediaType.APPLICATION_JSON)
+              .map(
+                  response -> {
+                    batch.firstPage = response;
+                    return response.getBody();
+                  });
+    } else {
+      body = httpFetcher.get(pageUrl, MediaType.APPLICATION_JSON);
+    }
+
+    return body.map(GitHubClient::readCommits)
+        .flatMap(
+            commits -> {
+              for (GitHubData commit : commits) {
+                if (since != null && since.getCommitHash().equals(commit.getCommitHash())) {
+                  return Mono.just(batch);
+                }
+                batch.commits.add(commit);
+              }
+              if (since == null || commits.length < PER_PAGE) {
+                return Mono.just(batch);
               }
-              for (GitHubData response : responses) {
-                logger.info("Creating revision: " + response.getCommitHash());
-                datastoreRepository.createRevisionEntry(response);
+              if (page >= maxPages) {
+                logger.warning(
+                    String.format(
+                        "GitHub: more than %d new commits, older ones are skipped",
+                        maxPages * PER_PAGE));
+                return Mono.just(batch);
               }
+              return fetchPage(batch, since, page + 1).defaultIfEmpty(batch);
             });
   }
 
+  /** Returns the URL of the {@code page}-th page of the commits since {@code since}. */
+  private String getPageUrl(@Nullable GitHubData since, int page) {
+    StringBuilder pageUrl = new StringBuilder(url);
+    pageUrl.append(url.contains("?") ? '&' : '?');
+    pageUrl.append("per_page=").append(PER_PAGE).append("&page=").append(page);
+    if (since != null && since.getTimestamp() != null) {
+      // GitHub filters on the committer date, which is never before the author date of the cursor,
+      // so the cursor itself is part of the results and ends the paging. The timestamp is given in
+      // UTC, as the "+" of an offset would have to be escaped.
+      pageUrl.append("&since=").append(Timestamp.parseTimestamp(since.getTimestamp()));
+    }
+    return pageUrl.toString();
+  }
+
+  /**
+   * Writes the commits of {@code batch} in bulk, oldest first, then moves the cursor past them.
+   *
+   * @throws IllegalStateException if the commits cannot be written, the cursor is then unchanged
+   */
+  private int write(SyncBatch batch) {
+    List<GitHubData> commits = new ArrayList<>(batch.commits);
+    Collections.reverse(commits);
+    if (!commits.isEmpty()) {
+      if (!dataRepository.createRevisionEntries(commits)) {
+        throw new IllegalStateException(
+            String.format("Failed to store %d new commits", commits.size()));
+      }
+      cursor = commits.get(commits.size() - 1);
+    }
+    if (batch.firstPage != null) {
+      batch.firstPage.markProcessed();
+    }
+    return commits.size();
+  }
+
+  /**
+   * Reads the commits straight from the response buffer, see {@link GitHubJsonReader}.
+   *
+   * @return the commits, empty if the body is empty
+   * @throws UncheckedIOException if the body is not a valid list of commits
+   */
+  private static GitHubData[] readCommits(DataBuffer body) {
+    try (InputStream input = body.asInputStream(true)) {
+      GitHubData[] commits = GitHubJsonReader.readCommits(input);
+      return commits == null ? new GitHubData[0] : commits;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns the last synced commit, or null if it is not known yet. */
+  @Nullable
+  public GitHubData getCursor() {
+    return cursor;
+  }
+
   public void setUrl(String url) {
     this.url = url;
   }
+
+  /**
+   * Sets the maximum number of pages requested by a sync, i.e. of {@link #PER_PAGE} commits each.
+   *
+   * @throws IllegalArgumentException if {@code maxPages} is <= 0
+   */
+  public void setMaxPages(int maxPages) {
+    Preconditions.checkArgument(maxPages > 0, "maxPages must be > 0");
+    this.maxPages = maxPages;
+  }
 }
@@ -0,0 +1,125 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.github;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads GitHub API commit listings token by token, straight into {@link GitHubData}.
+ *
+ * <p>Only "sha", "html_url" and "commit.author.date" are decoded; the rest of each commit (the
+ * message, the verification, the author and committer accounts, the parents...) is skipped
+ * without being materialized as maps or strings.
+ */
+final class GitHubJsonReader {
+
+  /** Thread-safe factory of the parsers. */
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private GitHubJsonReader() {}
+
+  /**
+   * Reads a list of commits, as returned by /repos/{owner}/{repo}/commits.
+   *
+   * @return the commits, or null if the input is empty
+   * @throws IOException if the input cannot be read or is not valid JSON of the expected shape
+   */
+  static GitHubData[] readCommits(InputStream input) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(input)) {
+      if (parser.nextToken() == null) {
+        return null;
+      }
+      expect(parser, JsonToken.START_ARRAY);
+
+      List<GitHubData> commits = new ArrayList<>();
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        commits.add(readCommit(parser));
+      }
+      return commits.toArray(new GitHubData[0]);
+    }
+  }
+
+  /** Reads a single commit, the parser being on its START_OBJECT token. */
+  private static GitHubData readCommit(JsonParser parser) throws IOException {
+    String commitHash = null;
+    String timestamp = null;
+    String repositoryLink = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      switch (field) {
+        case "sha":
+          commitHash = parser.getValueAsString();
+          break;
+        case "html_url":
+          repositoryLink = parser.getValueAsString();
+          break;
+        case "commit":
+          if (value == JsonToken.START_OBJECT) {
+            timestamp = readAuthorDate(parser);
+          } else {
+            parser.skipChildren();
+          }
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return new GitHubData(commitHash, timestamp, repositoryLink);
+  }
+
+  /**
+   * Reads "author.date" out of the git data of a commit, the parser being on its START_OBJECT token.
+   *
+   * @return the date, or null if it is missing
+   */
+  private static String readAuthorDate(JsonParser parser) throws IOException {
+    String date = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if (field.equals("author") && value == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String authorField = parser.getCurrentName();
+          parser.nextToken();
+          if (authorField.equals("date")) {
+            date = parser.getValueAsString();
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return date;
+  }
+
+  /** Throws if the current token of {@code parser} is not {@code expected}. */
+  private static void expect(JsonParser parser, JsonToken expected) throws JsonParseException {
+    if (parser.currentToken() != expected) {
+      throw new JsonParseException(
+          parser, String.format("Expected %s but found %s", expected, parser.currentToken()));
+    }
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+/**
+ * How the builder results of the revisions are laid out in Datastore by {@link
+ * DatastoreRepository}. The layout applies to the whole storage: the builder results written with
+ * one layout are not read with the other, so it must not be changed once revisions are stored.
+ */
+public enum BuilderLayout {
+  /**
+   * The builder results are stored in the builder list of the "revision" entity. A revision is read
+   * with a single lookup, but every update of a builder rewrites the whole entity, which grows with
+   * the number of builders towards the 1 MiB limit of Datastore entities.
+   */
+  INLINE,
+
+  /**
+   * Each builder result is its own "builder" entity under the key of its "revision" entity, which
+   * only keeps the status and the counters of the results, and the builder names. An update of a
+   * builder only writes its entity, whatever the number of builders, along with the "revision"
+   * entity when the builder reports for the first time or its status changes. The summary of a
+   * revision is read without its results; reading the results costs one more lookup per page of
+   * revisions, of the builders named in their "revision" entities.
+   */
+  CHILD_ENTITIES
+}
@@ -16,8 +16,12 @@ package com.google.graphgeckos.dashboard.storage;
 
 import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
 import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
 import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.datatypes.RevisionPage;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A storage component for creating/updating/deleting revision data, with the possibility of
@@ -33,16 +37,40 @@ public interface DataRepository {
    */
   boolean createRevisionEntry(GitHubData entryData);
 
+  /**
+   * Creates a new database entry of the "revision" type for each of the revisions which has none
+   * yet, ignoring the others. Unlike repeated calls to {@link #createRevisionEntry}, the existing
+   * entries are looked up and the new ones written in bulk, with a number of round trips to the
+   * database which does not grow with the number of revisions, up to a few hundred of them.
+   *
+   * @param entriesData GitHubData instances, all must have a non-null "commitHash" field
+   * @return true only if the operation completed successfully, whether or not entries were created.
+   */
+  boolean createRevisionEntries(Collection<GitHubData> entriesData);
+
   /**
    * Updates an existing revision's database entry, with the individual information from a
    * particular buildbot. If there is no entry associated with the provided commit hash, ignores the
-   * request.
+   * request. The entry keeps a single result per buildbot, see {@link BuildInfo#addBuilder}, so
+   * repeating an update has no effect.
    *
    * @param updateData a BuildBotData instance, must have a non-null "commitHash" field
    * @return true only if the operation completed successfully.
    */
   boolean updateRevisionEntry(BuildBotData updateData);
 
+  /**
+   * Updates existing revisions' database entries with the individual information from many
+   * buildbots at once. The updates of the same revision are applied together, with a single read
+   * and a single write of its entry; updates of revisions which have no entry are ignored, e.g.
+   * because the revision was not created yet.
+   *
+   * @param updatesData BuildBotData instances, all must have a non-null "commitHash" field
+   * @return the commit hashes of the revisions which have no entry, or null if the operation
+   *     failed.
+   */
+  Set<String> updateExistingRevisionEntries(Collection<BuildBotData> updatesData);
+
   /**
    * Deletes a revision's database entry, based on it's commit hash. Has no effect if there is no
    * Entity associated to the commit hash.
@@ -67,6 +95,34 @@ public interface DataRepository {
    */
   List<BuildInfo> getLastRevisionEntries(int number, int offset) throws IllegalArgumentException;
 
+  /**
+   * Like {@link #getLastRevisionEntries}, but returns the summaries of the entries, see {@link
+   * #getRevisionSummary}, which are cheaper to read and to transfer.
+   *
+   * @param number the number of database entries to retrieve
+   * @param offset the offset from the latest database entry, for which to consider the requested
+   *     number of entries
+   * @return a list containing at most {@code number} summaries starting from the latest entry -
+   *     {@code offset}, each with an empty builder list.
+   * @throws IllegalArgumentException if either number or offset are < 0
+   */
+  List<BuildInfo> getLastRevisionSummaries(int number, int offset)
+      throws IllegalArgumentException;
+
+  /**
+   * Queries the database for a page of entries of type "revision", going down in chronological
+   * order. Unlike {@link #getLastRevisionEntries}, the page starts where the previous one ended, so
+   * every page costs the same as the first one however deep it is.
+   *
+   * @param number the number of database entries to retrieve
+   * @param pageToken the token returned with the previous page, or null to start from the latest
+   *     entry
+   * @return a page containing at most {@code number} entries, and the token of the next page, which
+   *     is null once there are no more entries.
+   * @throws IllegalArgumentException if number is < 0 or pageToken is not a valid token
+   */
+  RevisionPage getRevisionEntriesPage(int number, String pageToken) throws IllegalArgumentException;
+
   /**
    * Queries the database for a given entry, that has the primary key set to the provided
    * commitHash.
@@ -76,4 +132,31 @@ public interface DataRepository {
    *     to that commitHash.
    */
   BuildInfo getRevisionEntry(String commitHash) throws IllegalArgumentException;
+
+  /**
+   * Queries the database for the summary of a given entry: its commit hash, timestamp, status and
+   * counters of builder results, without the builder results themselves.
+   *
+   * @param commitHash the commitHash to search for
+   * @return null if no object was found, else a BuildInfo instance with an empty builder list.
+   */
+  BuildInfo getRevisionSummary(String commitHash);
+
+  /**
+   * Queries the database for the index of a builder, i.e. the number of the last build of that
+   * builder which was added to the revision entries.
+   *
+   * @param builderName the name of the builder, as it is in the BuildBot API
+   * @return the index of the builder
+   * @throws BuildbotNotFoundException if no index was stored for {@code builderName}
+   */
+  int getBuilderIndex(String builderName) throws BuildbotNotFoundException;
+
+  /**
+   * Creates or replaces the "index" database entry of a builder.
+   *
+   * @param index a BuilderIndex instance, must have a non-null "name" field
+   * @return true only if the operation completed successfully.
+   */
+  boolean updateBuilderIndex(BuilderIndex index);
 }
@@ -17,25 +17,52 @@ package com.google.graphgeckos.dashboard.storage;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.cloud.datastore.Cursor;
 import com.google.cloud.datastore.Datastore;
 import com.google.cloud.datastore.DatastoreException;
 import com.google.cloud.datastore.DatastoreOptions;
 import com.google.cloud.datastore.DatastoreOptions.DefaultDatastoreFactory;
 import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.EntityQuery;
+import com.google.cloud.datastore.Key;
 import com.google.cloud.datastore.Query;
 import com.google.cloud.datastore.StructuredQuery.OrderBy;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
 import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
 import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
 import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
+import com.google.graphgeckos.dashboard.datatypes.BuilderResult;
 import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.datatypes.RevisionPage;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
 import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gcp.data.datastore.core.DatastoreOperations;
+import org.springframework.cloud.gcp.data.datastore.core.DatastoreResultsIterable;
 import org.springframework.cloud.gcp.data.datastore.core.DatastoreTemplate;
 import org.springframework.cloud.gcp.data.datastore.core.convert.DatastoreServiceObjectToKeyFactory;
 import org.springframework.cloud.gcp.data.datastore.core.convert.DefaultDatastoreEntityConverter;
 import org.springframework.cloud.gcp.data.datastore.core.mapping.DatastoreMappingContext;
+import org.springframework.context.annotation.Profile;
 import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -43,15 +70,88 @@ import org.springframework.stereotype.Repository;
  * the {@link #BuildInfo BuildInfo} class. The relevant fields for the database are: - Kind:
  * "revision" - Key: commit hash
  *
+ * <p>Every read-modify-write of revision entries runs in a Datastore transaction, so that the
+ * updates of a revision made concurrently by several instances are never lost: a transaction which
+ * read an entry written meanwhile by another one is aborted and retried. Within this process, the
+ * writes of the same revision are first serialized by a striped lock keyed by commit hash, so they
+ * do not abort each other, while writes of unrelated revisions run in parallel.
+ *
+ * <p>The newest revisions are also kept in a {@link RecentRevisionCache}, updated by every write of
+ * this repository once committed, which serves {@link #getLastRevisionEntries} without querying
+ * Datastore when it holds the requested range. Other instances do not update it, so it is loaded
+ * again from Datastore once older than its maximum age, the longest the writes of other instances
+ * take to be served.
+ *
+ * <p>The builder results are stored in the "revision" entities, or as "builder" entities under
+ * them, depending on the {@link BuilderLayout}.
+ *
+ * <p>This is the storage of the application, unless the "memory" or "file" profile is active, see
+ * {@link InMemoryRepository} and {@link FileRepository}.
+ *
  * <p>Useful links: - https://googleapis.dev/java/google-cloud-datastore/latest/index.html -
  * https://googleapis.dev/java/spring-cloud-gcp/1.2.2.RELEASE/index.html -
  * https://cloud.google.com/datastore/docs/concepts/ -
  * https://spring.io/projects/spring-cloud-gcp#overview
  */
 @Repository
+@Profile("!memory & !file")
 public class DatastoreRepository implements DataRepository {
+  /**
+   * Maximum number of entities looked up or written at once, within the Datastore limits of 1000
+   * keys per lookup and 500 entities per commit.
+   */
+  static final int BATCH_SIZE = 500;
+
+  /**
+   * Number of locks the revisions are spread over, by commit hash. Far more than the revisions of a
+   * batch, so that a batch write holds up few of the writes of other revisions; the locks are only
+   * allocated while in use.
+   */
+  static final int LOCK_STRIPES = 1 << 16;
+
+  /** Maximum number of attempts of a transaction aborted by a concurrent one. */
+  static final int MAX_TRANSACTION_ATTEMPTS = 5;
+
+  /** Wait before the first retry of an aborted transaction, doubled at each retry. */
+  private static final long TRANSACTION_BACKOFF_MILLIS = 50;
+
+  /** Number of newest revisions kept in memory. */
+  static final int RECENT_REVISIONS = 1000;
+
+  /** Default time after which the newest revisions are loaded again, in milliseconds. */
+  static final long RECENT_REVISIONS_MAX_AGE_MILLIS = 5000;
+
   private DatastoreTemplate storage;
 
+  /**
+   * Serializes the read-modify-writes of a revision within this process, so that its concurrent
+   * updates do not abort each other's transactions. Revisions on different stripes never contend.
+   */
+  private final Striped<Lock> revisionLocks;
+
+  /** Number of transactions retried because a concurrent one aborted them. */
+  private final AtomicLong transactionRetryCount = new AtomicLong();
+
+  /** The newest revisions, serving the dashboard pages. */
+  private RecentRevisionCache recentRevisions =
+      new RecentRevisionCache(
+          RECENT_REVISIONS, Duration.ofMillis(RECENT_REVISIONS_MAX_AGE_MILLIS));
+
+  /** Held while the newest revisions are loaded, so that concurrent reads do not all load them. */
+  private final Lock recentRevisionsLoadLock = new ReentrantLock();
+
+  /** How the builder results are stored. */
+  private BuilderLayout builderLayout = BuilderLayout.INLINE;
+
+  /** The writes of a transaction, applied to the {@link RecentRevisionCache} once committed. */
+  private static final class Writes {
+    /** The written revision entities. */
+    private final List<BuildInfo> revisions = new ArrayList<>();
+
+    /** The builder results written as "builder" entities. */
+    private final List<BuildBotData> builderResults = new ArrayList<>();
+  }
+
   /**
    * Constructs a DatastoreRepository which uses {@code underlyingStorage} as the database interface
    * which ultimately handles the requests.
@@ -59,7 +159,21 @@ public class DatastoreRepository implements DataRepository {
    * @throws NullPointerException if {@code underlyingStorage} is null
    */
   public DatastoreRepository(@NonNull Datastore underlyingStorage) {
+    this(underlyingStorage, LOCK_STRIPES);
+  }
+
+  /**
+   * Constructs a DatastoreRepository whose revision updates are serialized within this process by
+   * {@code lockStripes} locks.
+   *
+   * @throws NullPointerException if {@code underlyingStorage} is null
+   * @throws IllegalArgumentException if {@code lockStripes} is <= 0
+   */
+  DatastoreRepository(@NonNull Datastore underlyingStorage, int lockStripes) {
     checkNotNull(underlyingStorage);
+    checkArgument(lockStripes > 0, "lockStripes must be > 0");
+
+    revisionLocks = Striped.lazyWeakLock(lockStripes);
 
     Supplier<Datastore> supplier = () -> underlyingStorage;
 
@@ -78,6 +192,227 @@ public class DatastoreRepository implements DataRepository {
     this(new DefaultDatastoreFactory().create(DatastoreOptions.getDefaultInstance()));
   }
 
+  /**
+   * Runs the read-modify-write {@code operation} in a transaction, holding the locks of the
+   * revisions {@code commitHashes} it reads and writes. A transaction aborted because another
+   * instance wrote the same revisions concurrently is retried with an exponential backoff, up to
+   * {@link #MAX_TRANSACTION_ATTEMPTS} attempts. The locks are released during the backoff, so that
+   * it does not hold up the writes of these revisions by this instance.
+   *
+   * <p>{@code operation} records what it saves in the {@link Writes} it is given, which are written
+   * to the {@link RecentRevisionCache} once committed, before the locks are released.
+   *
+   * @throws DatastoreException if the transaction fails, or is still aborted after the last attempt
+   */
+  private <T> T inTransaction(
+      Collection<String> commitHashes,
+      BiFunction<DatastoreOperations, Writes, T> operation) {
+    // The stripes are locked in a consistent order, so two batches never deadlock.
+    List<Lock> locks = new ArrayList<>();
+    revisionLocks.bulkGet(commitHashes).forEach(locks::add);
+    for (int attempt = 1; ; attempt++) {
+      DatastoreException aborted;
+      locks.forEach(Lock::lock);
+      try {
+        Writes written = new Writes();
+        T result =
+            storage.performTransaction(transaction -> operation.apply(transaction, written));
+        recentRevisions.put(written.revisions);
+        recentRevisions.putBuilders(written.builderResults);
+        return result;
+      } catch (DatastoreException e) {
+        if (attempt == MAX_TRANSACTION_ATTEMPTS || !isContention(e)) {
+          throw e;
+        }
+        aborted = e;
+      } finally {
+        Lists.reverse(locks).forEach(Lock::unlock);
+      }
+
+      transactionRetryCount.incrementAndGet();
+      try {
+        Thread.sleep(TRANSACTION_BACKOFF_MILLIS << (attempt - 1));
+      } catch (InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw aborted;
+      }
+    }
+  }
+
+  /** Returns whether {@code e} means that a concurrent transaction aborted the transaction. */
+  private static boolean isContention(DatastoreException e) {
+    return "ABORTED".equals(e.getReason()) || e.isRetryable();
+  }
+
+  /** Returns the number of transactions retried because a concurrent one aborted them. */
+  public long getTransactionRetryCount() {
+    return transactionRetryCount.get();
+  }
+
+  /**
+   * Sets how the builder results are stored, {@link BuilderLayout#INLINE} by default. The layout
+   * must not be changed once revisions are stored.
+   */
+  @Value("${dashboard.storage.builder-layout:INLINE}")
+  public void setBuilderLayout(@NonNull BuilderLayout builderLayout) {
+    this.builderLayout = checkNotNull(builderLayout);
+  }
+
+  /**
+   * Sets how long the newest revisions are served from memory before being loaded again from
+   * Datastore, {@link #RECENT_REVISIONS_MAX_AGE_MILLIS} by default. This bounds how long the writes
+   * of other instances take to be served by this one. Must be set before the revisions are read.
+   *
+   * @param maxAgeMillis time after which the newest revisions are loaded again, must be > 0
+   * @throws IllegalArgumentException if {@code maxAgeMillis} is <= 0
+   */
+  @Value(
+      "${dashboard.storage.recent-revisions.max-age-millis:"
+          + RECENT_REVISIONS_MAX_AGE_MILLIS
+          + "}")
+  public void setRecentRevisionsMaxAgeMillis(long maxAgeMillis) {
+    recentRevisions = new RecentRevisionCache(RECENT_REVISIONS, Duration.ofMillis(maxAgeMillis));
+  }
+
+  /** Returns the key of the "builder" entity of {@code builderName} for {@code commitHash}. */
+  private Key getBuilderKey(String commitHash, String builderName) {
+    Key revisionKey = storage.createKey("revision", commitHash);
+    return Key.newBuilder(revisionKey, "builder", builderName).build();
+  }
+
+  /** Returns the query of the "builder" entities of {@code commitHash}. */
+  private EntityQuery getBuildersQuery(String commitHash) {
+    return Query.newEntityQueryBuilder()
+        .setKind("builder")
+        .setFilter(PropertyFilter.hasAncestor(storage.createKey("revision", commitHash)))
+        .build();
+  }
+
+  /**
+   * Returns {@code revisions} with their builder results. With the {@link
+   * BuilderLayout#CHILD_ENTITIES} layout, they are read from their "builder" entities, looked up
+   * together by key, {@link #BATCH_SIZE} at a time, from the builder names of the revisions. The
+   * revisions stored before their builder names were recorded are queried one by one.
+   */
+  private List<BuildInfo> withBuilders(List<BuildInfo> revisions) {
+    if (builderLayout == BuilderLayout.INLINE) {
+      return revisions;
+    }
+    List<Key> keys = new ArrayList<>();
+    for (BuildInfo revision : revisions) {
+      if (revision.getBuilderNames() == null) {
+        revision.setBuilders(queryBuilders(revision.getCommitHash()));
+        continue;
+      }
+      for (String builderName : revision.getBuilderNames()) {
+        keys.add(getBuilderKey(revision.getCommitHash(), builderName));
+      }
+    }
+
+    Map<Key, BuildBotData> results = new HashMap<>();
+    for (List<Key> batch : Lists.partition(keys, BATCH_SIZE)) {
+      for (BuilderResult builder : storage.findAllById(batch, BuilderResult.class)) {
+        results.put(builder.getKey(), builder.getResult());
+      }
+    }
+    for (BuildInfo revision : revisions) {
+      if (revision.getBuilderNames() == null) {
+        continue;
+      }
+      List<BuildBotData> builders = new ArrayList<>();
+      for (String builderName : revision.getBuilderNames()) {
+        BuildBotData result = results.get(getBuilderKey(revision.getCommitHash(), builderName));
+        if (result != null) {
+          result.setCommitHash(revision.getCommitHash());
+          builders.add(result);
+        }
+      }
+      revision.setBuilders(builders);
+    }
+    return revisions;
+  }
+
+  /** Queries the results of the "builder" entities of {@code commitHash}. */
+  private List<BuildBotData> queryBuilders(String commitHash) {
+    List<BuildBotData> builders = new ArrayList<>();
+    EntityQuery query = getBuildersQuery(commitHash);
+    for (BuilderResult builder : storage.query(query, BuilderResult.class).getIterable()) {
+      BuildBotData result = builder.getResult();
+      result.setCommitHash(commitHash);
+      builders.add(result);
+    }
+    return builders;
+  }
+
+  /**
+   * Applies {@code updates} in a single transaction, with the {@link BuilderLayout#CHILD_ENTITIES}
+   * layout: the stored results of their builders are looked up, and only the results they replace
+   * are written. A revision is only written along when its builder names or counters change, i.e.
+   * when a builder reports for the first time or with another status.
+   *
+   * @return the commit hashes of the updated revisions which have no entry.
+   */
+  private Set<String> updateBuilderEntities(List<BuildBotData> updates) {
+    Set<String> commitHashes = new LinkedHashSet<>();
+    for (BuildBotData update : updates) {
+      commitHashes.add(checkNotNull(update.getCommitHash()));
+    }
+
+    return inTransaction(
+        commitHashes,
+        (transaction, written) -> {
+          Map<String, BuildInfo> revisions = new HashMap<>();
+          for (BuildInfo revision : transaction.findAllById(commitHashes, BuildInfo.class)) {
+            revisions.put(revision.getCommitHash(), revision);
+          }
+
+          // The stored result of each builder, replaced as the updates are applied.
+          Set<Key> keys = new LinkedHashSet<>();
+          for (BuildBotData update : updates) {
+            if (revisions.containsKey(update.getCommitHash())) {
+              keys.add(getBuilderKey(update.getCommitHash(), update.getName()));
+            }
+          }
+          Map<Key, BuildBotData> results = new HashMap<>();
+          for (BuilderResult stored : transaction.findAllById(keys, BuilderResult.class)) {
+            results.put(stored.getKey(), stored.getResult());
+          }
+
+          Set<String> missing = new HashSet<>();
+          Map<Key, BuilderResult> changedResults = new LinkedHashMap<>();
+          Map<String, BuildInfo> changedRevisions = new LinkedHashMap<>();
+          for (BuildBotData update : updates) {
+            BuildInfo revision = revisions.get(update.getCommitHash());
+            if (revision == null) {
+              missing.add(update.getCommitHash());
+              continue;
+            }
+            Key key = getBuilderKey(update.getCommitHash(), update.getName());
+            BuildBotData current = results.get(key);
+            if (revision.recordBuilder(current, update)) {
+              results.put(key, update);
+              changedResults.put(key, new BuilderResult(key, update));
+              if (current == null || current.getStatus() != update.getStatus()) {
+                changedRevisions.put(revision.getCommitHash(), revision);
+              }
+              written.builderResults.add(update);
+            }
+          }
+          if (!changedResults.isEmpty()) {
+            transaction.saveAll(changedResults.values());
+          }
+          if (!changedRevisions.isEmpty()) {
+            transaction.saveAll(changedRevisions.values());
+          }
+          return missing;
+        });
+  }
+
+  /** Returns the cache of the newest revisions. */
+  public RecentRevisionCache getRecentRevisions() {
+    return recentRevisions;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -87,12 +422,64 @@ public class DatastoreRepository implements DataRepository {
   public boolean createRevisionEntry(@NonNull GitHubData entryData) {
     checkNotNull(entryData);
 
-    if (getRevisionEntry(entryData.getCommitHash()) != null) {
+    try {
+      return inTransaction(
+          Collections.singleton(entryData.getCommitHash()),
+          (transaction, written) -> {
+            if (transaction.findById(entryData.getCommitHash(), BuildInfo.class) != null) {
+              return false;
+            }
+            written.revisions.add(transaction.save(new BuildInfo(entryData)));
+            return true;
+          });
+    } catch (DatastoreException e) {
+      e.printStackTrace();
       return false;
     }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The revisions are processed in chunks of {@link #BATCH_SIZE}, each costing one lookup and at
+   * most one write.
+   *
+   * @throws NullPointerException if {@code entriesData} or any of its elements is null.
+   */
+  @Override
+  public boolean createRevisionEntries(@NonNull Collection<GitHubData> entriesData) {
+    checkNotNull(entriesData);
+
+    // Revisions listed more than once are only created once.
+    Map<String, GitHubData> byCommitHash = new LinkedHashMap<>();
+    for (GitHubData entryData : entriesData) {
+      byCommitHash.putIfAbsent(checkNotNull(entryData.getCommitHash()), entryData);
+    }
 
     try {
-      storage.save(new BuildInfo(entryData));
+      for (List<String> commitHashes :
+          Lists.partition(new ArrayList<>(byCommitHash.keySet()), BATCH_SIZE)) {
+        inTransaction(
+            commitHashes,
+            (transaction, written) -> {
+              Set<String> existing = new HashSet<>();
+              for (BuildInfo entry : transaction.findAllById(commitHashes, BuildInfo.class)) {
+                existing.add(entry.getCommitHash());
+              }
+
+              List<BuildInfo> missing = new ArrayList<>();
+              for (String commitHash : commitHashes) {
+                if (!existing.contains(commitHash)) {
+                  missing.add(new BuildInfo(byCommitHash.get(commitHash)));
+                }
+              }
+              if (!missing.isEmpty()) {
+                transaction.saveAll(missing);
+                written.revisions.addAll(missing);
+              }
+              return null;
+            });
+      }
     } catch (DatastoreException e) {
       e.printStackTrace();
       return false;
@@ -109,22 +496,152 @@ public class DatastoreRepository implements DataRepository {
   public boolean updateRevisionEntry(@NonNull BuildBotData updateData) {
     checkNotNull(updateData);
 
-    BuildInfo associatedEntity = getRevisionEntry(updateData.getCommitHash());
-
-    if (associatedEntity == null) {
+    try {
+      if (builderLayout == BuilderLayout.CHILD_ENTITIES) {
+        return updateBuilderEntities(Collections.singletonList(updateData)).isEmpty();
+      }
+      return inTransaction(
+          Collections.singleton(updateData.getCommitHash()),
+          (transaction, written) -> {
+            BuildInfo associatedEntity =
+                transaction.findById(updateData.getCommitHash(), BuildInfo.class);
+            if (associatedEntity == null) {
+              return false;
+            }
+            if (associatedEntity.addBuilder(updateData)) {
+              written.revisions.add(transaction.save(associatedEntity));
+            }
+            return true;
+          });
+    } catch (DatastoreException e) {
+      e.printStackTrace();
       return false;
     }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The revisions are processed in chunks of {@link #BATCH_SIZE}, each costing one lookup and at
+   * most one write. With the {@link BuilderLayout#CHILD_ENTITIES} layout, the updates are processed
+   * in chunks of half as many, each costing two lookups and at most one write, of the changed
+   * results and the counters of their revisions. The missing revisions are found by the same
+   * lookups.
+   *
+   * @throws NullPointerException if {@code updatesData} or any of its elements is null.
+   */
+  @Override
+  public Set<String> updateExistingRevisionEntries(@NonNull Collection<BuildBotData> updatesData) {
+    checkNotNull(updatesData);
+
+    Set<String> missing = new HashSet<>();
+    if (builderLayout == BuilderLayout.CHILD_ENTITIES) {
+      try {
+        for (List<BuildBotData> chunk :
+            Lists.partition(new ArrayList<>(updatesData), BATCH_SIZE / 2)) {
+          missing.addAll(updateBuilderEntities(chunk));
+        }
+      } catch (DatastoreException e) {
+        e.printStackTrace();
+        return null;
+      }
+      return missing;
+    }
 
-    associatedEntity.addBuilder(updateData);
+    Map<String, List<BuildBotData>> byCommitHash = new LinkedHashMap<>();
+    for (BuildBotData updateData : updatesData) {
+      byCommitHash
+          .computeIfAbsent(checkNotNull(updateData.getCommitHash()), hash -> new ArrayList<>())
+          .add(updateData);
+    }
 
     try {
-      storage.save(associatedEntity);
+      for (List<String> commitHashes :
+          Lists.partition(new ArrayList<>(byCommitHash.keySet()), BATCH_SIZE)) {
+        missing.addAll(
+            inTransaction(
+                commitHashes,
+                (transaction, written) -> {
+                  List<BuildInfo> updated = new ArrayList<>();
+                  Set<String> found = new HashSet<>();
+                  for (BuildInfo entry : transaction.findAllById(commitHashes, BuildInfo.class)) {
+                    found.add(entry.getCommitHash());
+                    boolean changed = false;
+                    for (BuildBotData updateData : byCommitHash.get(entry.getCommitHash())) {
+                      changed |= entry.addBuilder(updateData);
+                    }
+                    if (changed) {
+                      updated.add(entry);
+                    }
+                  }
+                  if (!updated.isEmpty()) {
+                    transaction.saveAll(updated);
+                    written.revisions.addAll(updated);
+                  }
+                  Set<String> chunkMissing = new HashSet<>(commitHashes);
+                  chunkMissing.removeAll(found);
+                  return chunkMissing;
+                }));
+      }
     } catch (DatastoreException e) {
       e.printStackTrace();
-      return false;
+      return null;
     }
+    return missing;
+  }
 
-    return true;
+  /** Returns the counters of the builder results of {@code entry}. */
+  private static List<Integer> getCounters(BuildInfo entry) {
+    return Arrays.asList(entry.getFailedCount(), entry.getPassedCount(), entry.getLostCount());
+  }
+
+  /**
+   * Removes the duplicate builder results of all the revision entries, see {@link
+   * BuildInfo#compactBuilders}, rewriting only the entries which had some, or whose counters of
+   * builder results were not stored yet. The entries are
+   * processed in chunks of {@link #BATCH_SIZE}, each in its own transaction, so concurrent updates
+   * are not lost and the pass can be run while the fetchers are running.
+   *
+   * <p>Has no effect with the {@link BuilderLayout#CHILD_ENTITIES} layout, whose "builder" entities
+   * hold a single result per builder by construction.
+   *
+   * @return the number of removed builder results.
+   * @throws DatastoreException if a chunk cannot be compacted; the chunks before it stay compacted.
+   */
+  public int compactRevisionEntries() {
+    if (builderLayout == BuilderLayout.CHILD_ENTITIES) {
+      return 0;
+    }
+    Query<Key> query = Query.newKeyQueryBuilder().setKind("revision").build();
+    List<String> commitHashes = new ArrayList<>();
+    for (Key key : storage.queryKeys(query)) {
+      commitHashes.add(key.getName());
+    }
+
+    int removed = 0;
+    for (List<String> chunk : Lists.partition(commitHashes, BATCH_SIZE)) {
+      removed +=
+          inTransaction(
+              chunk,
+              (transaction, written) -> {
+                int chunkRemoved = 0;
+                List<BuildInfo> compacted = new ArrayList<>();
+                for (BuildInfo entry : transaction.findAllById(chunk, BuildInfo.class)) {
+                  List<Integer> counters = getCounters(entry);
+                  int entryRemoved = entry.compactBuilders();
+                  if (entryRemoved > 0 || !counters.equals(getCounters(entry))) {
+                    chunkRemoved += entryRemoved;
+                    compacted.add(entry);
+                  }
+                }
+                if (!compacted.isEmpty()) {
+                  transaction.saveAll(compacted);
+                  written.revisions.addAll(compacted);
+                }
+                return chunkRemoved;
+              });
+    }
+    return removed;
   }
 
   /**
@@ -143,7 +660,16 @@ public class DatastoreRepository implements DataRepository {
     }
 
     try {
+      if (builderLayout == BuilderLayout.CHILD_ENTITIES) {
+        Query<Key> builders =
+            Query.newKeyQueryBuilder()
+                .setKind("builder")
+                .setFilter(PropertyFilter.hasAncestor(storage.createKey("revision", commitHash)))
+                .build();
+        storage.deleteAllById(storage.queryKeys(builders), BuilderResult.class);
+      }
       storage.delete(toBeDeleted);
+      recentRevisions.remove(commitHash);
     } catch (DatastoreException e) {
       e.printStackTrace();
       return false;
@@ -155,6 +681,11 @@ public class DatastoreRepository implements DataRepository {
   /**
    * {@inheritDoc}
    *
+   * <p>Datastore skips the first {@code offset} entries by reading and discarding them, so deep
+   * pages are slower and more expensive; {@link #getRevisionEntriesPage} is not. The ranges within
+   * the {@link #RECENT_REVISIONS} newest entries are served from memory, loaded again by the first
+   * such request once older than their maximum age.
+   *
    * @throws IllegalArgumentException if either number or offset are < 0
    */
   @Override
@@ -162,6 +693,68 @@ public class DatastoreRepository implements DataRepository {
     checkArgument(number >= 0, "number must be >= 0");
     checkArgument(offset >= 0, "offset must be >= 0");
 
+    List<BuildInfo> cached = getCachedRevisionEntries(number, offset);
+    return cached != null ? cached : queryLastRevisionEntries(number, offset, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The summaries are taken from the {@link RecentRevisionCache} when it holds the requested
+   * range, or else read from the "revision" entities. With the {@link BuilderLayout#INLINE} layout,
+   * the builder results are read along and dropped, since Datastore only projects indexed
+   * properties; with the {@link BuilderLayout#CHILD_ENTITIES} layout they are not read at all.
+   *
+   * @throws IllegalArgumentException if either number or offset are < 0
+   */
+  @Override
+  public List<BuildInfo> getLastRevisionSummaries(int number, int offset) {
+    checkArgument(number >= 0, "number must be >= 0");
+    checkArgument(offset >= 0, "offset must be >= 0");
+
+    List<BuildInfo> revisions = getCachedRevisionEntries(number, offset);
+    if (revisions == null) {
+      revisions = queryLastRevisionEntries(number, offset, false);
+    }
+    List<BuildInfo> summaries = new ArrayList<>(revisions.size());
+    for (BuildInfo revision : revisions) {
+      summaries.add(revision.toSummary());
+    }
+    return summaries;
+  }
+
+  /**
+   * Returns the revisions {@code offset} to {@code offset + number} from the {@link
+   * RecentRevisionCache}, or null if it does not hold them. The cache is loaded by the first
+   * request within its capacity once expired; the requests made meanwhile are not served by it.
+   */
+  @Nullable
+  private List<BuildInfo> getCachedRevisionEntries(int number, int offset) {
+    List<BuildInfo> cached = recentRevisions.get(number, offset);
+    if (cached != null) {
+      return cached;
+    }
+    if (recentRevisions.isExpired()
+        && (long) number + offset <= RECENT_REVISIONS
+        && recentRevisionsLoadLock.tryLock()) {
+      try {
+        // The writes committed during the query are replayed over its result.
+        long load = recentRevisions.startLoad();
+        if (recentRevisions.load(queryLastRevisionEntries(RECENT_REVISIONS, 0, true), load)) {
+          return recentRevisions.get(number, offset);
+        }
+      } finally {
+        recentRevisionsLoadLock.unlock();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Queries Datastore for the revisions {@code offset} to {@code offset + number}, with their
+   * builder results only if {@code readBuilders}.
+   */
+  private List<BuildInfo> queryLastRevisionEntries(int number, int offset, boolean readBuilders) {
     Query<Entity> query =
         Query.newEntityQueryBuilder()
             .setKind("revision")
@@ -171,8 +764,55 @@ public class DatastoreRepository implements DataRepository {
             .build();
 
     List<BuildInfo> toBeReturned = new ArrayList<>();
-    storage.query(query, BuildInfo.class).getIterable().forEach(toBeReturned::add);
-    return toBeReturned;
+    for (BuildInfo revision : storage.query(query, BuildInfo.class).getIterable()) {
+      toBeReturned.add(revision);
+    }
+    return readBuilders ? withBuilders(toBeReturned) : toBeReturned;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The page token is a Datastore query cursor, so the query resumes where the previous page
+   * ended instead of scanning and discarding the skipped entries like an offset does.
+   *
+   * @throws IllegalArgumentException if number is < 0 or pageToken is not a valid token
+   */
+  @Override
+  public RevisionPage getRevisionEntriesPage(int number, @Nullable String pageToken) {
+    checkArgument(number >= 0, "number must be >= 0");
+
+    EntityQuery.Builder query =
+        Query.newEntityQueryBuilder()
+            .setKind("revision")
+            .setOrderBy(OrderBy.desc("timestamp"))
+            .setLimit(number);
+    if (pageToken != null) {
+      try {
+        query.setStartCursor(Cursor.fromUrlSafe(pageToken));
+      } catch (IllegalStateException e) {
+        throw new IllegalArgumentException("Invalid page token: " + pageToken, e);
+      }
+    }
+
+    DatastoreResultsIterable<BuildInfo> results;
+    List<BuildInfo> revisions = new ArrayList<>();
+    try {
+      results = storage.query(query.build(), BuildInfo.class);
+      for (BuildInfo revision : results.getIterable()) {
+        revisions.add(revision);
+      }
+    } catch (DatastoreException e) {
+      if ("INVALID_ARGUMENT".equals(e.getReason())) {
+        throw new IllegalArgumentException("Invalid page token: " + pageToken, e);
+      }
+      throw e;
+    }
+
+    // A short page is the last one.
+    boolean more = number > 0 && revisions.size() == number && results.getCursor() != null;
+    return new RevisionPage(
+        withBuilders(revisions), more ? results.getCursor().toUrlSafe() : null);
   }
 
   /**
@@ -184,6 +824,57 @@ public class DatastoreRepository implements DataRepository {
   public BuildInfo getRevisionEntry(@NonNull String commitHash) {
     checkNotNull(commitHash);
 
-    return storage.findById(commitHash, BuildInfo.class);
+    BuildInfo revision = storage.findById(commitHash, BuildInfo.class);
+    return revision == null ? null : withBuilders(Collections.singletonList(revision)).get(0);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>With the {@link BuilderLayout#CHILD_ENTITIES} layout, only the "revision" entity is read.
+   *
+   * @throws NullPointerException if the {@code commitHash} is null
+   */
+  @Override
+  public BuildInfo getRevisionSummary(@NonNull String commitHash) {
+    checkNotNull(commitHash);
+
+    BuildInfo revision = storage.findById(commitHash, BuildInfo.class);
+    return revision == null ? null : revision.toSummary();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if the {@code builderName} is null
+   */
+  @Override
+  public int getBuilderIndex(@NonNull String builderName) {
+    checkNotNull(builderName);
+
+    BuilderIndex index = storage.findById(builderName, BuilderIndex.class);
+    if (index == null) {
+      throw new BuildbotNotFoundException("No index stored for builder: " + builderName);
+    }
+    return index.getIndex();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code index} or its name is null.
+   */
+  @Override
+  public boolean updateBuilderIndex(@NonNull BuilderIndex index) {
+    checkNotNull(index);
+    checkNotNull(index.getName());
+
+    try {
+      storage.save(index);
+    } catch (DatastoreException e) {
+      e.printStackTrace();
+      return false;
+    }
+    return true;
   }
 }
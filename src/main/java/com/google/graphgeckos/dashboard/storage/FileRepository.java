@@ -0,0 +1,924 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.datatypes.RevisionPage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Repository;
+
+/**
+ * A DataRepository implementation persisting the revisions to an append-only log in a local
+ * directory, for self-hosted deployments without Datastore. It is the storage of the application
+ * when the "file" profile is active.
+ *
+ * <p>Every write appends records to the log: a revision is written in full each time it changes,
+ * see {@link RevisionLogCodec}, and each record is followed by its checksum. The log is mapped to
+ * memory, and indexed by two in-memory indexes holding the offset of the latest record of each
+ * revision: a hash map keyed by commit hash, and a skip list sorted from the latest timestamp, see
+ * {@link RevisionKey}. A read looks up the offset of a revision and decodes its record from the
+ * mapped log, without locking nor system call. The records are never modified once written, so the
+ * reads never see a half-applied update.
+ *
+ * <p>All the writes run one at a time on a single writer thread, so that they are never
+ * interrupted by the callers, which closes a {@link FileChannel}. The writer takes all the pending
+ * writes at once, appends their records, then syncs the log to disk once for all of them before
+ * they return: the latency of a write is bounded by a single sync, whatever the number of
+ * concurrent writes, and each write is durable once it returns.
+ *
+ * <p>Once most of the log is made of superseded records, it is compacted: the live records are
+ * copied to a snapshot file, which atomically replaces the log. On startup, the log is read from
+ * the start to rebuild the indexes, and truncated after its last complete record, e.g. if the
+ * process stopped in the middle of a write. The log cannot grow over 2GB, the size of a single
+ * mapping.
+ */
+@Repository
+@Profile("file")
+public class FileRepository implements DataRepository, Closeable {
+
+  /** Name of the revision log in the storage directory. */
+  static final String LOG_FILE = "revisions.log";
+
+  /** Name of the snapshot written by a compaction, which then replaces the log. */
+  static final String SNAPSHOT_FILE = "revisions.snapshot";
+
+  /** Size of the header of each record: the length of the record, then its checksum. */
+  private static final int HEADER_SIZE = 8;
+
+  /** Smallest mapped size of the log, doubled whenever the log outgrows its mapping. */
+  private static final long MIN_MAPPED_SIZE = 1 << 20;
+
+  /** Size of the log under which it is never compacted. */
+  private static final long MIN_COMPACTION_SIZE = 16 << 20;
+
+  private static final Logger logger = Logger.getLogger(FileRepository.class.getName());
+
+  /** Directory holding the log. */
+  private final Path directory;
+
+  /** The index of each builder, keyed by builder name, only written by the writer thread. */
+  private final ConcurrentHashMap<String, Integer> builderIndexes = new ConcurrentHashMap<>();
+
+  /** The current log and its indexes, only replaced by a compaction. */
+  private volatile Segment segment;
+
+  /** The open log, only used by the writer thread once recovered. */
+  private FileChannel channel;
+
+  /** Offset after the last record of the log, only written by the writer thread once recovered. */
+  private volatile long end;
+
+  /** Size of the records of the log which are not superseded. */
+  private long liveSize;
+
+  /** The writes waiting for the writer thread, guarded by itself. */
+  private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+
+  /** Whether the repository is closed, guarded by {@link #queue}. */
+  private boolean closed;
+
+  /** Number of times the log was synced to disk. */
+  private final AtomicLong syncCount = new AtomicLong();
+
+  /** Checks whether the log needs a compaction, null if it is never checked. */
+  @Nullable private final ScheduledExecutorService compactor;
+
+  /** A log file, mapped to memory, and the offsets of its latest revision records. */
+  private static final class Segment {
+    /** The log, mapped over at least all the indexed records. */
+    private volatile MappedByteBuffer map;
+
+    /** Offset of the latest record of each revision, keyed by commit hash. */
+    private final ConcurrentHashMap<String, Long> offsets = new ConcurrentHashMap<>();
+
+    /** Offset of the latest record of each revision, from the latest revision. */
+    private final ConcurrentSkipListMap<RevisionKey, Long> newestFirst =
+        new ConcurrentSkipListMap<>();
+  }
+
+  /** A write of the log, run by the writer thread. */
+  private interface LogWrite<T> {
+    T run() throws IOException;
+  }
+
+  /** A write waiting for the writer thread, then for the next sync of the log. */
+  private static final class PendingWrite<T> {
+    private final LogWrite<T> write;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private T value;
+    private Exception failure;
+
+    private PendingWrite(LogWrite<T> write) {
+      this.write = write;
+    }
+
+    private void run() {
+      try {
+        value = write.run();
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+      }
+    }
+
+    /** Completes the write once the log is synced, or with {@code syncFailure} if it failed. */
+    private void complete(@Nullable IOException syncFailure) {
+      if (failure != null) {
+        result.completeExceptionally(failure);
+      } else if (syncFailure != null) {
+        result.completeExceptionally(syncFailure);
+      } else {
+        result.complete(value);
+      }
+    }
+  }
+
+  /**
+   * Opens the log in {@code directory}, creating both if needed, and recovers its revisions.
+   *
+   * @param directory directory holding the log
+   * @param compactionIntervalSeconds how often to check whether the log needs a compaction, in
+   *     seconds, or 0 to never compact it automatically
+   * @throws IOException if the log cannot be opened or read
+   */
+  @Autowired
+  public FileRepository(
+      @Value("${dashboard.storage.file.directory:data}") String directory,
+      @Value("${dashboard.storage.file.compaction-interval-seconds:600}")
+          long compactionIntervalSeconds)
+      throws IOException {
+    this(Paths.get(directory), Duration.ofSeconds(compactionIntervalSeconds));
+  }
+
+  /**
+   * Opens the log in {@code directory}, creating both if needed, and recovers its revisions.
+   *
+   * @param directory directory holding the log
+   * @param compactionInterval how often to check whether the log needs a compaction, or zero to
+   *     never compact it automatically
+   * @throws IllegalArgumentException if {@code compactionInterval} is negative
+   * @throws IOException if the log cannot be opened or read
+   */
+  public FileRepository(@NonNull Path directory, @NonNull Duration compactionInterval)
+      throws IOException {
+    checkArgument(!compactionInterval.isNegative(), "compactionInterval must be >= 0");
+
+    this.directory = checkNotNull(directory);
+    Files.createDirectories(directory);
+    // Left over by a compaction which did not complete.
+    Files.deleteIfExists(directory.resolve(SNAPSHOT_FILE));
+    channel =
+        FileChannel.open(
+            directory.resolve(LOG_FILE),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    recover();
+
+    Thread writer = new Thread(this::writeLoop, "revision-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+
+    if (compactionInterval.isZero()) {
+      compactor = null;
+    } else {
+      compactor =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "revision-log-compactor");
+                thread.setDaemon(true);
+                return thread;
+              });
+      long intervalMillis = compactionInterval.toMillis();
+      compactor.scheduleWithFixedDelay(
+          this::compactIfNeeded, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Indexes the records of the log, from the first one up to the end of the log or to the first
+   * incomplete or corrupted record, then truncates the log after the last indexed record, so that
+   * the next records are appended right after it.
+   *
+   * @throws IOException if the log cannot be read, or holds a record which cannot be decoded
+   */
+  private void recover() throws IOException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("The revision log is larger than 2GB: " + size);
+    }
+    Segment recovered = new Segment();
+    recovered.map = channel.map(MapMode.READ_ONLY, 0, size);
+
+    long offset = 0;
+    byte[] record;
+    while ((record = readRecord(recovered.map, offset, size)) != null) {
+      int recordSize = HEADER_SIZE + record.length;
+      try {
+        switch (RevisionLogCodec.getType(record)) {
+          case RevisionLogCodec.REVISION:
+            indexRevision(recovered, RevisionLogCodec.decodeRevision(record), offset, recordSize);
+            break;
+          case RevisionLogCodec.DELETION:
+            unindexRevision(recovered, RevisionLogCodec.decodeDeletion(record));
+            break;
+          case RevisionLogCodec.BUILDER_INDEX:
+            indexBuilder(RevisionLogCodec.decodeBuilderIndex(record), recordSize);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown record type " + record[0]);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Unreadable record at offset " + offset + " of the revision log", e);
+      }
+      offset += recordSize;
+    }
+
+    if (offset < size) {
+      logger.warning(
+          String.format(
+              "Discarded %d bytes after the last complete record of %s",
+              size - offset, directory.resolve(LOG_FILE)));
+      channel.truncate(offset);
+    }
+    end = offset;
+    recovered.map = map(channel, end);
+    segment = recovered;
+    logger.info(
+        String.format(
+            "Recovered %d revisions from %s",
+            recovered.offsets.size(), directory.resolve(LOG_FILE)));
+  }
+
+  /**
+   * Runs the writes on the writer thread until the repository is closed: all the pending writes
+   * are run one after the other, then the log is synced once for all of them.
+   */
+  private void writeLoop() {
+    List<PendingWrite<?>> batch = new ArrayList<>();
+    while (channel.isOpen()) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        break;
+      }
+      queue.drainTo(batch);
+      for (PendingWrite<?> write : batch) {
+        write.run();
+      }
+
+      IOException syncFailure = null;
+      try {
+        if (channel.isOpen()) {
+          channel.force(false);
+          syncCount.incrementAndGet();
+        }
+      } catch (IOException e) {
+        logger.warning(String.format("Failed to sync the revision log: %s", e));
+        syncFailure = e;
+      }
+      for (PendingWrite<?> write : batch) {
+        write.complete(syncFailure);
+      }
+      batch.clear();
+    }
+
+    synchronized (queue) {
+      closed = true;
+    }
+    IOException failure = new IOException("The revision log is closed");
+    for (PendingWrite<?> write : queue) {
+      write.result.completeExceptionally(failure);
+    }
+  }
+
+  /**
+   * Queues {@code write} for the writer thread.
+   *
+   * @return a future completed once the write is run and synced to disk
+   * @throws IllegalStateException if the repository is closed
+   */
+  private <T> CompletableFuture<T> submit(LogWrite<T> write) {
+    PendingWrite<T> pending = new PendingWrite<>(write);
+    synchronized (queue) {
+      checkState(!closed, "The repository is closed");
+      queue.add(pending);
+    }
+    return pending.result;
+  }
+
+  /**
+   * Runs {@code write} on the writer thread, and waits until it is synced to disk. If the caller is
+   * interrupted, the write is still made but may not be durable yet.
+   *
+   * @return the result of the write, or false if it failed or the caller was interrupted.
+   * @throws IllegalStateException if the repository is closed
+   */
+  private boolean write(LogWrite<Boolean> write) {
+    return write(write, false);
+  }
+
+  /**
+   * Runs {@code write} on the writer thread, and waits until it is synced to disk, see {@link
+   * #write(LogWrite)}.
+   *
+   * @return the result of the write, or {@code failed} if it failed or the caller was interrupted.
+   * @throws IllegalStateException if the repository is closed
+   */
+  private <T> T write(LogWrite<T> write, T failed) {
+    try {
+      return submit(write).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return failed;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      logger.warning(String.format("Failed to write the revision log: %s", e.getCause()));
+      return failed;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code entryData} is null.
+   */
+  @Override
+  public boolean createRevisionEntry(@NonNull GitHubData entryData) {
+    checkNotNull(entryData);
+
+    return createRevisionEntries(Collections.singletonList(entryData));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code entriesData} or any of its elements is null.
+   */
+  @Override
+  public boolean createRevisionEntries(@NonNull Collection<GitHubData> entriesData) {
+    checkNotNull(entriesData);
+    List<BuildInfo> created = new ArrayList<>();
+    for (GitHubData entryData : entriesData) {
+      checkNotNull(entryData.getCommitHash());
+      created.add(new BuildInfo(entryData));
+    }
+
+    return write(
+        () -> {
+          for (BuildInfo revision : created) {
+            if (!segment.offsets.containsKey(revision.getCommitHash())) {
+              appendRevision(revision);
+            }
+          }
+          return true;
+        });
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code updateData} is null.
+   */
+  @Override
+  public boolean updateRevisionEntry(@NonNull BuildBotData updateData) {
+    checkNotNull(updateData);
+    checkNotNull(updateData.getCommitHash());
+
+    return write(
+        () -> update(updateData.getCommitHash(), Collections.singletonList(updateData)));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code updatesData} or any of its elements is null.
+   */
+  @Override
+  public Set<String> updateExistingRevisionEntries(@NonNull Collection<BuildBotData> updatesData) {
+    checkNotNull(updatesData);
+
+    Map<String, List<BuildBotData>> byCommitHash = new LinkedHashMap<>();
+    for (BuildBotData updateData : updatesData) {
+      byCommitHash
+          .computeIfAbsent(checkNotNull(updateData.getCommitHash()), hash -> new ArrayList<>())
+          .add(updateData);
+    }
+    return write(
+        () -> {
+          Set<String> missing = new HashSet<>();
+          for (Map.Entry<String, List<BuildBotData>> updates : byCommitHash.entrySet()) {
+            if (!update(updates.getKey(), updates.getValue())) {
+              missing.add(updates.getKey());
+            }
+          }
+          return missing;
+        },
+        null);
+  }
+
+  /**
+   * Appends the revision {@code commitHash}, if any, with {@code updates} added to it, see {@link
+   * BuildInfo#addBuilder}. Nothing is appended if the updates do not change the revision.
+   *
+   * @return true only if there is such a revision.
+   */
+  private boolean update(String commitHash, List<BuildBotData> updates) throws IOException {
+    Long offset = segment.offsets.get(commitHash);
+    if (offset == null) {
+      return false;
+    }
+    BuildInfo updated = readRevision(segment, offset);
+    boolean changed = false;
+    for (BuildBotData update : updates) {
+      changed |= updated.addBuilder(update);
+    }
+    if (changed) {
+      appendRevision(updated);
+    }
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code commitHash} is null.
+   */
+  @Override
+  public boolean deleteRevisionEntry(@NonNull String commitHash) {
+    checkNotNull(commitHash);
+
+    return write(
+        () -> {
+          if (segment.offsets.containsKey(commitHash)) {
+            append(RevisionLogCodec.encodeDeletion(commitHash));
+            unindexRevision(segment, commitHash);
+          }
+          return true;
+        });
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalArgumentException if either number or offset are < 0
+   */
+  @Override
+  public List<BuildInfo> getLastRevisionEntries(int number, int offset) {
+    checkArgument(number >= 0, "number must be >= 0");
+    checkArgument(offset >= 0, "offset must be >= 0");
+
+    Segment current = segment;
+    return getRange(current, current.newestFirst, number, offset);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalArgumentException if either number or offset are < 0
+   */
+  @Override
+  public List<BuildInfo> getLastRevisionSummaries(int number, int offset) {
+    List<BuildInfo> summaries = new ArrayList<>();
+    for (BuildInfo revision : getLastRevisionEntries(number, offset)) {
+      summaries.add(revision.toSummary());
+    }
+    return summaries;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The page token holds the timestamp and commit hash of the last revision of the page, so the
+   * next page starts right after it in the index.
+   *
+   * @throws IllegalArgumentException if number is < 0 or pageToken is not a valid token
+   */
+  @Override
+  public RevisionPage getRevisionEntriesPage(int number, @Nullable String pageToken) {
+    checkArgument(number >= 0, "number must be >= 0");
+
+    Segment current = segment;
+    ConcurrentNavigableMap<RevisionKey, Long> remaining =
+        pageToken == null
+            ? current.newestFirst
+            : current.newestFirst.tailMap(RevisionKey.fromPageToken(pageToken), false);
+    List<BuildInfo> page = getRange(current, remaining, number, 0);
+
+    // A short page is the last one.
+    boolean more = number > 0 && page.size() == number;
+    return new RevisionPage(
+        page, more ? RevisionKey.of(page.get(page.size() - 1)).toPageToken() : null);
+  }
+
+  /** Returns the revisions {@code offset} to {@code offset + number} of {@code index}. */
+  private static List<BuildInfo> getRange(
+      Segment segment, ConcurrentNavigableMap<RevisionKey, Long> index, int number, int offset) {
+    List<BuildInfo> range = new ArrayList<>();
+    Iterator<Long> iterator = index.values().iterator();
+    for (int skipped = 0; skipped < offset && iterator.hasNext(); skipped++) {
+      iterator.next();
+    }
+    while (range.size() < number && iterator.hasNext()) {
+      range.add(readRevision(segment, iterator.next()));
+    }
+    return range;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if the {@code commitHash} is null
+   */
+  @Override
+  public BuildInfo getRevisionEntry(@NonNull String commitHash) {
+    checkNotNull(commitHash);
+
+    Segment current = segment;
+    Long offset = current.offsets.get(commitHash);
+    return offset == null ? null : readRevision(current, offset);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if the {@code commitHash} is null
+   */
+  @Override
+  public BuildInfo getRevisionSummary(@NonNull String commitHash) {
+    BuildInfo revision = getRevisionEntry(commitHash);
+    return revision == null ? null : revision.toSummary();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if the {@code builderName} is null
+   */
+  @Override
+  public int getBuilderIndex(@NonNull String builderName) {
+    checkNotNull(builderName);
+
+    Integer index = builderIndexes.get(builderName);
+    if (index == null) {
+      throw new BuildbotNotFoundException("No index stored for builder: " + builderName);
+    }
+    return index;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code index} or its name is null.
+   */
+  @Override
+  public boolean updateBuilderIndex(@NonNull BuilderIndex index) {
+    checkNotNull(index);
+    checkNotNull(index.getName());
+    BuilderIndex stored = new BuilderIndex(index.getName(), index.getIndex());
+
+    return write(
+        () -> {
+          Integer current = builderIndexes.get(stored.getName());
+          if (current == null || current != stored.getIndex()) {
+            byte[] record = RevisionLogCodec.encodeBuilderIndex(stored);
+            append(record);
+            indexBuilder(stored, HEADER_SIZE + record.length);
+          }
+          return true;
+        });
+  }
+
+  /**
+   * Compacts the log: its live records are copied to a snapshot, which then replaces the log. The
+   * writes wait for the compaction to complete, while the reads go on with the previous log.
+   *
+   * @return the number of bytes reclaimed
+   * @throws IOException if the snapshot cannot be written, in which case the log is left untouched
+   * @throws IllegalStateException if the repository is closed
+   */
+  public long compact() throws IOException {
+    try {
+      return submit(this::compactLog).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compacting the revision log");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  /** Compacts the log if it is large and at least half of it is made of superseded records. */
+  private void compactIfNeeded() {
+    try {
+      submit(() -> end >= MIN_COMPACTION_SIZE && end >= 2 * liveSize ? compactLog() : 0L)
+          .whenComplete(
+              (reclaimed, e) -> {
+                if (e != null) {
+                  logger.warning(String.format("Failed to compact the revision log: %s", e));
+                }
+              });
+    } catch (IllegalStateException e) {
+      // Closed in the meantime.
+    }
+  }
+
+  /** Writes the live records to a snapshot, and replaces the log with it. */
+  private long compactLog() throws IOException {
+    Segment current = segment;
+    Segment compacted = new Segment();
+    Path snapshot = directory.resolve(SNAPSHOT_FILE);
+    FileChannel snapshotChannel =
+        FileChannel.open(
+            snapshot,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    long position = 0;
+    try {
+      for (Map.Entry<String, Integer> index : builderIndexes.entrySet()) {
+        position =
+            writeRecord(
+                snapshotChannel,
+                position,
+                RevisionLogCodec.encodeBuilderIndex(
+                    new BuilderIndex(index.getKey(), index.getValue())));
+      }
+      for (Map.Entry<RevisionKey, Long> revision : current.newestFirst.entrySet()) {
+        // The records are copied as they are, without being decoded.
+        byte[] record = readRecord(current.map, revision.getValue(), end);
+        checkState(
+            record != null, "Corrupted revision log record at offset %s", revision.getValue());
+        compacted.offsets.put(revision.getKey().getCommitHash(), position);
+        compacted.newestFirst.put(revision.getKey(), position);
+        position = writeRecord(snapshotChannel, position, record);
+      }
+      snapshotChannel.force(true);
+      compacted.map = map(snapshotChannel, position);
+      Files.move(snapshot, directory.resolve(LOG_FILE), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      snapshotChannel.close();
+      Files.deleteIfExists(snapshot);
+      throw e;
+    }
+    syncDirectory();
+
+    long reclaimed = end - position;
+    FileChannel previous = channel;
+    channel = snapshotChannel;
+    end = position;
+    liveSize = position;
+    segment = compacted;
+    // The reads still going on with the previous log keep their mapping.
+    previous.close();
+    logger.info(
+        String.format(
+            "Compacted the revision log to %d bytes, %d bytes reclaimed", position, reclaimed));
+    return reclaimed;
+  }
+
+  /** Syncs the entries of the storage directory, so that the renamed log survives a crash. */
+  private void syncDirectory() {
+    try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      directoryChannel.force(true);
+    } catch (IOException e) {
+      // Directories cannot be synced on every platform.
+    }
+  }
+
+  /**
+   * Appends {@code record} to the log, extending its mapping first if needed.
+   *
+   * @return the offset of the record
+   */
+  private long append(byte[] record) throws IOException {
+    long offset = end;
+    long recordEnd = offset + HEADER_SIZE + record.length;
+    if (recordEnd > segment.map.capacity()) {
+      segment.map = map(channel, recordEnd);
+    }
+    end = writeRecord(channel, offset, record);
+    return offset;
+  }
+
+  /** Appends the record of {@code revision}, and indexes it. */
+  private void appendRevision(BuildInfo revision) throws IOException {
+    byte[] record = RevisionLogCodec.encodeRevision(revision);
+    long offset = append(record);
+    indexRevision(segment, revision, offset, HEADER_SIZE + record.length);
+  }
+
+  /** Indexes the record of {@code revision} at {@code offset}, superseding its previous record. */
+  private void indexRevision(Segment segment, BuildInfo revision, long offset, int recordSize) {
+    Long previous = segment.offsets.put(revision.getCommitHash(), offset);
+    segment.newestFirst.put(RevisionKey.of(revision), offset);
+    liveSize += recordSize - (previous == null ? 0 : getRecordSize(segment, previous));
+  }
+
+  /** Removes the revision {@code commitHash}, if any, from the indexes. */
+  private void unindexRevision(Segment segment, String commitHash) {
+    Long previous = segment.offsets.get(commitHash);
+    if (previous == null) {
+      return;
+    }
+    segment.newestFirst.remove(RevisionKey.of(readRevision(segment, previous)));
+    segment.offsets.remove(commitHash);
+    liveSize -= getRecordSize(segment, previous);
+  }
+
+  /** Indexes the builder index held by a record of {@code recordSize} bytes. */
+  private void indexBuilder(BuilderIndex index, int recordSize) {
+    Integer previous = builderIndexes.put(index.getName(), index.getIndex());
+    if (previous != null) {
+      BuilderIndex superseded = new BuilderIndex(index.getName(), previous);
+      liveSize -= HEADER_SIZE + RevisionLogCodec.encodeBuilderIndex(superseded).length;
+    }
+    liveSize += recordSize;
+  }
+
+  /** Returns the size of the record at {@code offset}, header included. */
+  private static int getRecordSize(Segment segment, long offset) {
+    return HEADER_SIZE + segment.map.getInt((int) offset);
+  }
+
+  /**
+   * Returns the revision held by the record at {@code offset}.
+   *
+   * @throws IllegalStateException if the record is corrupted
+   */
+  private static BuildInfo readRevision(Segment segment, long offset) {
+    MappedByteBuffer map = segment.map;
+    byte[] record = readRecord(map, offset, map.capacity());
+    checkState(record != null, "Corrupted revision log record at offset %s", offset);
+    return RevisionLogCodec.decodeRevision(record);
+  }
+
+  /**
+   * Returns the record at {@code offset} of {@code log}, or null if there is no complete record
+   * with a valid checksum between {@code offset} and {@code limit}.
+   */
+  @Nullable
+  private static byte[] readRecord(ByteBuffer log, long offset, long limit) {
+    if (offset + HEADER_SIZE > limit) {
+      return null;
+    }
+    int length = log.getInt((int) offset);
+    if (length <= 0 || length > limit - offset - HEADER_SIZE) {
+      return null;
+    }
+    byte[] record = new byte[length];
+    ByteBuffer source = log.duplicate();
+    source.position((int) offset + HEADER_SIZE);
+    source.get(record);
+    return getChecksum(record) == log.getInt((int) offset + 4) ? record : null;
+  }
+
+  /**
+   * Writes {@code record} with its header at {@code position} of {@code channel}.
+   *
+   * @return the position after the record
+   */
+  private static long writeRecord(FileChannel channel, long position, byte[] record)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + record.length);
+    buffer.putInt(record.length);
+    buffer.putInt(getChecksum(record));
+    buffer.put(record);
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+    return position + buffer.limit();
+  }
+
+  private static int getChecksum(byte[] record) {
+    CRC32 checksum = new CRC32();
+    checksum.update(record, 0, record.length);
+    return (int) checksum.getValue();
+  }
+
+  /**
+   * Maps {@code channel} to memory over at least {@code size} bytes. The mapped size is a power of
+   * two, the file being extended with zeros up to it, so that it is not mapped again at each write.
+   *
+   * @throws IOException if {@code size} is over 2GB
+   */
+  private static MappedByteBuffer map(FileChannel channel, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("The revision log cannot grow over 2GB");
+    }
+    long mappedSize = MIN_MAPPED_SIZE;
+    while (mappedSize < size) {
+      mappedSize *= 2;
+    }
+    return channel.map(MapMode.READ_ONLY, 0, Math.min(mappedSize, Integer.MAX_VALUE));
+  }
+
+  /** Returns the size of the log, superseded records included. */
+  public long getLogSize() {
+    return end;
+  }
+
+  /** Returns the number of times the log was synced to disk. */
+  public long getSyncCount() {
+    return syncCount.get();
+  }
+
+  /**
+   * Syncs the log and closes it, once the pending writes are done. The log is truncated after its
+   * last record, so that it is recovered without discarding anything. The revisions can still be
+   * read once the repository is closed, but no longer written.
+   */
+  @Override
+  public void close() throws IOException {
+    if (compactor != null) {
+      compactor.shutdown();
+    }
+    CompletableFuture<Boolean> closing;
+    synchronized (queue) {
+      if (closed) {
+        return;
+      }
+      closing =
+          submit(
+              () -> {
+                channel.force(false);
+                channel.truncate(end);
+                channel.close();
+                return true;
+              });
+      closed = true;
+    }
+    try {
+      closing.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing the revision log");
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,302 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.datatypes.RevisionPage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.springframework.context.annotation.Profile;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Repository;
+
+/**
+ * A DataRepository implementation keeping the revisions in memory, for local development, tests
+ * and benchmarks of the whole application without Datastore. It is the storage of the application
+ * when the "memory" profile is active. Nothing is persisted: the revisions are lost on shutdown.
+ *
+ * <p>The revisions are kept in a hash map keyed by commit hash, and indexed by a skip list sorted
+ * from the latest timestamp, see {@link RevisionKey}. A page starts right after the last revision
+ * of the previous one, found in logarithmic time, while an offset is skipped one revision at a
+ * time. A stored revision is never modified: a write replaces it with an updated copy in both the
+ * map and the index, atomically with respect to the other writes of the same revision, so the
+ * reads never lock and never see a half-applied update. Writes of different revisions run in
+ * parallel.
+ */
+@Repository
+@Profile("memory")
+public class InMemoryRepository implements DataRepository {
+
+  /** The revisions, keyed by commit hash. */
+  private final ConcurrentHashMap<String, BuildInfo> revisions = new ConcurrentHashMap<>();
+
+  /** The revisions, from the latest. */
+  private final ConcurrentSkipListMap<RevisionKey, BuildInfo> newestFirst =
+      new ConcurrentSkipListMap<>();
+
+  /** The index of each builder, keyed by builder name. */
+  private final ConcurrentHashMap<String, Integer> builderIndexes = new ConcurrentHashMap<>();
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code entryData} is null.
+   */
+  @Override
+  public boolean createRevisionEntry(@NonNull GitHubData entryData) {
+    checkNotNull(entryData);
+    checkNotNull(entryData.getCommitHash());
+
+    revisions.computeIfAbsent(
+        entryData.getCommitHash(),
+        commitHash -> {
+          BuildInfo revision = new BuildInfo(entryData);
+          newestFirst.put(RevisionKey.of(revision), revision);
+          return revision;
+        });
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code entriesData} or any of its elements is null.
+   */
+  @Override
+  public boolean createRevisionEntries(@NonNull Collection<GitHubData> entriesData) {
+    checkNotNull(entriesData);
+
+    for (GitHubData entryData : entriesData) {
+      createRevisionEntry(entryData);
+    }
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code updateData} is null.
+   */
+  @Override
+  public boolean updateRevisionEntry(@NonNull BuildBotData updateData) {
+    checkNotNull(updateData);
+
+    return update(updateData.getCommitHash(), Collections.singletonList(updateData));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code updatesData} or any of its elements is null.
+   */
+  @Override
+  public Set<String> updateExistingRevisionEntries(@NonNull Collection<BuildBotData> updatesData) {
+    checkNotNull(updatesData);
+
+    Map<String, List<BuildBotData>> byCommitHash = new LinkedHashMap<>();
+    for (BuildBotData updateData : updatesData) {
+      byCommitHash
+          .computeIfAbsent(checkNotNull(updateData.getCommitHash()), hash -> new ArrayList<>())
+          .add(updateData);
+    }
+    Set<String> missing = new HashSet<>();
+    byCommitHash.forEach(
+        (commitHash, updates) -> {
+          if (!update(commitHash, updates)) {
+            missing.add(commitHash);
+          }
+        });
+    return missing;
+  }
+
+  /**
+   * Replaces the revision {@code commitHash}, if any, with a copy to which {@code updates} are
+   * added, see {@link BuildInfo#addBuilder}.
+   *
+   * @return true only if there is such a revision.
+   */
+  private boolean update(String commitHash, List<BuildBotData> updates) {
+    checkNotNull(commitHash);
+
+    return revisions.computeIfPresent(
+            commitHash,
+            (hash, stored) -> {
+              BuildInfo updated = new BuildInfo(stored);
+              boolean changed = false;
+              for (BuildBotData update : updates) {
+                changed |= updated.addBuilder(update);
+              }
+              if (!changed) {
+                return stored;
+              }
+              newestFirst.put(RevisionKey.of(updated), updated);
+              return updated;
+            })
+        != null;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code commitHash} is null.
+   */
+  @Override
+  public boolean deleteRevisionEntry(@NonNull String commitHash) {
+    checkNotNull(commitHash);
+
+    revisions.computeIfPresent(
+        commitHash,
+        (hash, stored) -> {
+          newestFirst.remove(RevisionKey.of(stored));
+          return null;
+        });
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalArgumentException if either number or offset are < 0
+   */
+  @Override
+  public List<BuildInfo> getLastRevisionEntries(int number, int offset) {
+    checkArgument(number >= 0, "number must be >= 0");
+    checkArgument(offset >= 0, "offset must be >= 0");
+
+    return getRange(newestFirst, number, offset);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalArgumentException if either number or offset are < 0
+   */
+  @Override
+  public List<BuildInfo> getLastRevisionSummaries(int number, int offset) {
+    List<BuildInfo> summaries = new ArrayList<>();
+    for (BuildInfo revision : getLastRevisionEntries(number, offset)) {
+      summaries.add(revision.toSummary());
+    }
+    return summaries;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The page token holds the timestamp and commit hash of the last revision of the page, so the
+   * next page starts right after it in the index.
+   *
+   * @throws IllegalArgumentException if number is < 0 or pageToken is not a valid token
+   */
+  @Override
+  public RevisionPage getRevisionEntriesPage(int number, @Nullable String pageToken) {
+    checkArgument(number >= 0, "number must be >= 0");
+
+    ConcurrentNavigableMap<RevisionKey, BuildInfo> remaining =
+        pageToken == null
+            ? newestFirst
+            : newestFirst.tailMap(RevisionKey.fromPageToken(pageToken), false);
+    List<BuildInfo> page = getRange(remaining, number, 0);
+
+    // A short page is the last one.
+    boolean more = number > 0 && page.size() == number;
+    return new RevisionPage(
+        page, more ? RevisionKey.of(page.get(page.size() - 1)).toPageToken() : null);
+  }
+
+  /** Returns the revisions {@code offset} to {@code offset + number} of {@code index}. */
+  private static List<BuildInfo> getRange(
+      ConcurrentNavigableMap<RevisionKey, BuildInfo> index, int number, int offset) {
+    List<BuildInfo> range = new ArrayList<>();
+    Iterator<BuildInfo> iterator = index.values().iterator();
+    for (int skipped = 0; skipped < offset && iterator.hasNext(); skipped++) {
+      iterator.next();
+    }
+    while (range.size() < number && iterator.hasNext()) {
+      range.add(iterator.next());
+    }
+    return range;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if the {@code commitHash} is null
+   */
+  @Override
+  public BuildInfo getRevisionEntry(@NonNull String commitHash) {
+    checkNotNull(commitHash);
+
+    return revisions.get(commitHash);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if the {@code commitHash} is null
+   */
+  @Override
+  public BuildInfo getRevisionSummary(@NonNull String commitHash) {
+    BuildInfo revision = getRevisionEntry(commitHash);
+    return revision == null ? null : revision.toSummary();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if the {@code builderName} is null
+   */
+  @Override
+  public int getBuilderIndex(@NonNull String builderName) {
+    checkNotNull(builderName);
+
+    Integer index = builderIndexes.get(builderName);
+    if (index == null) {
+      throw new BuildbotNotFoundException("No index stored for builder: " + builderName);
+    }
+    return index;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NullPointerException if {@code index} or its name is null.
+   */
+  @Override
+  public boolean updateBuilderIndex(@NonNull BuilderIndex index) {
+    checkNotNull(index);
+    checkNotNull(index.getName());
+
+    builderIndexes.put(index.getName(), index.getIndex());
+    return true;
+  }
+}
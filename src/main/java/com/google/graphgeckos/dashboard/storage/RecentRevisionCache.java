@@ -0,0 +1,407 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * An in-process cache of the newest revisions of the storage, serving the dashboard pages without
+ * querying the storage.
+ *
+ * <p>The cache holds the {@code capacity} newest revisions in a ring buffer ordered by timestamp,
+ * from the latest, along with an index of their positions by commit hash. A new revision usually is
+ * the latest one, and is added in front of the others in constant time, evicting the oldest one
+ * when the buffer is full; an update replaces its revision in place. Only a revision older than
+ * others, or a deleted one, shifts the revisions after it. Reads copy the requested range out of
+ * the buffer, so the cached revisions are never handed out.
+ *
+ * <p>Every write of the storage by this process goes through {@link #put}, {@link #putBuilders} or
+ * {@link #remove}, but the writes of other processes do not: the cache only serves reads for
+ * {@code maxAge} after it was filled by {@link #load}, from a query of the newest revisions, and
+ * must then be loaded again. The writes made while the query runs are replayed over its result.
+ *
+ * <p>This class is thread-safe.
+ */
+public class RecentRevisionCache {
+
+  /** Orders the revisions from the latest, like the storage queries do. */
+  private static final Comparator<BuildInfo> NEWEST_FIRST =
+      Comparator.comparing(BuildInfo::getTimestamp)
+          .reversed()
+          .thenComparing(BuildInfo::getCommitHash);
+
+  /** Maximum number of cached revisions. */
+  private final int capacity;
+
+  /** How long the revisions are served after a load. */
+  private final Duration maxAge;
+
+  /** Source of the current time. */
+  private final Clock clock;
+
+  /** Guards the fields below: the reads share it, the writes hold it alone. */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** The cached revisions, the one at position {@code i} from the latest in {@code slot(i)}. */
+  private final BuildInfo[] revisions;
+
+  /** The index in {@link #revisions} of each cached revision, by commit hash. */
+  private final Map<String, Integer> slots = new HashMap<>();
+
+  /** Index in {@link #revisions} of the latest revision. */
+  private int head;
+
+  /** Number of cached revisions. */
+  private int size;
+
+  /** Whether the cached revisions are all the revisions of the storage. */
+  private boolean complete;
+
+  /** When the cache was last loaded, null if it never was. */
+  @Nullable private Instant loadedAt;
+
+  /** Number of loads started so far, telling apart the load the journal is kept for. */
+  private long loadCount;
+
+  /**
+   * The writes made since the start of the load in progress, to be replayed over its result. Null
+   * if no load is in progress, or if the writes outgrew {@link #capacity} and the load is dropped.
+   */
+  @Nullable private List<Runnable> journal;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param capacity maximum number of cached revisions, must be > 0
+   * @param maxAge how long the revisions are served after a load, must be > 0
+   * @throws IllegalArgumentException if {@code capacity} or {@code maxAge} is <= 0
+   */
+  public RecentRevisionCache(int capacity, @NonNull Duration maxAge) {
+    this(capacity, maxAge, Clock.systemUTC());
+  }
+
+  RecentRevisionCache(int capacity, @NonNull Duration maxAge, @NonNull Clock clock) {
+    checkArgument(capacity > 0, "capacity must be > 0");
+    checkArgument(!maxAge.isNegative() && !maxAge.isZero(), "maxAge must be > 0");
+
+    this.capacity = capacity;
+    this.maxAge = maxAge;
+    this.clock = checkNotNull(clock);
+    this.revisions = new BuildInfo[capacity];
+  }
+
+  /** Returns the maximum number of cached revisions. */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns copies of the revisions {@code offset} to {@code offset + number} from the latest, or
+   * null if the cache was not loaded within the last {@code maxAge} or does not hold all of them.
+   */
+  @Nullable
+  public List<BuildInfo> get(int number, int offset) {
+    lock.readLock().lock();
+    try {
+      long end = (long) offset + number;
+      if (!isFresh() || (end > size && !complete)) {
+        missCount.incrementAndGet();
+        return null;
+      }
+      hitCount.incrementAndGet();
+      int to = (int) Math.min(end, size);
+      List<BuildInfo> range = new ArrayList<>(Math.max(to - offset, 0));
+      for (int position = offset; position < to; position++) {
+        range.add(new BuildInfo(revisions[slot(position)]));
+      }
+      return range;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns whether the cache was ever loaded. */
+  public boolean isLoaded() {
+    lock.readLock().lock();
+    try {
+      return loadedAt != null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns whether the cache must be loaded again before serving reads, because it was not loaded
+   * within the last {@code maxAge}.
+   */
+  public boolean isExpired() {
+    lock.readLock().lock();
+    try {
+      return !isFresh();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Starts a load: the writes made from now on are recorded, to be replayed over the result of the
+   * query of the newest revisions by {@link #load}. A load started later supersedes this one.
+   *
+   * @return the load, to be passed to {@link #load}
+   */
+  public long startLoad() {
+    lock.writeLock().lock();
+    try {
+      journal = new ArrayList<>();
+      return ++loadCount;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Fills the cache with {@code newest}, over which the writes made since {@code load} was started
+   * are replayed. The cache is left as is if a later load was started meanwhile, or if too many
+   * writes were made.
+   *
+   * @param newest the result of a query of the {@link #getCapacity()} newest revisions, made after
+   *     {@code load} was started
+   * @param load the load, as returned by {@link #startLoad()}
+   * @return true only if the cache was filled
+   */
+  public boolean load(@NonNull List<BuildInfo> newest, long load) {
+    checkNotNull(newest);
+
+    lock.writeLock().lock();
+    try {
+      if (load != loadCount || journal == null) {
+        return false;
+      }
+      List<Runnable> writes = journal;
+      journal = null;
+
+      List<BuildInfo> sorted = new ArrayList<>(newest);
+      sorted.sort(NEWEST_FIRST);
+      Arrays.fill(revisions, null);
+      slots.clear();
+      head = 0;
+      size = Math.min(sorted.size(), capacity);
+      for (int position = 0; position < size; position++) {
+        revisions[position] = new BuildInfo(sorted.get(position));
+        slots.put(revisions[position].getCommitHash(), position);
+      }
+      complete = sorted.size() < capacity;
+      loadedAt = clock.instant();
+
+      writes.forEach(Runnable::run);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Records that the {@code written} revisions were created or updated in the storage. The cached
+   * ones are replaced by copies, and copies of the new ones are added if they are among the newest
+   * revisions.
+   */
+  public void put(@NonNull Collection<BuildInfo> written) {
+    checkNotNull(written);
+
+    List<BuildInfo> copies = new ArrayList<>(written.size());
+    for (BuildInfo revision : written) {
+      copies.add(new BuildInfo(revision));
+    }
+    write(() -> copies.forEach(this::putRevision));
+  }
+
+  /**
+   * Records that the builder {@code results} were written to the storage apart from the entities
+   * of their revisions. The results are added to the cached revisions, see {@link
+   * BuildInfo#addBuilder}; the other revisions are not among the newest ones.
+   */
+  public void putBuilders(@NonNull Collection<BuildBotData> results) {
+    checkNotNull(results);
+
+    List<BuildBotData> copies = new ArrayList<>(results);
+    write(
+        () -> {
+          for (BuildBotData result : copies) {
+            Integer slot = slots.get(result.getCommitHash());
+            if (slot != null) {
+              revisions[slot].addBuilder(result);
+            }
+          }
+        });
+  }
+
+  /** Records that the revision {@code commitHash} was deleted from the storage. */
+  public void remove(@NonNull String commitHash) {
+    checkNotNull(commitHash);
+
+    write(
+        () -> {
+          Integer slot = slots.get(commitHash);
+          if (slot != null) {
+            removeAt(position(slot));
+          }
+        });
+  }
+
+  /** Returns the number of cached revisions. */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the number of reads served by the cache. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of reads the cache could not serve. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Applies the write {@code apply} to the cached revisions, and records it for the load. */
+  private void write(Runnable apply) {
+    lock.writeLock().lock();
+    try {
+      if (journal != null) {
+        if (journal.size() < capacity) {
+          journal.add(apply);
+        } else {
+          journal = null;
+        }
+      }
+      if (loadedAt != null) {
+        apply.run();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Returns whether the cache was loaded within the last {@link #maxAge}. */
+  private boolean isFresh() {
+    return loadedAt != null && !clock.instant().isAfter(loadedAt.plus(maxAge));
+  }
+
+  /** Returns the index in {@link #revisions} of the revision {@code position} from the latest. */
+  private int slot(int position) {
+    return (head + position) % capacity;
+  }
+
+  /** Returns the position from the latest of the revision at index {@code slot}. */
+  private int position(int slot) {
+    return (slot - head + capacity) % capacity;
+  }
+
+  /** Stores {@code revision} at {@code position} from the latest. */
+  private void set(int position, BuildInfo revision) {
+    int slot = slot(position);
+    revisions[slot] = revision;
+    slots.put(revision.getCommitHash(), slot);
+  }
+
+  /** Replaces the cached {@code revision}, or adds it if it is among the newest revisions. */
+  private void putRevision(BuildInfo revision) {
+    Integer slot = slots.get(revision.getCommitHash());
+    if (slot != null) {
+      if (revisions[slot].getTimestamp().equals(revision.getTimestamp())) {
+        revisions[slot] = revision;
+        return;
+      }
+      removeAt(position(slot));
+    }
+
+    // A revision older than the oldest cached one is not among the newest revisions, unless the
+    // cache holds all of them and has room for it.
+    boolean oldest = size == 0 || NEWEST_FIRST.compare(revision, revisions[slot(size - 1)]) > 0;
+    if (oldest && (!complete || size == capacity)) {
+      complete = false;
+      return;
+    }
+    if (size == capacity) {
+      slots.remove(revisions[slot(size - 1)].getCommitHash());
+      revisions[slot(size - 1)] = null;
+      size--;
+      complete = false;
+    }
+
+    int position = findPosition(revision);
+    if (position == 0) {
+      head = (head + capacity - 1) % capacity;
+    } else {
+      for (int i = size; i > position; i--) {
+        set(i, revisions[slot(i - 1)]);
+      }
+    }
+    size++;
+    set(position, revision);
+  }
+
+  /** Removes the revision at {@code position} from the latest, moving the older ones up. */
+  private void removeAt(int position) {
+    slots.remove(revisions[slot(position)].getCommitHash());
+    for (int i = position; i < size - 1; i++) {
+      set(i, revisions[slot(i + 1)]);
+    }
+    revisions[slot(size - 1)] = null;
+    size--;
+  }
+
+  /** Returns the number of cached revisions newer than {@code revision}. */
+  private int findPosition(BuildInfo revision) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (NEWEST_FIRST.compare(revisions[slot(middle)], revision) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.cloud.Timestamp;
+import com.google.common.base.Charsets;
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * The position of a revision in the in-memory indexes of the revisions: latest timestamp first,
+ * then by hash. Also converts the position to and from the page tokens of these indexes.
+ */
+final class RevisionKey implements Comparable<RevisionKey> {
+  private final Timestamp timestamp;
+  private final String commitHash;
+
+  RevisionKey(Timestamp timestamp, String commitHash) {
+    this.timestamp = timestamp;
+    this.commitHash = commitHash;
+  }
+
+  static RevisionKey of(BuildInfo revision) {
+    return new RevisionKey(revision.getTimestamp(), revision.getCommitHash());
+  }
+
+  String getCommitHash() {
+    return commitHash;
+  }
+
+  /** Returns the page token of the revisions after this one, see {@link #fromPageToken}. */
+  String toPageToken() {
+    String token = timestamp + " " + commitHash;
+    return Base64.getUrlEncoder().encodeToString(token.getBytes(Charsets.UTF_8));
+  }
+
+  /**
+   * Returns the key of the last revision of the previous page.
+   *
+   * @throws IllegalArgumentException if {@code pageToken} is not a valid token
+   */
+  static RevisionKey fromPageToken(String pageToken) {
+    try {
+      String token = new String(Base64.getUrlDecoder().decode(pageToken), Charsets.UTF_8);
+      int separator = token.indexOf(' ');
+      checkArgument(separator > 0);
+      return new RevisionKey(
+          Timestamp.parseTimestamp(token.substring(0, separator)), token.substring(separator + 1));
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Invalid page token: " + pageToken, e);
+    }
+  }
+
+  @Override
+  public int compareTo(RevisionKey other) {
+    int byTimestamp = other.timestamp.compareTo(timestamp);
+    return byTimestamp != 0 ? byTimestamp : commitHash.compareTo(other.commitHash);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof RevisionKey)) {
+      return false;
+    }
+    RevisionKey other = (RevisionKey) o;
+    return timestamp.equals(other.timestamp) && commitHash.equals(other.commitHash);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(timestamp, commitHash);
+  }
+}
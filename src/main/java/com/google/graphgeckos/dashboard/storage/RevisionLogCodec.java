@@ -0,0 +1,203 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import com.google.cloud.Timestamp;
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
+import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
+import com.google.graphgeckos.dashboard.datatypes.Log;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the records of the revision log of the {@link FileRepository}, and decodes them.
+ *
+ * <p>Each record starts with its type: a revision, in full, the deletion of a revision, or the
+ * index of a builder. The revision counters and status are not stored but recomputed from the
+ * builder results when a revision is decoded.
+ */
+final class RevisionLogCodec {
+
+  /** Type of the records holding a revision, see {@link #encodeRevision}. */
+  static final byte REVISION = 1;
+
+  /** Type of the records deleting a revision, see {@link #encodeDeletion}. */
+  static final byte DELETION = 2;
+
+  /** Type of the records holding the index of a builder, see {@link #encodeBuilderIndex}. */
+  static final byte BUILDER_INDEX = 3;
+
+  private RevisionLogCodec() {}
+
+  /** A function writing a record, see {@link #encode}. */
+  private interface Writer {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /** A function reading a record, see {@link #decode}. */
+  private interface Reader<T> {
+    T read(DataInputStream in) throws IOException;
+  }
+
+  /** Returns the record holding {@code revision}, with all its builder results. */
+  static byte[] encodeRevision(BuildInfo revision) {
+    return encode(
+        REVISION,
+        out -> {
+          out.writeUTF(revision.getCommitHash());
+          writeTimestamp(out, revision.getTimestamp());
+          out.writeInt(revision.getBuilders().size());
+          for (BuildBotData builder : revision.getBuilders()) {
+            writeBuilder(out, builder);
+          }
+        });
+  }
+
+  /** Returns the record deleting the revision {@code commitHash}. */
+  static byte[] encodeDeletion(String commitHash) {
+    return encode(DELETION, out -> out.writeUTF(commitHash));
+  }
+
+  /** Returns the record holding the index of a builder. */
+  static byte[] encodeBuilderIndex(BuilderIndex index) {
+    return encode(
+        BUILDER_INDEX,
+        out -> {
+          out.writeUTF(index.getName());
+          out.writeInt(index.getIndex());
+        });
+  }
+
+  /** Returns the type of {@code record}. */
+  static byte getType(byte[] record) {
+    return record[0];
+  }
+
+  /** Returns the revision held by a {@link #REVISION} record. */
+  static BuildInfo decodeRevision(byte[] record) {
+    return decode(
+        record,
+        REVISION,
+        in -> {
+          BuildInfo revision = new BuildInfo();
+          revision.setCommitHash(in.readUTF());
+          revision.setTimestamp(readTimestamp(in));
+          int count = in.readInt();
+          List<BuildBotData> builders = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            builders.add(readBuilder(in, revision.getCommitHash()));
+          }
+          revision.setBuilders(builders);
+          return revision;
+        });
+  }
+
+  /** Returns the commit hash of the revision deleted by a {@link #DELETION} record. */
+  static String decodeDeletion(byte[] record) {
+    return decode(record, DELETION, in -> in.readUTF());
+  }
+
+  /** Returns the builder index held by a {@link #BUILDER_INDEX} record. */
+  static BuilderIndex decodeBuilderIndex(byte[] record) {
+    return decode(record, BUILDER_INDEX, in -> new BuilderIndex(in.readUTF(), in.readInt()));
+  }
+
+  private static byte[] encode(byte type, Writer writer) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(type);
+      writer.write(out);
+    } catch (IOException e) {
+      // Writing to memory does not fail, but a string longer than 64KB does.
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Reads {@code record} with {@code reader}.
+   *
+   * @throws IllegalArgumentException if {@code record} is not of type {@code type}, or is truncated
+   */
+  private static <T> T decode(byte[] record, byte type, Reader<T> reader) {
+    if (getType(record) != type) {
+      throw new IllegalArgumentException(
+          String.format("Expected a record of type %d, found %d", type, getType(record)));
+    }
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+      in.readByte();
+      return reader.read(in);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Truncated record of type " + type, e);
+    }
+  }
+
+  private static void writeTimestamp(DataOutputStream out, Timestamp timestamp)
+      throws IOException {
+    out.writeLong(timestamp.getSeconds());
+    out.writeInt(timestamp.getNanos());
+  }
+
+  private static Timestamp readTimestamp(DataInputStream in) throws IOException {
+    return Timestamp.ofTimeSecondsAndNanos(in.readLong(), in.readInt());
+  }
+
+  private static void writeBuilder(DataOutputStream out, BuildBotData builder)
+      throws IOException {
+    out.writeUTF(builder.getName());
+    out.writeUTF(builder.getStatus().name());
+    out.writeBoolean(builder.getBuildId() != null);
+    if (builder.getBuildId() != null) {
+      out.writeInt(builder.getBuildId());
+    }
+    out.writeBoolean(builder.getTimestamp() != null);
+    if (builder.getTimestamp() != null) {
+      writeTimestamp(out, builder.getTimestamp());
+    }
+    out.writeInt(builder.getLogs().size());
+    for (Log log : builder.getLogs()) {
+      out.writeUTF(log.getType());
+      out.writeUTF(log.getLink());
+    }
+  }
+
+  private static BuildBotData readBuilder(DataInputStream in, String commitHash)
+      throws IOException {
+    BuildBotData builder = new BuildBotData(in.readUTF());
+    builder.setCommitHash(commitHash);
+    builder.setStatus(BuilderStatus.valueOf(in.readUTF()));
+    if (in.readBoolean()) {
+      builder.setBuildId(in.readInt());
+    }
+    if (in.readBoolean()) {
+      builder.setTimestamp(readTimestamp(in));
+    }
+    int count = in.readInt();
+    List<Log> logs = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      logs.add(new Log(in.readUTF(), in.readUTF()));
+    }
+    builder.setLogs(logs);
+    return builder;
+  }
+}
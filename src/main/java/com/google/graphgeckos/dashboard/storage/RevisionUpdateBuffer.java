@@ -0,0 +1,292 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import org.springframework.lang.NonNull;
+
+/**
+ * A write-behind buffer of the builder updates of the revisions.
+ *
+ * <p>Many builders report on the same recent revisions at about the same time. Instead of reading
+ * and rewriting a revision's entry for each of them, the updates are queued for a short window and
+ * written together with {@link DataRepository#updateExistingRevisionEntries}, which applies the
+ * queued updates of a revision with a single read and a single write of its entry. The queue is
+ * flushed every {@code flushInterval}, as soon as it holds {@code maxPending} updates, and on
+ * {@link #close()}. Flushes never overlap, so the updates of a revision are never written
+ * concurrently by this process. Each update tells its caller whether it was written, so that a
+ * failed write or a missing revision is retried rather than taken as done.
+ */
+public class RevisionUpdateBuffer {
+
+  /** Storage the updates are written to. */
+  private final DataRepository repository;
+
+  /** Number of queued updates which triggers a flush. */
+  private final int maxPending;
+
+  /** Guards the queue. */
+  private final Object lock = new Object();
+
+  /** Guards the writes, so that flushes never overlap. */
+  private final Object flushLock = new Object();
+
+  /** The queued updates, in order of arrival. */
+  private List<BuildBotData> pending = new ArrayList<>();
+
+  /**
+   * Completes once the queued updates are written, with the commit hashes of their revisions which
+   * have no entry, or exceptionally if the write failed.
+   */
+  private CompletableFuture<Set<String>> pendingWrite = new CompletableFuture<>();
+
+  /** Whether a flush was requested because the queue is full. */
+  private boolean flushRequested;
+
+  /** Whether the buffer was closed and takes no more updates. */
+  private boolean closed;
+
+  /** Runs the periodic flushes and the flushes of full queues. */
+  private final ScheduledExecutorService flusher;
+
+  private final AtomicLong flushCount = new AtomicLong();
+  private final AtomicLong failedFlushCount = new AtomicLong();
+  private final AtomicLong flushedUpdateCount = new AtomicLong();
+  private final AtomicLong flushedRevisionCount = new AtomicLong();
+  private volatile long lastFlushMillis;
+  private final AtomicLong maxFlushMillis = new AtomicLong();
+
+  private static final Logger logger = Logger.getLogger(RevisionUpdateBuffer.class.getName());
+
+  /** A snapshot of the state of the buffer, see {@link #getStats()}. */
+  public static final class Stats {
+    private final int queueDepth;
+    private final long flushCount;
+    private final long failedFlushCount;
+    private final long flushedUpdates;
+    private final long flushedRevisions;
+    private final long lastFlushMillis;
+    private final long maxFlushMillis;
+
+    private Stats(
+        int queueDepth,
+        long flushCount,
+        long failedFlushCount,
+        long flushedUpdates,
+        long flushedRevisions,
+        long lastFlushMillis,
+        long maxFlushMillis) {
+      this.queueDepth = queueDepth;
+      this.flushCount = flushCount;
+      this.failedFlushCount = failedFlushCount;
+      this.flushedUpdates = flushedUpdates;
+      this.flushedRevisions = flushedRevisions;
+      this.lastFlushMillis = lastFlushMillis;
+      this.maxFlushMillis = maxFlushMillis;
+    }
+
+    /** Returns the number of updates waiting to be written. */
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    /** Returns the number of flushes which wrote updates. */
+    public long getFlushCount() {
+      return flushCount;
+    }
+
+    /** Returns the number of flushes whose write failed, the updates of which were not written. */
+    public long getFailedFlushCount() {
+      return failedFlushCount;
+    }
+
+    /** Returns the number of updates written. */
+    public long getFlushedUpdates() {
+      return flushedUpdates;
+    }
+
+    /** Returns the number of revision writes the updates were coalesced into. */
+    public long getFlushedRevisions() {
+      return flushedRevisions;
+    }
+
+    /** Returns how long the last flush took, in milliseconds. */
+    public long getLastFlushMillis() {
+      return lastFlushMillis;
+    }
+
+    /** Returns how long the longest flush took, in milliseconds. */
+    public long getMaxFlushMillis() {
+      return maxFlushMillis;
+    }
+  }
+
+  /**
+   * Creates an empty buffer and starts its periodic flushes.
+   *
+   * @param repository storage the updates are written to
+   * @param maxPending number of queued updates which triggers a flush, must be > 0
+   * @param flushInterval longest time an update is queued, must be > 0
+   * @throws IllegalArgumentException if {@code maxPending} or {@code flushInterval} is <= 0
+   */
+  public RevisionUpdateBuffer(
+      @NonNull DataRepository repository, int maxPending, @NonNull Duration flushInterval) {
+    checkArgument(maxPending > 0, "maxPending must be > 0");
+    checkArgument(
+        !flushInterval.isNegative() && !flushInterval.isZero(), "flushInterval must be > 0");
+
+    this.repository = checkNotNull(repository);
+    this.maxPending = maxPending;
+    this.flusher =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "revision-update-buffer");
+              thread.setDaemon(true);
+              return thread;
+            });
+    long intervalMillis = flushInterval.toMillis();
+    flusher.scheduleWithFixedDelay(
+        this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues {@code update} to be written with the next flush.
+   *
+   * @return a future completed once the update is written, with false if it was ignored because
+   *     its revision has no entry, or exceptionally if the write failed. Cancelling it does not
+   *     cancel the write.
+   * @throws NullPointerException if {@code update} or its commit hash is null
+   * @throws IllegalStateException if the buffer is closed
+   */
+  public CompletableFuture<Boolean> add(@NonNull BuildBotData update) {
+    checkNotNull(update);
+    checkNotNull(update.getCommitHash());
+
+    synchronized (lock) {
+      checkState(!closed, "The buffer is closed");
+      pending.add(update);
+      if (pending.size() >= maxPending && !flushRequested) {
+        flushRequested = true;
+        flusher.execute(this::flush);
+      }
+      // A dependent future, so that a caller cancelling it does not affect the others.
+      String commitHash = update.getCommitHash();
+      return pendingWrite.thenApply(missing -> !missing.contains(commitHash));
+    }
+  }
+
+  /**
+   * Writes the queued updates, waiting for the flush in progress to end first.
+   *
+   * @return the number of updates written, 0 if the write failed
+   */
+  public int flush() {
+    synchronized (flushLock) {
+      List<BuildBotData> updates;
+      CompletableFuture<Set<String>> write;
+      synchronized (lock) {
+        updates = pending;
+        write = pendingWrite;
+        pending = new ArrayList<>();
+        pendingWrite = new CompletableFuture<>();
+        flushRequested = false;
+      }
+      if (updates.isEmpty()) {
+        return 0;
+      }
+
+      long start = System.nanoTime();
+      Set<String> missing;
+      try {
+        missing = repository.updateExistingRevisionEntries(updates);
+        if (missing == null) {
+          throw new IllegalStateException("The storage refused the write");
+        }
+      } catch (RuntimeException e) {
+        logger.warning(String.format("Failed to write %d updates: %s", updates.size(), e));
+        failedFlushCount.incrementAndGet();
+        write.completeExceptionally(e);
+        return 0;
+      }
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      Set<String> revisions = new HashSet<>();
+      for (BuildBotData update : updates) {
+        revisions.add(update.getCommitHash());
+      }
+      flushCount.incrementAndGet();
+      flushedUpdateCount.addAndGet(updates.size());
+      flushedRevisionCount.addAndGet(revisions.size());
+      lastFlushMillis = millis;
+      maxFlushMillis.accumulateAndGet(millis, Math::max);
+      write.complete(missing);
+      return updates.size();
+    }
+  }
+
+  /** Returns the number of updates waiting to be written. */
+  public int getQueueDepth() {
+    synchronized (lock) {
+      return pending.size();
+    }
+  }
+
+  /**
+   * Returns a snapshot of the queue depth and of the flush counts and latencies. Failed flushes are
+   * only counted by {@link Stats#getFailedFlushCount()}.
+   */
+  public Stats getStats() {
+    return new Stats(
+        getQueueDepth(),
+        flushCount.get(),
+        failedFlushCount.get(),
+        flushedUpdateCount.get(),
+        flushedRevisionCount.get(),
+        lastFlushMillis,
+        maxFlushMillis.get());
+  }
+
+  /**
+   * Stops taking updates and writes the queued ones. Waits up to a minute for the flush in progress
+   * to end first.
+   */
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+    }
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.api;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.google.graphgeckos.dashboard.fetchers.buildbot.AdaptivePollScheduler;
+import com.google.graphgeckos.dashboard.fetchers.github.GitHubClient;
+import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(
+    controllers = AdminController.class,
+    properties = "dashboard.admin.token=" + AdminControllerTest.TOKEN)
+@AutoConfigureMockMvc
+public class AdminControllerTest {
+  static final String TOKEN = "admin-token";
+
+  @MockBean private DatastoreRepository datastoreRepository;
+
+  // Keep the scheduled fetchers away from the storage mock.
+  @MockBean private AdaptivePollScheduler pollScheduler;
+
+  @MockBean private GitHubClient gitHubClient;
+
+  @Autowired private MockMvc mvc;
+
+  @Test
+  public void requestWithTokenIsServed() throws Exception {
+    mvc.perform(
+            MockMvcRequestBuilders.get("/admin/deadlines")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + TOKEN))
+        .andExpect(status().isOk());
+  }
+
+  @Test
+  public void requestWithoutTokenIsRefused() throws Exception {
+    mvc.perform(MockMvcRequestBuilders.get("/admin/circuits"))
+        .andExpect(status().isUnauthorized())
+        .andExpect(header().string(HttpHeaders.WWW_AUTHENTICATE, "Bearer"));
+  }
+
+  @Test
+  public void compactionWithInvalidTokenIsRefused() throws Exception {
+    mvc.perform(
+            MockMvcRequestBuilders.post("/admin/compaction")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer forged-token"))
+        .andExpect(status().isUnauthorized());
+
+    verify(datastoreRepository, never()).compactRevisionEntries();
+  }
+}
@@ -1,6 +1,9 @@
 package com.google.graphgeckos.dashboard.api;
 
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -11,6 +14,9 @@ import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
 import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
 import com.google.graphgeckos.dashboard.datatypes.GitHubData;
 import com.google.graphgeckos.dashboard.datatypes.Log;
+import com.google.graphgeckos.dashboard.datatypes.RevisionPage;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.AdaptivePollScheduler;
+import com.google.graphgeckos.dashboard.fetchers.github.GitHubClient;
 import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
 import java.util.Arrays;
 import java.util.Collections;
@@ -36,6 +42,11 @@ public class DashboardControllerTest {
 
   @MockBean private DatastoreRepository datastoreRepository;
 
+  // Keep the scheduled fetchers away from the storage mock while it is stubbed.
+  @MockBean private AdaptivePollScheduler pollScheduler;
+
+  @MockBean private GitHubClient gitHubClient;
+
   @Autowired private MockMvc mvc;
 
   private final String COMMIT_HASH = "1234";
@@ -169,4 +180,95 @@ public class DashboardControllerTest {
                 .accept(MediaType.APPLICATION_JSON))
         .andExpect(status().isBadRequest());
   }
+
+  /** Should only read the summaries, and return the selected fields, without builders selected. */
+  @Test
+  public void selectedFieldsWithoutBuildersAreReadFromSummaries() throws Exception {
+    given(datastoreRepository.getLastRevisionSummaries(ONE_ENTRIES, OFFSET_ZERO))
+        .willReturn(Collections.singletonList(BUILD_INFO.toSummary()));
+
+    mvc.perform(
+            MockMvcRequestBuilders.get(
+                    "/builders/number={number}/offset={offset}", ONE_ENTRIES, OFFSET_ZERO)
+                .param("fields", "commitHash,statusSummary")
+                .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].commitHash").value(COMMIT_HASH))
+        .andExpect(jsonPath("$[0].statusSummary").value("1/2 failed"))
+        .andExpect(jsonPath("$[0].status").doesNotExist())
+        .andExpect(jsonPath("$[0].builders").doesNotExist());
+    verify(datastoreRepository, never()).getLastRevisionEntries(anyInt(), anyInt());
+  }
+
+  /** Should read the builder results when they are selected. */
+  @Test
+  public void selectedBuildersAreReturned() throws Exception {
+    given(datastoreRepository.getLastRevisionEntries(ONE_ENTRIES, OFFSET_ZERO))
+        .willReturn(Collections.singletonList(BUILD_INFO));
+
+    mvc.perform(
+            MockMvcRequestBuilders.get(
+                    "/builders/number={number}/offset={offset}", ONE_ENTRIES, OFFSET_ZERO)
+                .param("fields", "builders")
+                .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].builders[0].builderName").value(NAME_A))
+        .andExpect(jsonPath("$[0].commitHash").doesNotExist());
+  }
+
+  /** Should answer "Bad request" to an unknown field. */
+  @Test
+  public void badRequestWhenFieldIsUnknown() throws Exception {
+    mvc.perform(
+            MockMvcRequestBuilders.get(
+                    "/builders/number={number}/offset={offset}", ONE_ENTRIES, OFFSET_ZERO)
+                .param("fields", "commitHash,unknown")
+                .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isBadRequest());
+  }
+
+  /** Should return the summary fields of the revisions. */
+  @Test
+  public void summariesHaveSummaryFields() throws Exception {
+    given(datastoreRepository.getLastRevisionSummaries(ONE_ENTRIES, OFFSET_ZERO))
+        .willReturn(Collections.singletonList(BUILD_INFO.toSummary()));
+
+    mvc.perform(
+            MockMvcRequestBuilders.get(
+                    "/builders/summary/number={number}/offset={offset}", ONE_ENTRIES, OFFSET_ZERO)
+                .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].commitHash").value(COMMIT_HASH))
+        .andExpect(jsonPath("$[0].status").value("failed"))
+        .andExpect(jsonPath("$[0].timestamp").exists())
+        .andExpect(jsonPath("$[0].builders").doesNotExist());
+  }
+
+  /** Should return the requested page of revisions along with the token of the next one. */
+  @Test
+  public void pageOfRevisionsHasNextPageToken() throws Exception {
+    given(datastoreRepository.getRevisionEntriesPage(ONE_ENTRIES, "token"))
+        .willReturn(new RevisionPage(Collections.singletonList(BUILD_INFO), "next-token"));
+
+    mvc.perform(
+            MockMvcRequestBuilders.get("/builders/number={number}", ONE_ENTRIES)
+                .param("pageToken", "token")
+                .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.revisions[0].commitHash").value(COMMIT_HASH))
+        .andExpect(jsonPath("$.nextPageToken").value("next-token"));
+  }
+
+  /** Should answer "Bad request" to an invalid page token. */
+  @Test
+  public void badRequestWhenPageTokenIsInvalid() throws Exception {
+    given(datastoreRepository.getRevisionEntriesPage(ONE_ENTRIES, "invalid"))
+        .willThrow(new IllegalArgumentException());
+
+    mvc.perform(
+            MockMvcRequestBuilders.get("/builders/number={number}", ONE_ENTRIES)
+                .param("pageToken", "invalid")
+                .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isBadRequest());
+  }
 }
@@ -0,0 +1,148 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.AdaptivePollScheduler;
+import com.google.graphgeckos.dashboard.fetchers.github.GitHubClient;
+import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(
+    controllers = GitHubWebhookController.class,
+    properties = {
+      "dashboard.github.webhook.secret=" + GitHubWebhookControllerTest.SECRET,
+      "dashboard.github.webhook.ref=refs/heads/master"
+    })
+@AutoConfigureMockMvc
+public class GitHubWebhookControllerTest {
+  static final String SECRET = "webhook-secret";
+
+  private final String COMMIT_HASH = "3f38d7e78298f74e29622437f6713a3165cfd8dc";
+
+  @MockBean private DatastoreRepository datastoreRepository;
+
+  // Keep the scheduled fetchers away from the storage mock while it is stubbed.
+  @MockBean private AdaptivePollScheduler pollScheduler;
+
+  @MockBean private GitHubClient gitHubClient;
+
+  @Autowired private MockMvc mvc;
+
+  @Captor private ArgumentCaptor<Collection<GitHubData>> revisions;
+
+  private byte[] payload;
+
+  @Before
+  public void init() throws Exception {
+    payload =
+        Resources.toByteArray(Resources.getResource("jsons/github/input_real_json.txt"));
+  }
+
+  private String sign(byte[] body) {
+    return "sha256=" + Hashing.hmacSha256(SECRET.getBytes(StandardCharsets.UTF_8)).hashBytes(body);
+  }
+
+  private ResultActions deliver(String event, String signature, byte[] body) throws Exception {
+    MockHttpServletRequestBuilder request =
+        MockMvcRequestBuilders.post("/github/webhook")
+            .header("X-GitHub-Event", event)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(body);
+    if (signature != null) {
+      request.header("X-Hub-Signature-256", signature);
+    }
+    return mvc.perform(request);
+  }
+
+  @Test
+  public void signedPushCreatesRevisionOfEachCommit() throws Exception {
+    given(datastoreRepository.createRevisionEntries(any())).willReturn(true);
+
+    deliver("push", sign(payload), payload).andExpect(status().isAccepted());
+
+    verify(datastoreRepository).createRevisionEntries(revisions.capture());
+    assertEquals(1, revisions.getValue().size());
+    GitHubData revision = revisions.getValue().iterator().next();
+    assertEquals(COMMIT_HASH, revision.getCommitHash());
+    assertEquals("2020-08-26T17:01:01+03:00", revision.getTimestamp());
+    assertEquals(
+        "https://github.com/holounic/university/commit/" + COMMIT_HASH,
+        revision.getRepositoryLink());
+  }
+
+  @Test
+  public void failedStorageFailsDelivery() throws Exception {
+    given(datastoreRepository.createRevisionEntries(any())).willReturn(false);
+
+    deliver("push", sign(payload), payload).andExpect(status().isInternalServerError());
+  }
+
+  @Test
+  public void invalidSignatureIsRefused() throws Exception {
+    deliver("push", sign("forged".getBytes(StandardCharsets.UTF_8)), payload)
+        .andExpect(status().isUnauthorized());
+    deliver("push", null, payload).andExpect(status().isUnauthorized());
+
+    verify(datastoreRepository, never()).createRevisionEntries(any());
+  }
+
+  @Test
+  public void pingIsAcknowledged() throws Exception {
+    byte[] ping = "{\"zen\":\"Keep it logically awesome.\"}".getBytes(StandardCharsets.UTF_8);
+
+    deliver("ping", sign(ping), ping).andExpect(status().isNoContent());
+
+    verify(datastoreRepository, never()).createRevisionEntries(any());
+  }
+
+  @Test
+  public void pushToOtherRefIsIgnored() throws Exception {
+    byte[] push =
+        new String(payload, StandardCharsets.UTF_8)
+            .replace("refs/heads/master", "refs/heads/feature")
+            .getBytes(StandardCharsets.UTF_8);
+
+    deliver("push", sign(push), push).andExpect(status().isNoContent());
+
+    verify(datastoreRepository, never()).createRevisionEntries(any());
+  }
+}
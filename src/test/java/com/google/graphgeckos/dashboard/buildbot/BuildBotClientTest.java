@@ -16,20 +16,39 @@ package com.google.graphgeckos.dashboard.buildbot;
 
 import com.google.cloud.Timestamp;
 import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
 import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
 import com.google.graphgeckos.dashboard.datatypes.Log;
+import com.google.graphgeckos.dashboard.fetchers.DeadlineMetrics;
+import com.google.graphgeckos.dashboard.fetchers.DeadlineMetrics.Deadline;
+import com.google.graphgeckos.dashboard.fetchers.FetcherWebClient;
+import com.google.graphgeckos.dashboard.fetchers.HostConcurrencyLimiter;
+import com.google.graphgeckos.dashboard.fetchers.HttpFetcher;
 import com.google.graphgeckos.dashboard.fetchers.buildbot.BuildBotClient;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.BuildBotIngestionPipeline;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.BuildBotIngestionPipeline.IngestionResult;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.ChangeCache;
+import com.google.graphgeckos.dashboard.fetchers.buildbot.ChangeResolution;
+import com.google.graphgeckos.dashboard.storage.BuildbotNotFoundException;
 import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
+import com.google.graphgeckos.dashboard.storage.RevisionUpdateBuffer;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -41,6 +60,7 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import reactor.core.publisher.Mono;
 
 @RunWith(MockitoJUnitRunner.class)
 public class BuildBotClientTest {
@@ -56,6 +76,9 @@ public class BuildBotClientTest {
   private final String VALID_BUILD_BOT_NAME_FUCHSIA = "fuchsia-x86_64-linux";
   private final String NOT_FOUND_BUILD_BOT_NAME = "server-will-respond-with-404";
   private final String EMPTY_JSON_BUILD_BOT_NAME = "server-will-respond-with-empty-json";
+  private final String REVISIONS_BUILD_BOT_NAME = "builds-report-their-revisions";
+  private final String INDEXED_BUILD_BOT_NAME = "builds-after-index";
+  private final String SLOW_BUILD_BOT_NAME = "server-will-respond-after-two-seconds";
 
   private final long INITIAL_BUILD_ID = 36624;
   private final long NEXT_BUILD_ID = INITIAL_BUILD_ID + 1;
@@ -95,6 +118,35 @@ public class BuildBotClientTest {
                 .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .setBody(getTestJson("latest-builds.json"));
 
+        /**
+         * Response when the latest builds are requested along with their revision, e.g., for:
+         * /builders/builds-report-their-revisions/builds?property=got_revision
+         */
+        private final MockResponse LATEST_BUILDS_WITH_REVISIONS_RESPONSE =
+            new MockResponse()
+                .setResponseCode(200)
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setBody(getTestJson("latest-builds-with-revisions.json"));
+
+        /**
+         * Response when the builds following a builder index are requested, e.g., for:
+         * /builders/builds-after-index/builds?order=number&number__gt=10. The last build is not
+         * finished yet.
+         */
+        private final MockResponse BUILDS_AFTER_INDEX_RESPONSE =
+            new MockResponse()
+                .setResponseCode(200)
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setBody(getTestJson("builds-after-index.json"));
+
+        /** Valid builds, which take two seconds to be sent. */
+        private final MockResponse SLOW_RESPONSE =
+            new MockResponse()
+                .setResponseCode(200)
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setBody(getTestJson("latest-builds.json"))
+                .setHeadersDelay(2, TimeUnit.SECONDS);
+
         /** Response when the build changes builds are requested., e.g., for: /builds/1/changes */
         private final MockResponse CHANGES_VALID_RESPONSE =
             new MockResponse()
@@ -140,9 +192,20 @@ public class BuildBotClientTest {
                 || path.contains(VALID_BUILD_BOT_NAME_FUCHSIA)) {
               return LATEST_BUILDS_VALID_RESPONSE;
             }
+            if (path.contains(REVISIONS_BUILD_BOT_NAME)) {
+              return LATEST_BUILDS_WITH_REVISIONS_RESPONSE;
+            }
+            if (path.contains(INDEXED_BUILD_BOT_NAME)) {
+              return BUILDS_AFTER_INDEX_RESPONSE;
+            }
+            if (path.contains(SLOW_BUILD_BOT_NAME)) {
+              return SLOW_RESPONSE;
+            }
             return PAGE_NOT_FOUND_RESPONSE;
           } else if (path.startsWith("/builds/") && path.contains("/changes")) {
             return CHANGES_VALID_RESPONSE;
+          } else if (path.startsWith("/changes")) {
+            return CHANGES_VALID_RESPONSE;
           }
 
           if (request.getPath().contains(VALID_BUILD_BOT_NAME_CLANG)) {
@@ -214,6 +277,7 @@ public class BuildBotClientTest {
   @Before
   public void init() throws IOException {
     MockitoAnnotations.initMocks(this);
+    Mockito.lenient().when(datastoreRepository.updateRevisionEntry(Mockito.any())).thenReturn(true);
 
     mockWebServer.start();
     mockWebServer.setDispatcher(dispatcher);
@@ -281,4 +345,266 @@ public class BuildBotClientTest {
     Mockito.verify(datastoreRepository, Mockito.timeout(delay).atLeast(2))
         .updateRevisionEntry(Mockito.any());
   }
+
+  /**
+   * Should resolve the changes of all the builds with a single bulk changes request when the builds
+   * report their revision, instead of one request per build.
+   */
+  @Test
+  public void batchedResolutionMakesConstantNumberOfRequests() throws Exception {
+    client.setChangeResolution(ChangeResolution.BATCHED);
+    client.run(REVISIONS_BUILD_BOT_NAME);
+
+    Mockito.verify(datastoreRepository, Mockito.times(2)).updateRevisionEntry(Mockito.any());
+    Assert.assertEquals(2, mockWebServer.getRequestCount());
+    Assert.assertTrue(mockWebServer.takeRequest().getPath().contains("property=got_revision"));
+    Assert.assertTrue(mockWebServer.takeRequest().getPath().startsWith("/changes?"));
+  }
+
+  /** Should request the latest changes once for all the builders fetched within their TTL. */
+  @Test
+  public void recentChangesAreSharedBetweenBuilders() throws Exception {
+    client.setChangeResolution(ChangeResolution.BATCHED);
+
+    client.run(REVISIONS_BUILD_BOT_NAME);
+    client.run(REVISIONS_BUILD_BOT_NAME);
+
+    // The builds of each run, and the changes once.
+    Assert.assertEquals(3, mockWebServer.getRequestCount());
+    Mockito.verify(datastoreRepository, Mockito.times(4)).updateRevisionEntry(Mockito.any());
+  }
+
+  /** Should request the latest changes again once their TTL is over. */
+  @Test
+  public void expiredRecentChangesAreRequestedAgain() throws Exception {
+    client.setChangeResolution(ChangeResolution.BATCHED);
+    client.setRecentChangesTtl(Duration.ZERO);
+
+    client.run(REVISIONS_BUILD_BOT_NAME);
+    client.run(REVISIONS_BUILD_BOT_NAME);
+
+    Assert.assertEquals(4, mockWebServer.getRequestCount());
+  }
+
+  /** Should write the builds through the update buffer, together, when given one. */
+  @Test
+  public void bufferedBuildsAreWrittenTogether() throws Exception {
+    Mockito.when(datastoreRepository.updateExistingRevisionEntries(Mockito.any()))
+        .thenReturn(Collections.emptySet());
+    RevisionUpdateBuffer buffer =
+        new RevisionUpdateBuffer(datastoreRepository, 100, Duration.ofMillis(50));
+    client.setUpdateBuffer(buffer);
+
+    client.run(REVISIONS_BUILD_BOT_NAME);
+    buffer.close();
+
+    Mockito.verify(datastoreRepository)
+        .updateExistingRevisionEntries(Mockito.argThat(updates -> updates.size() == 2));
+    Mockito.verify(datastoreRepository, Mockito.never()).updateRevisionEntry(Mockito.any());
+  }
+
+  /** Should request the change of every build when resolving changes one by one. */
+  @Test
+  public void perBuildResolutionMakesOneRequestPerBuild() throws Exception {
+    client.setChangeResolution(ChangeResolution.PER_BUILD);
+    client.run(REVISIONS_BUILD_BOT_NAME);
+
+    Mockito.verify(datastoreRepository, Mockito.times(2)).updateRevisionEntry(Mockito.any());
+    Assert.assertEquals(3, mockWebServer.getRequestCount());
+  }
+
+  /**
+   * Should only request the builds after the stored builder index, add the finished ones and move
+   * the index to the last finished build.
+   */
+  @Test
+  public void fetchesOnlyBuildsAfterBuilderIndex() throws Exception {
+    Mockito.when(datastoreRepository.getBuilderIndex(INDEXED_BUILD_BOT_NAME)).thenReturn(10);
+
+    client.run(INDEXED_BUILD_BOT_NAME);
+
+    Assert.assertTrue(mockWebServer.takeRequest().getPath().contains("number__gt=10"));
+    Mockito.verify(datastoreRepository, Mockito.times(2)).updateRevisionEntry(Mockito.any());
+    Mockito.verify(datastoreRepository)
+        .updateBuilderIndex(new BuilderIndex(INDEXED_BUILD_BOT_NAME, 12));
+  }
+
+  /** Should report the number of builds finished since the builder index. */
+  @Test
+  public void ingestReportsNumberOfNewBuilds() throws Exception {
+    Mockito.when(datastoreRepository.getBuilderIndex(INDEXED_BUILD_BOT_NAME)).thenReturn(10);
+
+    Assert.assertEquals(2, (int) client.ingest(INDEXED_BUILD_BOT_NAME).block());
+  }
+
+  /**
+   * Should report the number of builds written, not the distance between the old and new index,
+   * which also counts the build numbers missing from the builder.
+   */
+  @Test
+  public void ingestReportsNumberOfBuildsWritten() throws Exception {
+    Mockito.when(datastoreRepository.getBuilderIndex(INDEXED_BUILD_BOT_NAME)).thenReturn(5);
+
+    Assert.assertEquals(2, (int) client.ingest(INDEXED_BUILD_BOT_NAME).block());
+    Mockito.verify(datastoreRepository)
+        .updateBuilderIndex(new BuilderIndex(INDEXED_BUILD_BOT_NAME, 12));
+  }
+
+  /**
+   * Should only move the index past the builds written in a row, and fail so that the next run
+   * starts again from the first build that was not written.
+   */
+  @Test
+  public void indexStopsBeforeBuildNotWritten() throws Exception {
+    Mockito.when(datastoreRepository.getBuilderIndex(INDEXED_BUILD_BOT_NAME)).thenReturn(10);
+    Mockito.when(datastoreRepository.updateRevisionEntry(Mockito.argThat(isBuild(112))))
+        .thenReturn(false);
+
+    try {
+      client.ingest(INDEXED_BUILD_BOT_NAME).block();
+      Assert.fail("Expected the ingestion to fail");
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage().contains("build 12"));
+    }
+    Mockito.verify(datastoreRepository)
+        .updateBuilderIndex(new BuilderIndex(INDEXED_BUILD_BOT_NAME, 11));
+  }
+
+  /** Should not move the index at all when the first build is not written. */
+  @Test
+  public void indexDoesNotMoveWhenFirstBuildIsNotWritten() throws Exception {
+    Mockito.when(datastoreRepository.getBuilderIndex(INDEXED_BUILD_BOT_NAME)).thenReturn(10);
+    Mockito.when(datastoreRepository.updateRevisionEntry(Mockito.argThat(isBuild(111))))
+        .thenReturn(false);
+
+    client.run(INDEXED_BUILD_BOT_NAME);
+
+    Mockito.verify(datastoreRepository, Mockito.times(2)).updateRevisionEntry(Mockito.any());
+    Mockito.verify(datastoreRepository, Mockito.never()).updateBuilderIndex(Mockito.any());
+  }
+
+  /** Matches the update of the build identified by {@code buildId}. */
+  private static ArgumentMatcher<BuildBotData> isBuild(int buildId) {
+    return data -> data != null && data.getBuildId() == buildId;
+  }
+
+  /** Should start from the latest builds when the builder has no index yet. */
+  @Test
+  public void missingBuilderIndexStartsFromLatestBuilds() throws Exception {
+    Mockito.when(datastoreRepository.getBuilderIndex(INDEXED_BUILD_BOT_NAME))
+        .thenThrow(new BuildbotNotFoundException(INDEXED_BUILD_BOT_NAME));
+
+    client.run(INDEXED_BUILD_BOT_NAME);
+
+    Assert.assertTrue(mockWebServer.takeRequest().getPath().contains("order=-number"));
+    Mockito.verify(datastoreRepository)
+        .updateBuilderIndex(new BuilderIndex(INDEXED_BUILD_BOT_NAME, 12));
+  }
+
+  /** Should not request the change of a build again once it is in the change cache. */
+  @Test
+  public void cachedChangesAreNotRequestedAgain() throws Exception {
+    ChangeCache cache = new ChangeCache(100, Duration.ofHours(1));
+    client.setChangeCache(cache);
+    client.setChangeResolution(ChangeResolution.PER_BUILD);
+
+    client.run(REVISIONS_BUILD_BOT_NAME);
+    client.run(REVISIONS_BUILD_BOT_NAME);
+
+    // Builds and two changes on the first run, only the builds on the second one.
+    Assert.assertEquals(4, mockWebServer.getRequestCount());
+    Assert.assertEquals(2, cache.getHitCount());
+    Mockito.verify(datastoreRepository, Mockito.times(4)).updateRevisionEntry(Mockito.any());
+  }
+
+  /**
+   * Should fetch all the builders through the pipeline, counting the ones which failed without
+   * stopping the others.
+   */
+  @Test
+  public void pipelineFetchesAllBuildersAndCountsFailures() throws Exception {
+    BuildBotIngestionPipeline pipeline =
+        new BuildBotIngestionPipeline(client, 2, Duration.ofSeconds(10));
+
+    Map<String, Integer> newBuilds =
+        pipeline
+            .ingestAll(
+                Arrays.asList(
+                    VALID_BUILD_BOT_NAME_CLANG, NOT_FOUND_BUILD_BOT_NAME, REVISIONS_BUILD_BOT_NAME))
+            .block();
+
+    Assert.assertEquals(2, newBuilds.size());
+    Assert.assertFalse(newBuilds.containsKey(NOT_FOUND_BUILD_BOT_NAME));
+    Mockito.verify(datastoreRepository, Mockito.times(4)).updateRevisionEntry(Mockito.any());
+  }
+
+  /** Should fetch each builder within the limit of the build bot host. */
+  @Test
+  public void pipelineCapsBuildersPerHost() throws Exception {
+    List<String> limitedHosts = Collections.synchronizedList(new ArrayList<>());
+    HostConcurrencyLimiter limiter =
+        new HostConcurrencyLimiter(1) {
+          @Override
+          public <T> Mono<T> limit(String host, Mono<T> task) {
+            limitedHosts.add(host);
+            return super.limit(host, task);
+          }
+        };
+    BuildBotIngestionPipeline pipeline =
+        new BuildBotIngestionPipeline(client, 2, Duration.ofSeconds(10));
+    pipeline.setHostLimiter(limiter);
+
+    Map<String, Integer> newBuilds =
+        pipeline
+            .ingestAll(Arrays.asList(VALID_BUILD_BOT_NAME_CLANG, REVISIONS_BUILD_BOT_NAME))
+            .block();
+
+    Assert.assertEquals(2, newBuilds.size());
+    Assert.assertEquals(
+        Arrays.asList(mockWebServer.getHostName(), mockWebServer.getHostName()), limitedHosts);
+  }
+
+  /** Returns a client of the mocked server whose requests time out after {@code timeout}. */
+  private BuildBotClient getClientWithRequestTimeout(Duration timeout) {
+    HttpFetcher fetcher = new HttpFetcher(FetcherWebClient.getDefault());
+    fetcher.setRequestTimeout(timeout);
+    String baseUrl = "http://" + mockWebServer.getHostName() + ":" + mockWebServer.getPort();
+    return new BuildBotClient(baseUrl, datastoreRepository, fetcher);
+  }
+
+  /** Should give up on a builder whose requests take longer than the request timeout. */
+  @Test
+  public void slowRequestTimesOut() throws Exception {
+    BuildBotClient slowClient = getClientWithRequestTimeout(Duration.ofMillis(200));
+    BuildBotIngestionPipeline pipeline =
+        new BuildBotIngestionPipeline(slowClient, 2, Duration.ofSeconds(10));
+
+    Map<String, Integer> newBuilds = pipeline.ingestAll(Arrays.asList(SLOW_BUILD_BOT_NAME)).block();
+
+    Assert.assertTrue(newBuilds.isEmpty());
+    Mockito.verify(datastoreRepository, Mockito.never()).updateRevisionEntry(Mockito.any());
+  }
+
+  /**
+   * Should cancel the builders still in flight once the cycle budget is spent, and report them as
+   * unfinished rather than failed.
+   */
+  @Test
+  public void spentCycleBudgetLeavesBuildersUnfinished() throws Exception {
+    DeadlineMetrics metrics = new DeadlineMetrics();
+    BuildBotIngestionPipeline pipeline =
+        new BuildBotIngestionPipeline(client, 2, Duration.ofSeconds(10), metrics);
+
+    IngestionResult result =
+        pipeline
+            .ingestWithin(
+                Arrays.asList(NOT_FOUND_BUILD_BOT_NAME, SLOW_BUILD_BOT_NAME),
+                Duration.ofMillis(500))
+            .block();
+
+    Assert.assertEquals(Collections.singleton(NOT_FOUND_BUILD_BOT_NAME), result.getFailed());
+    Assert.assertEquals(Collections.singleton(SLOW_BUILD_BOT_NAME), result.getUnfinished());
+    Assert.assertTrue(result.getNewBuilds().isEmpty());
+    Assert.assertEquals(1, metrics.getCount(Deadline.CYCLE));
+  }
 }
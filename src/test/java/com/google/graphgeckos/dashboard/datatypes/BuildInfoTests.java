@@ -15,9 +15,13 @@
 package com.google.graphgeckos.dashboard.datatypes;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.google.cloud.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import org.junit.Test;
 
 public class BuildInfoTests {
@@ -25,8 +29,17 @@ public class BuildInfoTests {
     return new BuildInfo(new GitHubData("dummy", Timestamp.ofTimeMicroseconds(0)));
   }
 
+  private int builderCount;
+
+  /** Returns the result of a new builder. */
   private BuildBotData getDummyUpdate(BuilderStatus status) {
-    return new BuildBotData("dummy", "tester", new ArrayList<>(), status);
+    return getDummyUpdate("tester-" + builderCount++, null, status);
+  }
+
+  private BuildBotData getDummyUpdate(String name, Integer buildId, BuilderStatus status) {
+    BuildBotData update = new BuildBotData("dummy", name, new ArrayList<>(), status);
+    update.setBuildId(buildId);
+    return update;
   }
 
   @Test
@@ -99,4 +112,111 @@ public class BuildInfoTests {
 
     assertEquals(RevisionStatus.failed, dummy.getStatus());
   }
+
+  @Test
+  public void testSameBuildIsStoredOnce() {
+    BuildInfo dummy = getDummyEntity();
+
+    assertTrue(dummy.addBuilder(getDummyUpdate("tester", 1, BuilderStatus.PASSED)));
+    assertFalse(dummy.addBuilder(getDummyUpdate("tester", 1, BuilderStatus.PASSED)));
+
+    assertEquals(1, dummy.getBuilders().size());
+  }
+
+  @Test
+  public void testLatestBuildOfBuilderIsKept() {
+    BuildInfo dummy = getDummyEntity();
+
+    dummy.addBuilder(getDummyUpdate("tester", 1, BuilderStatus.FAILED));
+    assertTrue(dummy.addBuilder(getDummyUpdate("tester", 2, BuilderStatus.PASSED)));
+    assertFalse(dummy.addBuilder(getDummyUpdate("tester", 1, BuilderStatus.FAILED)));
+
+    assertEquals(1, dummy.getBuilders().size());
+    assertEquals(Integer.valueOf(2), dummy.getBuilders().get(0).getBuildId());
+    assertEquals(RevisionStatus.passed, dummy.getStatus());
+  }
+
+  @Test
+  public void testCompactionKeepsLatestBuildOfEachBuilder() {
+    BuildInfo dummy = getDummyEntity();
+    dummy.setBuilders(
+        Arrays.asList(
+            getDummyUpdate("tester", null, BuilderStatus.FAILED),
+            getDummyUpdate("tester", null, BuilderStatus.FAILED),
+            getDummyUpdate("other", 3, BuilderStatus.PASSED),
+            getDummyUpdate("tester", 7, BuilderStatus.PASSED),
+            getDummyUpdate("other", 2, BuilderStatus.FAILED)));
+
+    assertEquals(3, dummy.compactBuilders());
+
+    assertEquals(2, dummy.getBuilders().size());
+    assertEquals(Integer.valueOf(7), dummy.getBuilders().get(0).getBuildId());
+    assertEquals(Integer.valueOf(3), dummy.getBuilders().get(1).getBuildId());
+    assertEquals(RevisionStatus.passed, dummy.getStatus());
+    assertEquals(0, dummy.compactBuilders());
+  }
+
+  @Test
+  public void testCountersFollowChangedResult() {
+    BuildInfo dummy = getDummyEntity();
+
+    dummy.addBuilder(getDummyUpdate("tester", 1, BuilderStatus.FAILED));
+    dummy.addBuilder(getDummyUpdate(BuilderStatus.PASSED));
+    dummy.addBuilder(getDummyUpdate(BuilderStatus.LOST));
+    assertEquals(RevisionStatus.failed, dummy.getStatus());
+    assertEquals("1/3 failed", dummy.getStatusSummary());
+
+    dummy.addBuilder(getDummyUpdate("tester", 2, BuilderStatus.PASSED));
+
+    assertEquals(0, dummy.getFailedCount());
+    assertEquals(2, dummy.getPassedCount());
+    assertEquals(1, dummy.getLostCount());
+    assertEquals(RevisionStatus.passed, dummy.getStatus());
+    assertEquals("2/3 passed", dummy.getStatusSummary());
+  }
+
+  @Test
+  public void testCountersOfStoredBuildersAreComputed() {
+    BuildInfo dummy = getDummyEntity();
+    dummy.setBuilders(
+        Arrays.asList(
+            getDummyUpdate(BuilderStatus.FAILED),
+            getDummyUpdate(BuilderStatus.PASSED),
+            getDummyUpdate(BuilderStatus.PASSED)));
+
+    assertEquals(1, dummy.getFailedCount());
+    assertEquals(2, dummy.getPassedCount());
+    assertEquals("1/3 failed", dummy.getStatusSummary());
+  }
+
+  @Test
+  public void testBuilderRecordedOutsideOfList() {
+    BuildInfo dummy = getDummyEntity();
+    BuildBotData failed = getDummyUpdate("tester", 1, BuilderStatus.FAILED);
+    BuildBotData passed = getDummyUpdate("tester", 2, BuilderStatus.PASSED);
+
+    assertTrue(dummy.recordBuilder(null, failed));
+    assertFalse(dummy.recordBuilder(failed, failed));
+    assertTrue(dummy.recordBuilder(failed, passed));
+    assertFalse(dummy.recordBuilder(passed, failed));
+
+    assertTrue(dummy.getBuilders().isEmpty());
+    assertEquals(0, dummy.getFailedCount());
+    assertEquals("1/1 passed", dummy.getStatusSummary());
+    assertEquals(Collections.singletonList("tester"), dummy.getBuilderNames());
+  }
+
+  @Test
+  public void testSummaryKeepsCounters() {
+    BuildInfo dummy = getDummyEntity();
+    dummy.addBuilder(getDummyUpdate(BuilderStatus.FAILED));
+    dummy.addBuilder(getDummyUpdate(BuilderStatus.PASSED));
+
+    BuildInfo summary = dummy.toSummary();
+
+    assertTrue(summary.getBuilders().isEmpty());
+    assertEquals(2, dummy.getBuilders().size());
+    assertEquals(RevisionStatus.failed, summary.getStatus());
+    assertEquals("1/2 failed", summary.getStatusSummary());
+  }
 }
@@ -0,0 +1,150 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+
+public class FetcherWebClientTest {
+  private final int MAX_IN_MEMORY_SIZE = 1024;
+
+  /** Type of the TLS record carrying the handshake messages. */
+  private final byte TLS_HANDSHAKE_RECORD = 0x16;
+
+  /** Type of the first handshake message sent by a TLS client. */
+  private final byte TLS_CLIENT_HELLO = 0x01;
+
+  private MockWebServer mockWebServer = new MockWebServer();
+
+  private WebClient client =
+      FetcherWebClient.create(4, Duration.ofSeconds(30), MAX_IN_MEMORY_SIZE);
+
+  @Before
+  public void init() throws IOException {
+    mockWebServer.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mockWebServer.shutdown();
+  }
+
+  /** Returns the body of the response to a GET of {@code path} on the mocked server. */
+  private String get(String path) {
+    return client
+        .get()
+        .uri(mockWebServer.url(path).toString())
+        .retrieve()
+        .bodyToMono(String.class)
+        .block(Duration.ofSeconds(10));
+  }
+
+  @Test
+  public void plainHttpUsesHttp11() throws Exception {
+    mockWebServer.enqueue(new MockResponse().setBody("[]"));
+
+    assertEquals("[]", get("/builders"));
+
+    RecordedRequest request = mockWebServer.takeRequest(1, TimeUnit.SECONDS);
+    assertTrue(request.getRequestLine().endsWith("HTTP/1.1"));
+    // No cleartext upgrade to HTTP/2 is attempted.
+    assertNull(request.getHeader("Upgrade"));
+  }
+
+  @Test
+  public void httpsUsesTls() throws Exception {
+    try (ServerSocket server = new ServerSocket(0)) {
+      Disposable request =
+          client
+              .get()
+              .uri("https://localhost:" + server.getLocalPort() + "/builders")
+              .retrieve()
+              .bodyToMono(String.class)
+              .subscribe(body -> {}, e -> {});
+      try (Socket socket = server.accept()) {
+        socket.setSoTimeout(10_000);
+        byte[] header = new byte[6];
+        new DataInputStream(socket.getInputStream()).readFully(header);
+
+        assertEquals(TLS_HANDSHAKE_RECORD, header[0]);
+        assertEquals(TLS_CLIENT_HELLO, header[5]);
+      } finally {
+        request.dispose();
+      }
+    }
+  }
+
+  @Test
+  public void buffersBodiesUpToMaxInMemorySize() {
+    char[] body = new char[MAX_IN_MEMORY_SIZE];
+    Arrays.fill(body, 'a');
+    mockWebServer.enqueue(new MockResponse().setBody(new String(body)));
+
+    assertEquals(MAX_IN_MEMORY_SIZE, get("/builders").length());
+  }
+
+  @Test
+  public void refusesBodiesOverMaxInMemorySize() {
+    char[] body = new char[MAX_IN_MEMORY_SIZE + 1];
+    Arrays.fill(body, 'a');
+    mockWebServer.enqueue(new MockResponse().setBody(new String(body)));
+
+    assertThrows(DataBufferLimitException.class, () -> get("/builders"));
+  }
+
+  @Test
+  public void defaultClientIsShared() {
+    assertSame(FetcherWebClient.getDefault(), FetcherWebClient.getDefault());
+  }
+
+  @Test
+  public void rejectsInvalidSettings() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> FetcherWebClient.create(0, Duration.ofSeconds(30), MAX_IN_MEMORY_SIZE));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> FetcherWebClient.create(4, Duration.ofSeconds(30), 0));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            FetcherWebClient.create(
+                4,
+                Duration.ofSeconds(30),
+                MAX_IN_MEMORY_SIZE,
+                Duration.ZERO,
+                Duration.ofSeconds(1)));
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+public class HostConcurrencyLimiterTest {
+  private final String HOST = "lab.llvm.org";
+  private final String OTHER_HOST = "api.github.com";
+
+  private final HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(2);
+
+  /** Returns a task which records when it is started, and completes with {@code result}. */
+  private Mono<String> task(AtomicBoolean started, MonoProcessor<String> result) {
+    return Mono.defer(
+        () -> {
+          started.set(true);
+          return result;
+        });
+  }
+
+  @Test
+  public void queuesTasksOverTheLimitOfTheHost() {
+    MonoProcessor<String> first = MonoProcessor.create();
+    AtomicBoolean thirdStarted = new AtomicBoolean();
+    limiter.limit(HOST, first).subscribe();
+    limiter.limit(HOST, MonoProcessor.<String>create()).subscribe();
+    MonoProcessor<String> third = MonoProcessor.create();
+    Mono<String> queued = limiter.limit(HOST, task(thirdStarted, third)).cache();
+    queued.subscribe();
+
+    assertEquals(2, limiter.getRunning(HOST));
+    assertFalse(thirdStarted.get());
+
+    first.onNext("first");
+    assertTrue(thirdStarted.get());
+    assertEquals(2, limiter.getRunning(HOST));
+
+    third.onNext("third");
+    assertEquals("third", queued.block());
+    assertEquals(1, limiter.getRunning(HOST));
+  }
+
+  @Test
+  public void hostsHaveTheirOwnLimit() {
+    AtomicBoolean started = new AtomicBoolean();
+    limiter.limit(HOST, MonoProcessor.<String>create()).subscribe();
+    limiter.limit(HOST, MonoProcessor.<String>create()).subscribe();
+
+    limiter.limit(OTHER_HOST, task(started, MonoProcessor.create())).subscribe();
+
+    assertTrue(started.get());
+    assertEquals(1, limiter.getRunning(OTHER_HOST));
+  }
+
+  @Test
+  public void failedTaskGivesBackItsSlot() {
+    MonoProcessor<String> failing = MonoProcessor.create();
+    AtomicBoolean started = new AtomicBoolean();
+    limiter.limit(HOST, failing).subscribe(value -> {}, e -> {});
+    limiter.limit(HOST, MonoProcessor.<String>create()).subscribe();
+    limiter.limit(HOST, task(started, MonoProcessor.create())).subscribe();
+
+    failing.onError(new IllegalStateException("failed"));
+
+    assertTrue(started.get());
+    assertEquals(2, limiter.getRunning(HOST));
+  }
+
+  @Test
+  public void cancelledTasksGiveBackTheirSlot() {
+    Disposable running = limiter.limit(HOST, MonoProcessor.<String>create()).subscribe();
+    limiter.limit(HOST, MonoProcessor.<String>create()).subscribe();
+    AtomicBoolean cancelledStarted = new AtomicBoolean();
+    Disposable queued =
+        limiter.limit(HOST, task(cancelledStarted, MonoProcessor.create())).subscribe();
+    AtomicBoolean started = new AtomicBoolean();
+    limiter.limit(HOST, task(started, MonoProcessor.create())).subscribe();
+
+    queued.dispose();
+    running.dispose();
+
+    assertFalse(cancelledStarted.get());
+    assertTrue(started.get());
+    assertEquals(2, limiter.getRunning(HOST));
+  }
+
+  @Test
+  public void completedHostsAreForgotten() {
+    MonoProcessor<String> result = MonoProcessor.create();
+    limiter.limit(HOST, result).subscribe();
+
+    result.onNext("done");
+
+    assertEquals(0, limiter.getRunning(HOST));
+  }
+
+  @Test
+  public void rejectsNonPositiveLimit() {
+    assertThrows(IllegalArgumentException.class, () -> new HostConcurrencyLimiter(0));
+  }
+}
@@ -0,0 +1,188 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.graphgeckos.dashboard.fetchers.HttpFetcher.ModifiedResponse;
+import com.google.graphgeckos.dashboard.fetchers.DeadlineMetrics.Deadline;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+public class HttpFetcherTest {
+  private final String ENTITY_TAG = "\"v1\"";
+  private final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+  private MockWebServer mockWebServer = new MockWebServer();
+
+  private ConditionalRequestCache cache = new ConditionalRequestCache(10);
+
+  private HttpFetcher fetcher = new HttpFetcher(FetcherWebClient.getDefault(), cache);
+
+  private String baseUrl;
+
+  /** Answers "304 Not Modified" to the requests carrying the current validators. */
+  private Dispatcher dispatcher =
+      new Dispatcher() {
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+          if (request.getPath().startsWith("/slow-headers")) {
+            return new MockResponse()
+                .setResponseCode(200)
+                .setBody("[]")
+                .setHeadersDelay(2, TimeUnit.SECONDS);
+          }
+          if (request.getPath().startsWith("/rate-limited")) {
+            return new MockResponse().setResponseCode(429).setHeader(HttpHeaders.RETRY_AFTER, "60");
+          }
+          if (request.getPath().startsWith("/missing")) {
+            return new MockResponse().setResponseCode(404);
+          }
+          if (ENTITY_TAG.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))
+              || LAST_MODIFIED.equals(request.getHeader(HttpHeaders.IF_MODIFIED_SINCE))) {
+            return new MockResponse().setResponseCode(304);
+          }
+          MockResponse response = new MockResponse().setResponseCode(200).setBody("[]");
+          if (request.getPath().startsWith("/etag")) {
+            response.setHeader(HttpHeaders.ETAG, ENTITY_TAG);
+          } else if (request.getPath().startsWith("/last-modified")) {
+            response.setHeader(HttpHeaders.LAST_MODIFIED, LAST_MODIFIED);
+          }
+          return response;
+        }
+      };
+
+  @Before
+  public void init() throws IOException {
+    mockWebServer.start();
+    mockWebServer.setDispatcher(dispatcher);
+    baseUrl = "http://" + mockWebServer.getHostName() + ":" + mockWebServer.getPort();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mockWebServer.shutdown();
+  }
+
+  /** Requests {@code path}, releasing the body, and optionally marks the response as processed. */
+  private ModifiedResponse request(String path, boolean markProcessed) {
+    ModifiedResponse response =
+        fetcher.getIfModified(baseUrl + path, MediaType.APPLICATION_JSON).block();
+    if (response != null) {
+      DataBufferUtils.release(response.getBody());
+      if (markProcessed) {
+        response.markProcessed();
+      }
+    }
+    return response;
+  }
+
+  @Test
+  public void testEntityTagIsSentOnceProcessed() throws Exception {
+    assertNotNull(request("/etag", false));
+    assertNotNull(request("/etag", true));
+    assertNull(request("/etag", true));
+
+    mockWebServer.takeRequest();
+    assertNull(mockWebServer.takeRequest().getHeader(HttpHeaders.IF_NONE_MATCH));
+    assertEquals(ENTITY_TAG, mockWebServer.takeRequest().getHeader(HttpHeaders.IF_NONE_MATCH));
+    assertEquals(1, fetcher.getNotModifiedCount());
+  }
+
+  @Test
+  public void testLastModifiedIsSentOnceProcessed() throws Exception {
+    assertNotNull(request("/last-modified", true));
+    assertNull(request("/last-modified", true));
+
+    mockWebServer.takeRequest();
+    assertEquals(
+        LAST_MODIFIED, mockWebServer.takeRequest().getHeader(HttpHeaders.IF_MODIFIED_SINCE));
+  }
+
+  @Test
+  public void testInvalidatedUrlIsRequestedAgain() {
+    assertNotNull(request("/etag", true));
+    cache.invalidate(baseUrl + "/etag");
+
+    assertNotNull(request("/etag", true));
+  }
+
+  @Test
+  public void testErrorStatusFails() {
+    assertThrows(WebClientResponseException.NotFound.class, () -> request("/missing", true));
+  }
+
+  @Test
+  public void testOversizedBodyFails() {
+    fetcher.setMaxBodySize(1);
+
+    assertThrows(DataBufferLimitException.class, () -> request("/etag", true));
+    assertThrows(
+        DataBufferLimitException.class,
+        () -> fetcher.get(baseUrl + "/etag", MediaType.APPLICATION_JSON).block());
+  }
+
+  @Test
+  public void testRateLimitedHostIsPaused() {
+    RequestBudgeter budgeter = new RequestBudgeter(10, 20);
+    fetcher = new HttpFetcher(FetcherWebClient.getDefault(), cache, budgeter);
+
+    assertThrows(
+        WebClientResponseException.TooManyRequests.class, () -> request("/rate-limited", true));
+
+    assertEquals(0, budgeter.getRemainingBudget(mockWebServer.getHostName()), 0);
+  }
+
+  @Test
+  public void testSlowResponseHitsRequestTimeout() {
+    fetcher.setRequestTimeout(Duration.ofMillis(200));
+
+    RuntimeException e = assertThrows(RuntimeException.class, () -> request("/slow-headers", true));
+
+    assertTrue(e.getCause() instanceof TimeoutException);
+    assertEquals(1, fetcher.getDeadlineMetrics().getCount(Deadline.REQUEST));
+  }
+
+  @Test
+  public void testSlowResponseHitsReadTimeout() {
+    fetcher =
+        new HttpFetcher(
+            FetcherWebClient.create(
+                1, Duration.ofSeconds(30), 1024, Duration.ofSeconds(1), Duration.ofMillis(200)));
+
+    assertThrows(RuntimeException.class, () -> request("/slow-headers", true));
+
+    assertEquals(1, fetcher.getDeadlineMetrics().getCount(Deadline.READ));
+    assertEquals(0, fetcher.getDeadlineMetrics().getCount(Deadline.REQUEST));
+  }
+}
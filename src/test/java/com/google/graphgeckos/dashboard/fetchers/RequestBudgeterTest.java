@@ -0,0 +1,142 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+public class RequestBudgeterTest {
+  private final String HOST = "api.github.com";
+  private final String OTHER_HOST = "lab.llvm.org";
+  private final Instant START = Instant.ofEpochSecond(1600000000);
+  private final double DELTA = 1e-6;
+
+  /** A clock which only moves when told to. */
+  private static class ManualClock extends Clock {
+    private Instant now;
+
+    ManualClock(Instant now) {
+      this.now = now;
+    }
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private ManualClock clock = new ManualClock(START);
+
+  private HttpHeaders getRateLimitHeaders(long remaining, Instant reset) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set("X-RateLimit-Remaining", String.valueOf(remaining));
+    headers.set("X-RateLimit-Reset", String.valueOf(reset.getEpochSecond()));
+    return headers;
+  }
+
+  @Test
+  public void testBurstThenRefillRate() {
+    RequestBudgeter budgeter = new RequestBudgeter(1, 2, clock);
+
+    assertEquals(Duration.ZERO, budgeter.acquire(HOST));
+    assertEquals(Duration.ZERO, budgeter.acquire(HOST));
+    assertEquals(Duration.ofSeconds(1), budgeter.acquire(HOST));
+    assertEquals(Duration.ofSeconds(2), budgeter.acquire(HOST));
+    // Each host has its own bucket.
+    assertEquals(Duration.ZERO, budgeter.acquire(OTHER_HOST));
+
+    clock.advance(Duration.ofSeconds(10));
+    assertEquals(2, budgeter.getRemainingBudget(HOST), DELTA);
+  }
+
+  @Test
+  public void testRateLimitHeadersSpreadRemainingQuota() {
+    RequestBudgeter budgeter = new RequestBudgeter(10, 20, clock);
+    budgeter.acquire(HOST);
+
+    budgeter.update(HOST, HttpStatus.OK, getRateLimitHeaders(5, START.plusSeconds(100)));
+
+    assertEquals(5, budgeter.getRemainingBudget(HOST), DELTA);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Duration.ZERO, budgeter.acquire(HOST));
+    }
+    // 5 requests left for 100 seconds.
+    assertEquals(Duration.ofSeconds(20), budgeter.acquire(HOST));
+  }
+
+  @Test
+  public void testExhaustedQuotaPausesUntilReset() {
+    RequestBudgeter budgeter = new RequestBudgeter(10, 20, clock);
+    Instant reset = START.plusSeconds(600);
+
+    budgeter.update(HOST, HttpStatus.FORBIDDEN, getRateLimitHeaders(0, reset));
+
+    assertEquals(0, budgeter.getRemainingBudget(HOST), DELTA);
+    assertEquals(Duration.ofSeconds(600), budgeter.acquire(HOST));
+    clock.advance(Duration.ofSeconds(600));
+    assertEquals(Duration.ZERO, budgeter.acquire(HOST));
+  }
+
+  @Test
+  public void testRetryAfterPausesHost() {
+    RequestBudgeter budgeter = new RequestBudgeter(10, 20, clock);
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.RETRY_AFTER, "30");
+
+    budgeter.update(HOST, HttpStatus.SERVICE_UNAVAILABLE, headers);
+
+    assertEquals(Duration.ofSeconds(30), budgeter.acquire(HOST));
+    assertEquals(Duration.ZERO, budgeter.acquire(OTHER_HOST));
+  }
+
+  @Test
+  public void testTooManyRequestsWithoutHeadersPausesHost() {
+    RequestBudgeter budgeter = new RequestBudgeter(10, 20, clock);
+
+    budgeter.update(HOST, HttpStatus.TOO_MANY_REQUESTS, new HttpHeaders());
+
+    assertEquals(RequestBudgeter.DEFAULT_PAUSE, budgeter.acquire(HOST));
+    assertEquals(1, budgeter.getRemainingBudgets().size());
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new RequestBudgeter(0, 1));
+    assertThrows(IllegalArgumentException.class, () -> new RequestBudgeter(1, 0));
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class AdaptivePollSchedulerTest {
+  private final String FAST = "fast-builder";
+  private final String SLOW = "slow-builder";
+  private final String IDLE = "idle-builder";
+
+  private final Duration ONE_MINUTE = Duration.ofMinutes(1);
+  private final Duration ONE_HOUR = Duration.ofHours(1);
+  private final Instant START = Instant.ofEpochSecond(1600000000);
+
+  private AdaptivePollScheduler getScheduler(int maxPollsPerTick, String... builders) {
+    return new AdaptivePollScheduler(
+        Arrays.asList(builders), ONE_MINUTE, ONE_HOUR, maxPollsPerTick, START);
+  }
+
+  @Test
+  public void testAllBuildersDueAtStart() {
+    AdaptivePollScheduler scheduler = getScheduler(10, FAST, SLOW, IDLE);
+
+    assertEquals(3, scheduler.takeDue(START).size());
+    assertEquals(0, scheduler.getQueuedCount());
+  }
+
+  @Test
+  public void testBudgetLimitsPollsPerTick() {
+    AdaptivePollScheduler scheduler = getScheduler(2, FAST, SLOW, IDLE);
+
+    List<String> first = scheduler.takeDue(START);
+    assertEquals(2, first.size());
+    assertEquals(1, scheduler.takeDue(START).size());
+    assertEquals(0, scheduler.takeDue(START).size());
+  }
+
+  @Test
+  public void testIdleBuilderBacksOffUpToMaxInterval() {
+    AdaptivePollScheduler scheduler = getScheduler(1, IDLE);
+
+    Instant now = START;
+    for (int poll = 0; poll < 10; poll++) {
+      assertEquals(Collections.singletonList(IDLE), scheduler.takeDue(now));
+      scheduler.recordPoll(IDLE, 0, now);
+      now = now.plus(scheduler.getInterval(IDLE));
+    }
+
+    assertEquals(ONE_HOUR, scheduler.getInterval(IDLE));
+  }
+
+  /** Returns the number of builds finished by {@code elapsed} by a builder of {@code cadence}. */
+  private long getBuildCount(Duration elapsed, Duration cadence) {
+    return elapsed.toMillis() / cadence.toMillis();
+  }
+
+  @Test
+  public void testIntervalFollowsBuildCadence() {
+    // The fast builder finishes a build every 2 minutes, the slow one every 20 minutes.
+    Duration fastCadence = Duration.ofMinutes(2);
+    Duration slowCadence = Duration.ofMinutes(20);
+    AdaptivePollScheduler scheduler = getScheduler(2, FAST, SLOW);
+    Instant[] lastPolls = {START, START};
+
+    int[] polls = {0, 0};
+    for (int minute = 0; minute <= 8 * 60; minute++) {
+      Instant now = START.plus(Duration.ofMinutes(minute));
+      for (String builder : scheduler.takeDue(now)) {
+        int i = builder.equals(FAST) ? 0 : 1;
+        Duration cadence = builder.equals(FAST) ? fastCadence : slowCadence;
+        long builds =
+            getBuildCount(Duration.between(START, now), cadence)
+                - getBuildCount(Duration.between(START, lastPolls[i]), cadence);
+        scheduler.recordPoll(builder, (int) builds, now);
+        lastPolls[i] = now;
+        polls[i]++;
+      }
+    }
+
+    Duration fast = scheduler.getInterval(FAST);
+    Duration slow = scheduler.getInterval(SLOW);
+    assertTrue(fast.compareTo(Duration.ofMinutes(4)) <= 0);
+    assertTrue(slow.compareTo(Duration.ofMinutes(10)) >= 0);
+    assertTrue(slow.compareTo(Duration.ofMinutes(40)) <= 0);
+    // The slow builder is polled less often than on a fixed 10 minutes schedule.
+    assertTrue(polls[1] < 8 * 6);
+  }
+
+  @Test
+  public void testFailureBacksOff() {
+    AdaptivePollScheduler scheduler = getScheduler(1, FAST);
+    scheduler.takeDue(START);
+
+    scheduler.recordFailure(FAST, START);
+
+    assertEquals(ONE_MINUTE.multipliedBy(2), scheduler.getInterval(FAST));
+    assertTrue(scheduler.takeDue(START.plus(ONE_MINUTE)).isEmpty());
+    assertEquals(1, scheduler.takeDue(START.plus(ONE_MINUTE.multipliedBy(2))).size());
+  }
+
+  @Test
+  public void testDeferredBuilderIsDueLater() {
+    AdaptivePollScheduler scheduler = getScheduler(1, FAST);
+    scheduler.takeDue(START);
+
+    scheduler.deferUntil(FAST, START.plus(ONE_HOUR));
+
+    assertEquals(ONE_MINUTE, scheduler.getInterval(FAST));
+    assertTrue(scheduler.takeDue(START.plus(ONE_MINUTE)).isEmpty());
+    assertEquals(1, scheduler.takeDue(START.plus(ONE_HOUR)).size());
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new AdaptivePollScheduler(Arrays.asList(FAST), ONE_HOUR, ONE_MINUTE, 1, START));
+    assertThrows(IllegalArgumentException.class, () -> getScheduler(0, FAST));
+    assertThrows(
+        IllegalArgumentException.class, () -> getScheduler(1, FAST).recordPoll(SLOW, 1, START));
+    assertThrows(
+        IllegalArgumentException.class, () -> getScheduler(1, FAST).recordPoll(FAST, -1, START));
+  }
+}
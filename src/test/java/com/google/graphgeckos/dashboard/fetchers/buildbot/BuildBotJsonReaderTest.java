@@ -0,0 +1,195 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+public class BuildBotJsonReaderTest {
+  private final String BUILDS_WITH_REVISIONS =
+      "src/test/resources/jsons/buildbots/latest-builds-with-revisions.json";
+  private final String CHANGES = "src/test/resources/jsons/buildbots/builds-1-changes.json";
+
+  /** Number of times each deserialization path is run by the allocation comparison. */
+  private final int ALLOCATION_ITERATIONS = 200;
+
+  /** The previous deserialization target, kept to compare against. */
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  static class BuildsJson {
+    @JsonProperty("builds")
+    BuildJson[] builds;
+  }
+
+  private InputStream open(String path) throws IOException {
+    return Files.newInputStream(Paths.get(path));
+  }
+
+  private InputStream open(byte[] bytes) {
+    return new ByteArrayInputStream(bytes);
+  }
+
+  /**
+   * Returns a page of 20 builds shaped like the ones returned by a real builder: besides the used
+   * fields, each build carries timestamps, ids and a few dozen properties.
+   */
+  private byte[] getRealisticBuildsPage() {
+    StringBuilder json = new StringBuilder("{\"builds\": [");
+    for (int build = 0; build < 20; build++) {
+      if (build > 0) {
+        json.append(',');
+      }
+      json.append(
+          String.format(
+              "{\"buildid\": %d, \"number\": %d, \"builderid\": 7, \"buildrequestid\": %d,"
+                  + " \"complete\": true, \"complete_at\": 1601234567, \"masterid\": 3,"
+                  + " \"results\": 0, \"started_at\": 1601230000, \"workerid\": 42,"
+                  + " \"state_string\": \"build successful\", \"properties\": {",
+              1000 + build, 500 + build, 9000 + build));
+      for (int property = 0; property < 40; property++) {
+        json.append(
+            String.format(
+                "\"property_%d\": [\"some value of the property %d\", \"Worker\"], ",
+                property, property));
+      }
+      json.append(String.format("\"got_revision\": [\"%040d\", \"Git\"]}}", build));
+    }
+    return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Returns the bytes allocated by the current thread while running {@code task}. */
+  private long measureAllocatedBytes(ThrowingRunnable task) throws Exception {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    task.run();
+    return threads.getThreadAllocatedBytes(threadId) - before;
+  }
+
+  private interface ThrowingRunnable {
+    void run() throws Exception;
+  }
+
+  @Test
+  public void testReadsBuildsWithRevisions() throws IOException {
+    BuildJson[] builds = BuildBotJsonReader.readBuilds(open(BUILDS_WITH_REVISIONS));
+
+    assertEquals(2, builds.length);
+    assertEquals(1, builds[0].buildId);
+    assertEquals("state", builds[0].stateString);
+    assertEquals("revision1", builds[0].revision);
+    assertEquals("revision2", builds[1].revision);
+    assertTrue(builds[0].complete);
+  }
+
+  @Test
+  public void testReadsSameBuildsAsObjectMapper() throws IOException {
+    byte[] page = getRealisticBuildsPage();
+
+    BuildJson[] streamed = BuildBotJsonReader.readBuilds(open(page));
+    BuildJson[] mapped = new ObjectMapper().readValue(page, BuildsJson.class).builds;
+
+    assertEquals(mapped.length, streamed.length);
+    for (int i = 0; i < mapped.length; i++) {
+      assertEquals(mapped[i].buildId, streamed[i].buildId);
+      assertEquals(mapped[i].number, streamed[i].number);
+      assertEquals(mapped[i].complete, streamed[i].complete);
+      assertEquals(mapped[i].stateString, streamed[i].stateString);
+      assertEquals(mapped[i].revision, streamed[i].revision);
+    }
+  }
+
+  @Test
+  public void testReadsIncompleteBuild() throws IOException {
+    byte[] json = "{\"builds\": [{\"buildid\": 5, \"complete\": false}]}".getBytes();
+
+    assertFalse(BuildBotJsonReader.readBuilds(open(json))[0].complete);
+  }
+
+  @Test
+  public void testReadsChanges() throws IOException {
+    ChangeJson[] changes = BuildBotJsonReader.readChanges(open(CHANGES));
+
+    assertEquals(2, changes.length);
+    assertEquals("revision1", changes[0].revision);
+    assertEquals(123, changes[0].whenSecondsSinceEpoch);
+    assertEquals("revision2", changes[1].revision);
+    assertEquals(456, changes[1].whenSecondsSinceEpoch);
+  }
+
+  @Test
+  public void testEmptyAndMalformedInput() throws IOException {
+    assertNull(BuildBotJsonReader.readBuilds(open(new byte[0])));
+    assertNull(BuildBotJsonReader.readChanges(open("{}".getBytes())));
+    assertThrows(IOException.class, () -> BuildBotJsonReader.readBuilds(open("[]".getBytes())));
+    assertThrows(
+        IOException.class, () -> BuildBotJsonReader.readBuilds(open("{\"builds\": [".getBytes())));
+  }
+
+  /**
+   * Should allocate fewer bytes to deserialize a page of builds, i.e. one builder cycle, than the
+   * previous path (body read into a String, then bound by an ObjectMapper).
+   */
+  @Test
+  public void streamingAllocatesLessPerBuilderCycle() throws Exception {
+    byte[] page = getRealisticBuildsPage();
+    ObjectMapper objectMapper = new ObjectMapper();
+    ThrowingRunnable mapped =
+        () -> {
+          String body = new String(page, StandardCharsets.UTF_8);
+          objectMapper.readValue(body, BuildsJson.class);
+        };
+    ThrowingRunnable streamed = () -> BuildBotJsonReader.readBuilds(open(page));
+
+    // Warm up, so class loading and the mapper caches are not measured.
+    for (int i = 0; i < ALLOCATION_ITERATIONS; i++) {
+      mapped.run();
+      streamed.run();
+    }
+    long mappedBytes =
+        measureAllocatedBytes(
+                () -> {
+                  for (int i = 0; i < ALLOCATION_ITERATIONS; i++) {
+                    mapped.run();
+                  }
+                })
+            / ALLOCATION_ITERATIONS;
+    long streamedBytes =
+        measureAllocatedBytes(
+                () -> {
+                  for (int i = 0; i < ALLOCATION_ITERATIONS; i++) {
+                    streamed.run();
+                  }
+                })
+            / ALLOCATION_ITERATIONS;
+
+    assertTrue(streamedBytes < mappedBytes);
+  }
+}
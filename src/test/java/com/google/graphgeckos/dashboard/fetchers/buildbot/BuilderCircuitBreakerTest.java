@@ -0,0 +1,149 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.graphgeckos.dashboard.fetchers.buildbot.BuilderCircuitBreaker.State;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import org.junit.Test;
+
+public class BuilderCircuitBreakerTest {
+  private final String BUILDER = "renamed-builder";
+  private final Duration BASE_BACKOFF = Duration.ofMinutes(10);
+  private final Duration MAX_BACKOFF = Duration.ofMinutes(40);
+  private final Instant START = Instant.ofEpochSecond(1600000000);
+
+  private BuilderCircuitBreaker breaker =
+      new BuilderCircuitBreaker(3, BASE_BACKOFF, MAX_BACKOFF, new Random(42));
+
+  /** Asserts that the backoff ending at {@code retryAt} is {@code expected}, give or take jitter. */
+  private void assertBackoff(Duration expected, Instant now, Instant retryAt) {
+    long millis = Duration.between(now, retryAt).toMillis();
+    double jitter = BuilderCircuitBreaker.JITTER * expected.toMillis();
+    assertTrue(millis >= expected.toMillis() - jitter);
+    assertTrue(millis <= expected.toMillis() + jitter);
+  }
+
+  /** Opens the circuit of {@code BUILDER} at {@code now}, returning the end of its backoff. */
+  private Instant open(Instant now) {
+    for (int i = 0; i < 3; i++) {
+      assertTrue(breaker.allowRequest(BUILDER, now));
+      breaker.recordFailure(BUILDER, now);
+    }
+    return breaker.getCircuit(BUILDER).getRetryAt();
+  }
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    breaker.recordFailure(BUILDER, START);
+    breaker.recordFailure(BUILDER, START);
+    assertEquals(State.CLOSED, breaker.getCircuit(BUILDER).getState());
+    breaker.recordFailure(BUILDER, START);
+
+    assertEquals(State.OPEN, breaker.getCircuit(BUILDER).getState());
+    assertFalse(breaker.allowRequest(BUILDER, START));
+    assertBackoff(BASE_BACKOFF, START, breaker.getRetryTime(BUILDER, START));
+  }
+
+  @Test
+  public void testSuccessResetsFailures() {
+    breaker.recordFailure(BUILDER, START);
+    breaker.recordFailure(BUILDER, START);
+    breaker.recordSuccess(BUILDER);
+    breaker.recordFailure(BUILDER, START);
+
+    assertEquals(State.CLOSED, breaker.getCircuit(BUILDER).getState());
+    assertEquals(1, breaker.getCircuit(BUILDER).getConsecutiveFailures());
+  }
+
+  @Test
+  public void testHalfOpenTrialClosesCircuit() {
+    Instant retryAt = open(START);
+
+    assertTrue(breaker.allowRequest(BUILDER, retryAt));
+    assertEquals(State.HALF_OPEN, breaker.getCircuit(BUILDER).getState());
+    assertFalse(breaker.allowRequest(BUILDER, retryAt));
+    breaker.recordSuccess(BUILDER);
+
+    assertEquals(State.CLOSED, breaker.getCircuit(BUILDER).getState());
+    assertTrue(breaker.getCircuits().isEmpty());
+  }
+
+  @Test
+  public void testCancelledTrialAllowsNextTrial() {
+    Instant retryAt = open(START);
+    assertTrue(breaker.allowRequest(BUILDER, retryAt));
+    Instant cancelledAt = retryAt.plusSeconds(120);
+    breaker.recordCancelled(BUILDER, cancelledAt);
+
+    assertEquals(State.OPEN, breaker.getCircuit(BUILDER).getState());
+    assertEquals(cancelledAt, breaker.getRetryTime(BUILDER, cancelledAt));
+    assertTrue(breaker.allowRequest(BUILDER, cancelledAt.plusSeconds(30)));
+    assertEquals(State.HALF_OPEN, breaker.getCircuit(BUILDER).getState());
+    // The cancelled trial does not count as a failure, nor does it double the next backoff.
+    assertEquals(3, breaker.getCircuit(BUILDER).getConsecutiveFailures());
+    breaker.recordFailure(BUILDER, cancelledAt);
+    assertBackoff(
+        BASE_BACKOFF.multipliedBy(2), cancelledAt, breaker.getCircuit(BUILDER).getRetryAt());
+  }
+
+  @Test
+  public void testCancelledFetchOfClosedCircuitChangesNothing() {
+    breaker.recordFailure(BUILDER, START);
+    breaker.recordCancelled(BUILDER, START);
+
+    assertEquals(State.CLOSED, breaker.getCircuit(BUILDER).getState());
+    assertEquals(1, breaker.getCircuit(BUILDER).getConsecutiveFailures());
+    assertTrue(breaker.allowRequest(BUILDER, START));
+  }
+
+  @Test
+  public void testFailedTrialDoublesBackoffUpToMax() {
+    Instant now = open(START);
+    Duration[] expected = {BASE_BACKOFF.multipliedBy(2), MAX_BACKOFF, MAX_BACKOFF};
+    for (Duration backoff : expected) {
+      assertTrue(breaker.allowRequest(BUILDER, now));
+      breaker.recordFailure(BUILDER, now);
+
+      Instant retryAt = breaker.getCircuit(BUILDER).getRetryAt();
+      assertBackoff(backoff, now, retryAt);
+      now = retryAt;
+    }
+  }
+
+  @Test
+  public void testHealthyBuilderIsAlwaysAllowed() {
+    assertTrue(breaker.allowRequest(BUILDER, START));
+    assertEquals(START, breaker.getRetryTime(BUILDER, START));
+    assertNull(breaker.getCircuit(BUILDER).getRetryAt());
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new BuilderCircuitBreaker(0, BASE_BACKOFF, MAX_BACKOFF));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new BuilderCircuitBreaker(1, MAX_BACKOFF, BASE_BACKOFF));
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.buildbot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.Test;
+
+public class ChangeCacheTest {
+  private final Duration ONE_HOUR = Duration.ofHours(1);
+
+  private ChangeJson getDummyChange(String revision) {
+    ChangeJson change = new ChangeJson();
+    change.revision = revision;
+    change.whenSecondsSinceEpoch = 123;
+    return change;
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    ChangeCache cache = new ChangeCache(10, ONE_HOUR);
+
+    assertNull(cache.get(1));
+    cache.put(1, getDummyChange("revision1"));
+    assertEquals("revision1", cache.get(1).revision);
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void testSizeEviction() {
+    ChangeCache cache = new ChangeCache(2, ONE_HOUR);
+
+    cache.put(1, getDummyChange("revision1"));
+    cache.put(2, getDummyChange("revision2"));
+    cache.put(3, getDummyChange("revision3"));
+
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testAgeEviction() throws InterruptedException {
+    ChangeCache cache = new ChangeCache(10, Duration.ofMillis(10));
+
+    cache.put(1, getDummyChange("revision1"));
+    Thread.sleep(50);
+
+    assertNull(cache.get(1));
+  }
+
+  @Test
+  public void testSnapshotRestoredAfterRestart() throws IOException {
+    Path snapshot = Files.createTempDirectory("change-cache").resolve("changes.json");
+
+    ChangeCache cache = new ChangeCache(10, ONE_HOUR, snapshot);
+    cache.put(1, getDummyChange("revision1"));
+    cache.close();
+
+    ChangeCache restarted = new ChangeCache(10, ONE_HOUR, snapshot);
+    assertNotNull(restarted.get(1));
+    assertEquals("revision1", restarted.get(1).revision);
+    assertEquals(123, restarted.get(1).whenSecondsSinceEpoch);
+  }
+
+  @Test
+  public void testUnreadableSnapshotIsIgnored() throws IOException {
+    Path snapshot = Files.createTempFile("changes", ".json");
+    Files.write(snapshot, "not json".getBytes());
+
+    ChangeCache cache = new ChangeCache(10, ONE_HOUR, snapshot);
+
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.fetchers.github;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+public class GitHubJsonReaderTest {
+  private final String LLVM_BRANCH = "src/test/resources/jsons/github/input_llvm_branch_json.txt";
+
+  /** Number of times each deserialization path is run by the allocation comparison. */
+  private final int ALLOCATION_ITERATIONS = 100;
+
+  private GitHubData[] read(byte[] bytes) throws IOException {
+    return GitHubJsonReader.readCommits(new ByteArrayInputStream(bytes));
+  }
+
+  /** Returns a page of 100 commits, made of copies of the first commit of {@code LLVM_BRANCH}. */
+  private byte[] getFullCommitsPage() throws IOException {
+    String listing = new String(Files.readAllBytes(Paths.get(LLVM_BRANCH)), StandardCharsets.UTF_8);
+    String commit = new ObjectMapper().readTree(listing).get(0).toString();
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < 100; i++) {
+      json.append(i > 0 ? "," : "").append(commit);
+    }
+    return json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testReadsSameCommitsAsObjectMapper() throws IOException {
+    byte[] listing = Files.readAllBytes(Paths.get(LLVM_BRANCH));
+
+    GitHubData[] streamed = read(listing);
+    GitHubData[] mapped = new ObjectMapper().readValue(listing, GitHubData[].class);
+
+    assertEquals(mapped.length, streamed.length);
+    for (int i = 0; i < mapped.length; i++) {
+      assertEquals(mapped[i].getCommitHash(), streamed[i].getCommitHash());
+      assertEquals(mapped[i].getTimestamp(), streamed[i].getTimestamp());
+      assertEquals(mapped[i].getRepositoryLink(), streamed[i].getRepositoryLink());
+    }
+    assertEquals("29ec5901c9c515e34ed4299ac500f268dca1f62e", streamed[0].getCommitHash());
+    assertEquals("2020-09-24T18:20:57Z", streamed[0].getTimestamp());
+  }
+
+  @Test
+  public void testEmptyAndMalformedInput() throws IOException {
+    assertNull(read(new byte[0]));
+    assertEquals(0, read("[]".getBytes()).length);
+    assertThrows(IOException.class, () -> read("{}".getBytes()));
+  }
+
+  /**
+   * Should allocate fewer bytes to deserialize a full page of commits than the previous path (body
+   * read into a String, then bound by an ObjectMapper through maps).
+   */
+  @Test
+  public void streamingAllocatesLessPerPage() throws Exception {
+    byte[] page = getFullCommitsPage();
+    ObjectMapper objectMapper = new ObjectMapper();
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    // Warm up, so class loading and the mapper caches are not measured.
+    for (int i = 0; i < ALLOCATION_ITERATIONS; i++) {
+      objectMapper.readValue(new String(page, StandardCharsets.UTF_8), GitHubData[].class);
+      read(page);
+    }
+
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ALLOCATION_ITERATIONS; i++) {
+      objectMapper.readValue(new String(page, StandardCharsets.UTF_8), GitHubData[].class);
+    }
+    long mappedBytes = (threads.getThreadAllocatedBytes(threadId) - before) / ALLOCATION_ITERATIONS;
+
+    before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ALLOCATION_ITERATIONS; i++) {
+      read(page);
+    }
+    long streamedBytes =
+        (threads.getThreadAllocatedBytes(threadId) - before) / ALLOCATION_ITERATIONS;
+
+    assertTrue(streamedBytes < mappedBytes);
+  }
+}
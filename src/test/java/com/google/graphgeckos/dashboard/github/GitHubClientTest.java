@@ -14,18 +14,28 @@
 
 package com.google.graphgeckos.dashboard.github;
 
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
 import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.fetchers.ConditionalRequestCache;
+import com.google.graphgeckos.dashboard.fetchers.FetcherWebClient;
+import com.google.graphgeckos.dashboard.fetchers.HttpFetcher;
 import com.google.graphgeckos.dashboard.fetchers.github.GitHubClient;
 import com.google.graphgeckos.dashboard.storage.DatastoreRepository;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -52,6 +62,14 @@ public class GitHubClientTest {
   private final String NOT_FOUND_GITHUB_URL = "server-will-respond-with-404";
   private final String EMPTY_JSON_GITHUB_URL = "server-will-respond-with-empty-json";
   private final String EMPTY_JSON = "";
+  private final String ENTITY_TAG = "\"llvm-branch-v1\"";
+  private final String PAGED_GITHUB_URL = "paged-history";
+
+  /** Number of commits of the paged history. */
+  private final int HISTORY_SIZE = 250;
+
+  /** Timestamp of all the commits of the paged history. */
+  private final String HISTORY_TIMESTAMP = "2020-08-26T17:01:01Z";
 
   String baseUrl;
 
@@ -69,8 +87,12 @@ public class GitHubClientTest {
             new MockResponse()
                 .setResponseCode(200)
                 .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setHeader(HttpHeaders.ETAG, ENTITY_TAG)
                 .setBody(LLVM_BRANCH.getContent());
 
+        /** Status NOT MODIFIED (304), when the request carries the current ETag. */
+        private final MockResponse NOT_MODIFIED_RESPONSE = new MockResponse().setResponseCode(304);
+
         /** Status NOT FOUND (404). */
         private final MockResponse PAGE_NOT_FOUND_RESPONSE =
             new MockResponse()
@@ -87,8 +109,19 @@ public class GitHubClientTest {
         @Override
         public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
           if (request.getPath().contains(VALID_GITHUB_URL)) {
+            if (ENTITY_TAG.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+              return NOT_MODIFIED_RESPONSE;
+            }
             return LLVM_BRANCH_RESPONSE;
           }
+          if (request.getPath().contains(PAGED_GITHUB_URL)) {
+            int page = Integer.parseInt(request.getRequestUrl().queryParameter("page"));
+            int perPage = Integer.parseInt(request.getRequestUrl().queryParameter("per_page"));
+            return new MockResponse()
+                .setResponseCode(200)
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setBody(getHistoryPage(page, perPage));
+          }
           if (request.getPath().contains(NOT_FOUND_GITHUB_URL)) {
             return PAGE_NOT_FOUND_RESPONSE;
           }
@@ -100,8 +133,26 @@ public class GitHubClientTest {
         }
       };
 
+  /** Returns the hash of the {@code i}-th newest commit of the paged history. */
+  private String getHistoryHash(int i) {
+    return "commit" + (HISTORY_SIZE - i);
+  }
+
+  /** Returns a page of the paged history, as listed by the GitHub API. */
+  private String getHistoryPage(int page, int perPage) {
+    List<String> commits = new ArrayList<>();
+    for (int i = (page - 1) * perPage; i < Math.min(page * perPage, HISTORY_SIZE); i++) {
+      commits.add(
+          String.format(
+              "{\"sha\":\"%s\",\"html_url\":\"https://github.com/llvm/llvm-project/commit/%1$s\","
+                  + "\"commit\":{\"author\":{\"date\":\"%s\"}}}",
+              getHistoryHash(i), HISTORY_TIMESTAMP));
+    }
+    return "[" + String.join(",", commits) + "]";
+  }
+
   /**
-   * Compares objects, stubbed from the {@link DatastoreRepository::createRevisionEntry}, with the
+   * Compares objects, stubbed from the {@link DatastoreRepository::createRevisionEntries}, with the
    * corresponding expected values.
    */
   static class GitHubDataMatcher implements ArgumentMatcher<GitHubData> {
@@ -118,7 +169,7 @@ public class GitHubClientTest {
 
     /**
      * Checks if an instance of the {@link GitHubData} provided by the tested {@code client} as an
-     * argument when calling {@link DatastoreRepository::createRevisionEntry}.
+     * argument when calling {@link DatastoreRepository::createRevisionEntries}.
      *
      * @param data instance of the {@link GitHubData} to inspect
      * @return true if the {@code data} is valid {@see GitHubData::isValid}.
@@ -131,10 +182,21 @@ public class GitHubClientTest {
     }
   }
 
+  /** Returns the commits of the single bulk write of the storage. */
+  @SuppressWarnings("unchecked")
+  private List<GitHubData> getWrittenCommits() {
+    ArgumentCaptor<Collection<GitHubData>> commits = ArgumentCaptor.forClass(Collection.class);
+    Mockito.verify(datastoreRepository).createRevisionEntries(commits.capture());
+    return new ArrayList<>(commits.getValue());
+  }
+
   /** Enables Mockito. */
   @Before
   public void init() throws IOException {
     MockitoAnnotations.initMocks(this);
+    Mockito.lenient()
+        .when(datastoreRepository.createRevisionEntries(Mockito.any()))
+        .thenReturn(true);
     client = new GitHubClient("test-baseUrl", datastoreRepository);
 
     mockWebServer.start();
@@ -162,13 +224,15 @@ public class GitHubClientTest {
   @Test
   public void validResponseCausesUpdateCallToRepositoryWithValidArgument() {
     client.setUrl(baseUrl + VALID_GITHUB_URL);
-    client.run(DELAY_ONE_SECOND);
+    client.run();
 
-    // Wait to check if the datastoreRepository::createRevisionEntry was called
+    // Wait to check if the datastoreRepository::createRevisionEntries was called
     // because it takes time to get a response from server.
     long delay = secondsToMillis(DELAY_ONE_SECOND) * 3;
+    GitHubDataMatcher matcher = new GitHubDataMatcher(LLVM_BRANCH);
     Mockito.verify(datastoreRepository, Mockito.after(delay).atLeast(1))
-        .createRevisionEntry(Mockito.argThat(new GitHubDataMatcher(LLVM_BRANCH)));
+        .createRevisionEntries(
+            Mockito.argThat(commits -> commits.size() == 1 && commits.stream().allMatch(matcher::matches)));
   }
 
   /**
@@ -178,10 +242,10 @@ public class GitHubClientTest {
   @Test
   public void serverErrorDoesNotCauseToRepository() throws Exception {
     client.setUrl(baseUrl + NOT_FOUND_GITHUB_URL);
-    client.run(DELAY_ONE_SECOND);
+    client.run();
     long delay = secondsToMillis(DELAY_ONE_SECOND) * 3;
     Mockito.verify(datastoreRepository, Mockito.after(delay).never())
-        .createRevisionEntry(Mockito.any());
+        .createRevisionEntries(Mockito.any());
   }
 
   /**
@@ -191,9 +255,83 @@ public class GitHubClientTest {
   @Test
   public void emptyJsonResponseDoesNotCauseCallToRepository() throws Exception {
     client.setUrl(baseUrl + EMPTY_JSON_GITHUB_URL);
-    client.run(DELAY_ONE_SECOND);
+    client.run();
     long delay = secondsToMillis(DELAY_ONE_SECOND) * 3;
     Mockito.verify(datastoreRepository, Mockito.after(delay).never())
-        .createRevisionEntry(Mockito.any());
+        .createRevisionEntries(Mockito.any());
+  }
+
+  /**
+   * Shouldn't deserialize nor store the commits again when the server answers a conditional
+   * request with "304 Not Modified".
+   */
+  @Test
+  public void notModifiedResponseDoesNotCauseCallToRepository() throws Exception {
+    HttpFetcher fetcher =
+        new HttpFetcher(FetcherWebClient.getDefault(), new ConditionalRequestCache(10));
+    client = new GitHubClient(baseUrl + VALID_GITHUB_URL, datastoreRepository, fetcher);
+
+    // The second sync is the first one made from the cursor, the third one is conditional.
+    client.run();
+    client.run();
+    client.run();
+
+    Mockito.verify(datastoreRepository, Mockito.times(1)).createRevisionEntries(Mockito.any());
+    mockWebServer.takeRequest();
+    mockWebServer.takeRequest();
+    Assert.assertEquals(
+        ENTITY_TAG, mockWebServer.takeRequest().getHeader(HttpHeaders.IF_NONE_MATCH));
+    Assert.assertEquals(1, fetcher.getNotModifiedCount());
+  }
+
+  /**
+   * Should page back through the commits until the last synced one, and write all the newer ones,
+   * oldest first.
+   */
+  @Test
+  public void syncPagesBackToLastSyncedCommit() throws Exception {
+    BuildInfo newest = new BuildInfo(new GitHubData(getHistoryHash(150), HISTORY_TIMESTAMP, null));
+    Mockito.when(datastoreRepository.getLastRevisionEntries(1, 0))
+        .thenReturn(Collections.singletonList(newest));
+    client.setUrl(baseUrl + "/" + PAGED_GITHUB_URL);
+
+    Assert.assertEquals(Integer.valueOf(150), client.sync().block());
+
+    List<GitHubData> commits = getWrittenCommits();
+    Assert.assertEquals(150, commits.size());
+    Assert.assertEquals(getHistoryHash(149), commits.get(0).getCommitHash());
+    Assert.assertEquals(getHistoryHash(0), commits.get(149).getCommitHash());
+    Assert.assertEquals(getHistoryHash(0), client.getCursor().getCommitHash());
+    Assert.assertEquals(2, mockWebServer.getRequestCount());
+    RecordedRequest first = mockWebServer.takeRequest();
+    Assert.assertEquals("100", first.getRequestUrl().queryParameter("per_page"));
+    Assert.assertEquals(HISTORY_TIMESTAMP, first.getRequestUrl().queryParameter("since"));
+  }
+
+  /** Should only sync the first page while no commit was synced, then continue from the cursor. */
+  @Test
+  public void syncWithoutCursorOnlyFetchesFirstPage() throws Exception {
+    client.setUrl(baseUrl + "/" + PAGED_GITHUB_URL);
+
+    Assert.assertEquals(Integer.valueOf(100), client.sync().block());
+    Assert.assertEquals(getHistoryHash(0), client.getCursor().getCommitHash());
+    Assert.assertEquals(Integer.valueOf(0), client.sync().block());
+
+    Mockito.verify(datastoreRepository, Mockito.times(1)).getLastRevisionEntries(1, 0);
+    Assert.assertEquals(100, getWrittenCommits().size());
+    Assert.assertNull(mockWebServer.takeRequest().getRequestUrl().queryParameter("since"));
+    Assert.assertEquals(
+        HISTORY_TIMESTAMP, mockWebServer.takeRequest().getRequestUrl().queryParameter("since"));
+  }
+
+  /** Should not move the cursor when the new commits cannot be written. */
+  @Test
+  public void failedWriteKeepsCursor() {
+    Mockito.when(datastoreRepository.createRevisionEntries(Mockito.any())).thenReturn(false);
+    client.setUrl(baseUrl + "/" + PAGED_GITHUB_URL);
+
+    client.run();
+
+    Assert.assertNull(client.getCursor());
   }
 }
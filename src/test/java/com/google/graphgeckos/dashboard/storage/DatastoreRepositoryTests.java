@@ -24,11 +24,18 @@ import com.google.cloud.Timestamp;
 import com.google.cloud.datastore.testing.LocalDatastoreHelper;
 import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
 import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
 import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
 import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.datatypes.RevisionPage;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.After;
 import org.junit.Test;
 
@@ -49,7 +56,11 @@ public class DatastoreRepositoryTests {
   }
 
   private BuildBotData getDummyUpdate(String commitHash) {
-    return new BuildBotData(commitHash, "tester", new ArrayList<>(), BuilderStatus.PASSED);
+    return getDummyUpdate(commitHash, "tester");
+  }
+
+  private BuildBotData getDummyUpdate(String commitHash, String builderName) {
+    return new BuildBotData(commitHash, builderName, new ArrayList<>(), BuilderStatus.PASSED);
   }
 
   @After
@@ -66,6 +77,27 @@ public class DatastoreRepositoryTests {
     assertEquals(getDummyEntity("1", time), (storage.getRevisionEntry("1")));
   }
 
+  @Test
+  public void testBulkAddition() throws IOException, InterruptedException {
+    DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
+    Timestamp time = Timestamp.ofTimeMicroseconds(0);
+    BuildBotData update = getDummyUpdate("2");
+
+    assertTrue(
+        storage.createRevisionEntries(
+            Arrays.asList(getDummyGitData("1", time), getDummyGitData("2", time))));
+    assertTrue(storage.updateRevisionEntry(update));
+    assertTrue(
+        storage.createRevisionEntries(
+            Arrays.asList(getDummyGitData("2", time), getDummyGitData("3", time))));
+
+    BuildInfo dummy = getDummyEntity("2", time);
+    dummy.addBuilder(update);
+    assertEquals(getDummyEntity("1", time), storage.getRevisionEntry("1"));
+    assertEquals(dummy, storage.getRevisionEntry("2"));
+    assertEquals(getDummyEntity("3", time), storage.getRevisionEntry("3"));
+  }
+
   @Test
   public void testValidUpdate() throws IOException, InterruptedException {
     DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
@@ -79,6 +111,103 @@ public class DatastoreRepositoryTests {
     assertEquals(dummy, storage.getRevisionEntry("1"));
   }
 
+  @Test
+  public void testBulkUpdate() throws IOException, InterruptedException {
+    DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
+    Timestamp time = Timestamp.ofTimeMicroseconds(0);
+
+    assertTrue(storage.createRevisionEntry(getDummyGitData("1", time)));
+    assertEquals(
+        Collections.singleton("2"),
+        storage.updateExistingRevisionEntries(
+            Arrays.asList(
+                getDummyUpdate("1", "a"), getDummyUpdate("1", "b"), getDummyUpdate("2", "a"))));
+
+    assertEquals(2, storage.getRevisionEntry("1").getBuilders().size());
+    assertNull(storage.getRevisionEntry("2"));
+  }
+
+  @Test
+  public void testConcurrentUpdatesAreNotLost() throws Exception {
+    DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
+    assertTrue(storage.createRevisionEntry(getDummyGitData("1", Timestamp.ofTimeMicroseconds(0))));
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Boolean>> updates = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      BuildBotData update = getDummyUpdate("1", "tester-" + i);
+      updates.add(executor.submit(() -> storage.updateRevisionEntry(update)));
+    }
+    for (Future<Boolean> update : updates) {
+      assertTrue(update.get());
+    }
+    executor.shutdown();
+
+    assertEquals(40, storage.getRevisionEntry("1").getBuilders().size());
+  }
+
+  @Test
+  public void testRepeatedUpdateIsStoredOnce() throws IOException, InterruptedException {
+    DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
+    assertTrue(storage.createRevisionEntry(getDummyGitData("1", Timestamp.ofTimeMicroseconds(0))));
+
+    assertTrue(storage.updateRevisionEntry(getDummyUpdate("1")));
+    assertTrue(storage.updateRevisionEntry(getDummyUpdate("1")));
+
+    assertEquals(1, storage.getRevisionEntry("1").getBuilders().size());
+  }
+
+  @Test
+  public void testChildEntitiesLayout() throws IOException, InterruptedException {
+    DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
+    storage.setBuilderLayout(BuilderLayout.CHILD_ENTITIES);
+    assertTrue(storage.createRevisionEntry(getDummyGitData("1", Timestamp.ofTimeMicroseconds(0))));
+
+    BuildBotData failed = getDummyUpdate("1", "a");
+    failed.setStatus(BuilderStatus.FAILED);
+    assertTrue(storage.updateRevisionEntry(failed));
+    assertEquals(
+        Collections.emptySet(),
+        storage.updateExistingRevisionEntries(
+            Arrays.asList(getDummyUpdate("1", "a"), getDummyUpdate("1", "b"))));
+    assertFalse(storage.updateRevisionEntry(getDummyUpdate("2", "a")));
+
+    BuildInfo summary = storage.getRevisionSummary("1");
+    assertTrue(summary.getBuilders().isEmpty());
+    assertEquals("2/2 passed", summary.getStatusSummary());
+    assertEquals(2, storage.getRevisionEntry("1").getBuilders().size());
+    assertEquals(2, storage.getLastRevisionEntries(1, 0).get(0).getBuilders().size());
+
+    // The builders of a whole page are looked up together.
+    assertTrue(storage.createRevisionEntry(getDummyGitData("2", Timestamp.ofTimeMicroseconds(1))));
+    assertTrue(storage.updateRevisionEntry(getDummyUpdate("2", "c")));
+    List<BuildInfo> page = storage.getRevisionEntriesPage(2, null).getRevisions();
+    assertEquals("c", page.get(0).getBuilders().get(0).getName());
+    assertEquals("2", page.get(0).getBuilders().get(0).getCommitHash());
+    assertEquals(2, page.get(1).getBuilders().size());
+    assertTrue(storage.deleteRevisionEntry("2"));
+
+    assertTrue(storage.deleteRevisionEntry("1"));
+    assertTrue(storage.createRevisionEntry(getDummyGitData("1", Timestamp.ofTimeMicroseconds(0))));
+    assertTrue(storage.getRevisionEntry("1").getBuilders().isEmpty());
+  }
+
+  @Test
+  public void testGetLastRevisionSummaries() throws IOException, InterruptedException {
+    DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
+    assertTrue(storage.createRevisionEntry(getDummyGitData("1", Timestamp.ofTimeMicroseconds(0))));
+    assertTrue(storage.createRevisionEntry(getDummyGitData("2", Timestamp.ofTimeMicroseconds(1))));
+    assertTrue(storage.updateRevisionEntry(getDummyUpdate("1")));
+
+    List<BuildInfo> summaries = storage.getLastRevisionSummaries(2, 0);
+
+    assertEquals(2, summaries.size());
+    assertEquals("2", summaries.get(0).getCommitHash());
+    assertTrue(summaries.get(1).getBuilders().isEmpty());
+    assertEquals("1/1 passed", summaries.get(1).getStatusSummary());
+    assertEquals(1, storage.getLastRevisionEntries(2, 0).get(1).getBuilders().size());
+  }
+
   @Test
   public void testValidDeletion() throws IOException, InterruptedException {
     DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
@@ -172,6 +301,28 @@ public class DatastoreRepositoryTests {
     assertEquals(results.get(2), getDummyEntity("3", time3));
   }
 
+  @Test
+  public void testGetRevisionPages() throws IOException, InterruptedException {
+    DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
+    for (int i = 1; i <= 5; i++) {
+      assertTrue(
+          storage.createRevisionEntry(
+              getDummyGitData(String.valueOf(i), Timestamp.ofTimeMicroseconds(i))));
+    }
+
+    RevisionPage first = storage.getRevisionEntriesPage(2, null);
+    RevisionPage second = storage.getRevisionEntriesPage(2, first.getNextPageToken());
+    RevisionPage last = storage.getRevisionEntriesPage(2, second.getNextPageToken());
+
+    assertEquals("5", first.getRevisions().get(0).getCommitHash());
+    assertEquals("3", second.getRevisions().get(0).getCommitHash());
+    assertEquals(1, last.getRevisions().size());
+    assertEquals("1", last.getRevisions().get(0).getCommitHash());
+    assertNull(last.getNextPageToken());
+    assertThrows(
+        IllegalArgumentException.class, () -> storage.getRevisionEntriesPage(2, "not a token"));
+  }
+
   @Test
   public void testGetLastRevisionsQueryOffset() throws IOException, InterruptedException {
     DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
@@ -217,4 +368,22 @@ public class DatastoreRepositoryTests {
     assertEquals(results.get(0), getDummyEntity("2", time2));
     assertEquals(results.get(1), getDummyEntity("1", time1));
   }
+
+  @Test
+  public void testBuilderIndexUpdate() throws IOException, InterruptedException {
+    DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
+
+    assertTrue(storage.updateBuilderIndex(new BuilderIndex("tester", 10)));
+    assertEquals(10, storage.getBuilderIndex("tester"));
+
+    assertTrue(storage.updateBuilderIndex(new BuilderIndex("tester", 12)));
+    assertEquals(12, storage.getBuilderIndex("tester"));
+  }
+
+  @Test
+  public void testGettingInexistentBuilderIndex() throws IOException, InterruptedException {
+    DatastoreRepository storage = new DatastoreRepository(emulator.getOptions().getService());
+
+    assertThrows(BuildbotNotFoundException.class, () -> storage.getBuilderIndex("tester"));
+  }
 }
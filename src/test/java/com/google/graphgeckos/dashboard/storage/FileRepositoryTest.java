@@ -0,0 +1,209 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.Timestamp;
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
+import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.datatypes.Log;
+import com.google.graphgeckos.dashboard.datatypes.RevisionPage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileRepositoryTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+
+  private FileRepository storage;
+
+  @Before
+  public void init() throws IOException {
+    directory = folder.getRoot().toPath();
+    storage = new FileRepository(directory, Duration.ZERO);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    storage.close();
+  }
+
+  /** Closes the repository, and opens it again from its log. */
+  private void reopen() throws IOException {
+    storage.close();
+    storage = new FileRepository(directory, Duration.ZERO);
+  }
+
+  private GitHubData getDummyGitData(String commitHash, long micros) {
+    return new GitHubData(commitHash, Timestamp.ofTimeMicroseconds(micros));
+  }
+
+  private BuildBotData getDummyUpdate(String commitHash, String builderName, int buildId) {
+    BuildBotData update =
+        new BuildBotData(
+            commitHash,
+            builderName,
+            Arrays.asList(new Log("stdio", "http://localhost/" + buildId)),
+            BuilderStatus.PASSED);
+    update.setBuildId(buildId);
+    return update;
+  }
+
+  private List<String> getCommitHashes(List<BuildInfo> revisions) {
+    return revisions.stream().map(BuildInfo::getCommitHash).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testRevisionsAreRecovered() throws IOException {
+    assertTrue(storage.createRevisionEntry(getDummyGitData("1", 1)));
+    assertTrue(storage.updateRevisionEntry(getDummyUpdate("1", "a", 1)));
+    assertTrue(storage.updateBuilderIndex(new BuilderIndex("a", 42)));
+    assertFalse(storage.updateRevisionEntry(getDummyUpdate("2", "a", 1)));
+    BuildInfo written = storage.getRevisionEntry("1");
+
+    reopen();
+
+    assertEquals(written, storage.getRevisionEntry("1"));
+    assertEquals(getDummyUpdate("1", "a", 1), storage.getRevisionEntry("1").getBuilders().get(0));
+    assertEquals("1/1 passed", storage.getRevisionSummary("1").getStatusSummary());
+    assertEquals(42, storage.getBuilderIndex("a"));
+    assertNull(storage.getRevisionEntry("2"));
+  }
+
+  @Test
+  public void testUpdateExistingRevisionsReportsMissingOnes() throws IOException {
+    storage.createRevisionEntry(getDummyGitData("1", 0));
+
+    assertEquals(
+        Collections.singleton("2"),
+        storage.updateExistingRevisionEntries(
+            Arrays.asList(getDummyUpdate("1", "a", 1), getDummyUpdate("2", "a", 1))));
+
+    assertEquals(1, storage.getRevisionEntry("1").getBuilders().size());
+  }
+
+  @Test
+  public void testGetLastRevisions() throws IOException {
+    storage.createRevisionEntries(
+        Arrays.asList(getDummyGitData("1", 1), getDummyGitData("3", 3), getDummyGitData("2", 2)));
+    storage.deleteRevisionEntry("2");
+
+    reopen();
+
+    assertEquals(Arrays.asList("3", "1"), getCommitHashes(storage.getLastRevisionEntries(5, 0)));
+    assertEquals(Arrays.asList("1"), getCommitHashes(storage.getLastRevisionSummaries(1, 1)));
+    RevisionPage first = storage.getRevisionEntriesPage(1, null);
+    RevisionPage last = storage.getRevisionEntriesPage(1, first.getNextPageToken());
+    assertEquals(Arrays.asList("1"), getCommitHashes(last.getRevisions()));
+    assertThrows(IllegalArgumentException.class, () -> storage.getLastRevisionEntries(-1, 0));
+  }
+
+  @Test
+  public void testCompactionKeepsLatestRecords() throws IOException {
+    storage.createRevisionEntries(Arrays.asList(getDummyGitData("1", 1), getDummyGitData("2", 2)));
+    for (int buildId = 0; buildId < 100; buildId++) {
+      storage.updateRevisionEntry(getDummyUpdate("1", "a", buildId));
+    }
+    storage.updateBuilderIndex(new BuilderIndex("a", 99));
+    long logSize = storage.getLogSize();
+
+    long reclaimed = storage.compact();
+
+    assertTrue(reclaimed > 0);
+    assertEquals(logSize - reclaimed, storage.getLogSize());
+    assertEquals(99, (int) storage.getRevisionEntry("1").getBuilders().get(0).getBuildId());
+    assertTrue(storage.updateRevisionEntry(getDummyUpdate("2", "a", 1)));
+
+    reopen();
+
+    assertEquals(Arrays.asList("2", "1"), getCommitHashes(storage.getLastRevisionEntries(5, 0)));
+    assertEquals(99, (int) storage.getRevisionEntry("1").getBuilders().get(0).getBuildId());
+    assertEquals(1, storage.getRevisionEntry("2").getBuilders().size());
+    assertEquals(99, storage.getBuilderIndex("a"));
+  }
+
+  @Test
+  public void testIncompleteRecordIsDiscarded() throws IOException {
+    storage.createRevisionEntry(getDummyGitData("1", 1));
+    storage.close();
+    // A record which was being written when the process stopped.
+    try (FileChannel log =
+        FileChannel.open(directory.resolve(FileRepository.LOG_FILE), StandardOpenOption.APPEND)) {
+      log.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 42, 1, 2, 3}));
+    }
+
+    storage = new FileRepository(directory, Duration.ZERO);
+    assertTrue(storage.createRevisionEntry(getDummyGitData("2", 2)));
+    reopen();
+
+    assertEquals(Arrays.asList("2", "1"), getCommitHashes(storage.getLastRevisionEntries(5, 0)));
+  }
+
+  @Test
+  public void testConcurrentWritesShareSyncs() throws Exception {
+    storage.createRevisionEntry(getDummyGitData("1", 0));
+    long syncs = storage.getSyncCount();
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Boolean>> updates = new ArrayList<>();
+    for (int i = 0; i < 400; i++) {
+      BuildBotData update = getDummyUpdate("1", "tester-" + i, 1);
+      updates.add(executor.submit(() -> storage.updateRevisionEntry(update)));
+    }
+    for (Future<Boolean> update : updates) {
+      assertTrue(update.get());
+    }
+    executor.shutdown();
+
+    assertEquals(400, storage.getRevisionEntry("1").getPassedCount());
+    assertTrue(storage.getSyncCount() - syncs < 400);
+  }
+
+  @Test
+  public void testClosedRepositoryRefusesWrites() throws IOException {
+    storage.createRevisionEntry(getDummyGitData("1", 1));
+    storage.close();
+
+    assertEquals("1", storage.getRevisionEntry("1").getCommitHash());
+    assertThrows(
+        IllegalStateException.class, () -> storage.createRevisionEntry(getDummyGitData("2", 2)));
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.Timestamp;
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import com.google.graphgeckos.dashboard.datatypes.BuilderIndex;
+import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import com.google.graphgeckos.dashboard.datatypes.RevisionPage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class InMemoryRepositoryTest {
+  private InMemoryRepository storage = new InMemoryRepository();
+
+  private GitHubData getDummyGitData(String commitHash, long micros) {
+    return new GitHubData(commitHash, Timestamp.ofTimeMicroseconds(micros));
+  }
+
+  private BuildBotData getDummyUpdate(String commitHash, String builderName) {
+    return new BuildBotData(commitHash, builderName, new ArrayList<>(), BuilderStatus.PASSED);
+  }
+
+  private List<String> getCommitHashes(List<BuildInfo> revisions) {
+    return revisions.stream().map(BuildInfo::getCommitHash).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testCreateAndUpdate() {
+    assertTrue(storage.createRevisionEntry(getDummyGitData("1", 0)));
+    assertTrue(storage.updateRevisionEntry(getDummyUpdate("1", "a")));
+    assertTrue(storage.updateRevisionEntry(getDummyUpdate("1", "a")));
+    // Creating an existing revision keeps its builders.
+    assertTrue(storage.createRevisionEntry(getDummyGitData("1", 0)));
+    assertFalse(storage.updateRevisionEntry(getDummyUpdate("2", "a")));
+
+    assertEquals(1, storage.getRevisionEntry("1").getBuilders().size());
+    assertTrue(storage.getRevisionSummary("1").getBuilders().isEmpty());
+    assertEquals("1/1 passed", storage.getRevisionSummary("1").getStatusSummary());
+    assertNull(storage.getRevisionEntry("2"));
+  }
+
+  @Test
+  public void testReadRevisionIsNotModifiedByUpdates() {
+    storage.createRevisionEntry(getDummyGitData("1", 0));
+    BuildInfo read = storage.getRevisionEntry("1");
+
+    storage.updateExistingRevisionEntries(
+        Arrays.asList(getDummyUpdate("1", "a"), getDummyUpdate("1", "b")));
+
+    assertTrue(read.getBuilders().isEmpty());
+    assertEquals(2, storage.getLastRevisionEntries(1, 0).get(0).getBuilders().size());
+  }
+
+  @Test
+  public void testUpdateExistingRevisionsReportsMissingOnes() {
+    storage.createRevisionEntry(getDummyGitData("1", 0));
+
+    assertEquals(
+        Collections.singleton("2"),
+        storage.updateExistingRevisionEntries(
+            Arrays.asList(getDummyUpdate("1", "a"), getDummyUpdate("2", "a"))));
+
+    assertEquals(1, storage.getRevisionEntry("1").getBuilders().size());
+  }
+
+  @Test
+  public void testGetLastRevisions() {
+    storage.createRevisionEntries(
+        Arrays.asList(getDummyGitData("1", 1), getDummyGitData("3", 3), getDummyGitData("2", 2)));
+
+    List<BuildInfo> revisions = storage.getLastRevisionEntries(5, 0);
+    assertEquals(Arrays.asList("3", "2", "1"), getCommitHashes(revisions));
+    assertEquals(Arrays.asList("2"), getCommitHashes(storage.getLastRevisionSummaries(1, 1)));
+
+    storage.deleteRevisionEntry("2");
+    revisions = storage.getLastRevisionEntries(5, 0);
+    assertEquals(Arrays.asList("3", "1"), getCommitHashes(revisions));
+    assertThrows(IllegalArgumentException.class, () -> storage.getLastRevisionEntries(-1, 0));
+  }
+
+  @Test
+  public void testGetRevisionPages() {
+    for (int i = 0; i < 5; i++) {
+      storage.createRevisionEntry(getDummyGitData(String.valueOf(i), i));
+    }
+
+    RevisionPage first = storage.getRevisionEntriesPage(2, null);
+    RevisionPage second = storage.getRevisionEntriesPage(2, first.getNextPageToken());
+    RevisionPage last = storage.getRevisionEntriesPage(2, second.getNextPageToken());
+
+    assertEquals(Arrays.asList("4", "3"), getCommitHashes(first.getRevisions()));
+    assertEquals(Arrays.asList("2", "1"), getCommitHashes(second.getRevisions()));
+    assertEquals(Arrays.asList("0"), getCommitHashes(last.getRevisions()));
+    assertNull(last.getNextPageToken());
+    assertThrows(
+        IllegalArgumentException.class, () -> storage.getRevisionEntriesPage(2, "invalid"));
+  }
+
+  @Test
+  public void testConcurrentUpdatesAreNotLost() throws Exception {
+    storage.createRevisionEntry(getDummyGitData("1", 0));
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Boolean>> updates = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      BuildBotData update = getDummyUpdate("1", "tester-" + i);
+      updates.add(executor.submit(() -> storage.updateRevisionEntry(update)));
+    }
+    for (Future<Boolean> update : updates) {
+      assertTrue(update.get());
+    }
+    executor.shutdown();
+
+    assertEquals(1000, storage.getRevisionEntry("1").getBuilders().size());
+    assertEquals(1000, storage.getLastRevisionEntries(1, 0).get(0).getPassedCount());
+  }
+
+  @Test
+  public void testBuilderIndex() {
+    assertThrows(BuildbotNotFoundException.class, () -> storage.getBuilderIndex("a"));
+
+    assertTrue(storage.updateBuilderIndex(new BuilderIndex("a", 42)));
+
+    assertEquals(42, storage.getBuilderIndex("a"));
+  }
+}
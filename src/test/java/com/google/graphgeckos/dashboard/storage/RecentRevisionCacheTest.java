@@ -0,0 +1,274 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.Timestamp;
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuildInfo;
+import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class RecentRevisionCacheTest {
+  private final Duration MAX_AGE = Duration.ofSeconds(5);
+
+  /** A clock which only moves when told to. */
+  private static class ManualClock extends Clock {
+    private Instant now = Instant.ofEpochSecond(1600000000);
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private ManualClock clock = new ManualClock();
+
+  /** Returns a revision created {@code seconds} after the epoch, named after its timestamp. */
+  private BuildInfo getRevision(int seconds) {
+    Timestamp timestamp = Timestamp.ofTimeSecondsAndNanos(seconds, 0);
+    return new BuildInfo(new GitHubData("r" + seconds, timestamp));
+  }
+
+  /** Returns the revisions created at each of {@code seconds}. */
+  private List<BuildInfo> getRevisions(int... seconds) {
+    return Arrays.stream(seconds).mapToObj(this::getRevision).collect(Collectors.toList());
+  }
+
+  /** Returns the commit hashes of {@code revisions}. */
+  private List<String> getCommitHashes(List<BuildInfo> revisions) {
+    return revisions.stream().map(BuildInfo::getCommitHash).collect(Collectors.toList());
+  }
+
+  /** Returns a cache of {@code capacity} revisions, loaded with {@code newest}. */
+  private RecentRevisionCache getCache(int capacity, List<BuildInfo> newest) {
+    RecentRevisionCache cache = new RecentRevisionCache(capacity, MAX_AGE, clock);
+    assertTrue(cache.load(newest, cache.startLoad()));
+    return cache;
+  }
+
+  @Test
+  public void testUnloadedCacheServesNothing() {
+    RecentRevisionCache cache = new RecentRevisionCache(3, MAX_AGE, clock);
+
+    assertNull(cache.get(1, 0));
+    assertEquals(1, cache.getMissCount());
+    assertTrue(cache.isExpired());
+  }
+
+  @Test
+  public void testExpiredCacheServesNothing() {
+    RecentRevisionCache cache = getCache(3, getRevisions(1, 2));
+
+    clock.advance(MAX_AGE);
+    assertEquals(Arrays.asList("r2", "r1"), getCommitHashes(cache.get(2, 0)));
+
+    clock.advance(Duration.ofMillis(1));
+    assertTrue(cache.isExpired());
+    assertNull(cache.get(2, 0));
+
+    assertTrue(cache.load(getRevisions(1, 2, 3), cache.startLoad()));
+    assertEquals(Arrays.asList("r3", "r2"), getCommitHashes(cache.get(2, 0)));
+  }
+
+  @Test
+  public void testServesCoveredRangesNewestFirst() {
+    RecentRevisionCache cache = getCache(3, getRevisions(1, 3, 2, 4));
+
+    assertEquals(Arrays.asList("r4", "r3"), getCommitHashes(cache.get(2, 0)));
+    assertEquals(Arrays.asList("r3", "r2"), getCommitHashes(cache.get(2, 1)));
+    // The fourth newest revision was not kept.
+    assertNull(cache.get(2, 2));
+    assertEquals(2, cache.getHitCount());
+  }
+
+  @Test
+  public void testCompleteCacheServesAnyRange() {
+    RecentRevisionCache cache = getCache(3, getRevisions(1, 2));
+
+    assertEquals(Arrays.asList("r2", "r1"), getCommitHashes(cache.get(10, 0)));
+    assertEquals(Collections.emptyList(), cache.get(10, 5));
+
+    cache.put(getRevisions(3));
+    assertEquals(Arrays.asList("r3", "r2", "r1"), getCommitHashes(cache.get(10, 0)));
+
+    // A fourth revision evicts the oldest one, which the cache no longer covers.
+    cache.put(getRevisions(4));
+    assertEquals(Arrays.asList("r4", "r3", "r2"), getCommitHashes(cache.get(3, 0)));
+    assertNull(cache.get(4, 0));
+  }
+
+  @Test
+  public void testOlderRevisionsAreNotCached() {
+    RecentRevisionCache cache = getCache(2, getRevisions(3, 4, 5));
+
+    cache.put(getRevisions(1, 6));
+
+    assertEquals(Arrays.asList("r6", "r5"), getCommitHashes(cache.get(2, 0)));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testRevisionsAreKeptInTimestampOrder() {
+    RecentRevisionCache cache = getCache(4, getRevisions(2, 5));
+
+    cache.put(getRevisions(4, 6, 3, 7));
+
+    assertEquals(Arrays.asList("r7", "r6", "r5", "r4"), getCommitHashes(cache.get(4, 0)));
+    // The oldest revisions were evicted by the later ones.
+    assertNull(cache.get(5, 0));
+  }
+
+  @Test
+  public void testFullCacheDropsOlderRevision() {
+    RecentRevisionCache cache = getCache(3, getRevisions(2, 3));
+    cache.put(getRevisions(4));
+
+    cache.put(getRevisions(1));
+
+    assertEquals(Arrays.asList("r4", "r3", "r2"), getCommitHashes(cache.get(3, 0)));
+    // The cache no longer holds all the revisions.
+    assertNull(cache.get(4, 0));
+  }
+
+  @Test
+  public void testUpdatedRevisionIsReplaced() {
+    RecentRevisionCache cache = getCache(2, getRevisions(1, 2));
+    BuildInfo updated = getRevision(1);
+    updated.setBuilders(new ArrayList<>());
+
+    cache.put(Collections.singletonList(updated));
+    updated.addBuilder(
+        new BuildBotData("r1", "tester", new ArrayList<>(), BuilderStatus.PASSED));
+
+    assertEquals(Arrays.asList("r2", "r1"), getCommitHashes(cache.get(2, 0)));
+    // The cache holds a copy of the written revision.
+    assertTrue(cache.get(2, 0).get(1).getBuilders().isEmpty());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testReadsReturnCopies() {
+    RecentRevisionCache cache = getCache(2, getRevisions(1));
+    BuildInfo read = cache.get(1, 0).get(0);
+
+    read.addBuilder(new BuildBotData("r1", "tester", new ArrayList<>(), BuilderStatus.PASSED));
+
+    assertNotSame(read, cache.get(1, 0).get(0));
+    assertTrue(cache.get(1, 0).get(0).getBuilders().isEmpty());
+  }
+
+  @Test
+  public void testBuildersAreAddedToCopies() {
+    BuildInfo revision = getRevision(1);
+    RecentRevisionCache cache = getCache(2, Collections.singletonList(revision));
+    BuildBotData result = new BuildBotData("r1", "tester", new ArrayList<>(), BuilderStatus.PASSED);
+
+    cache.putBuilders(Arrays.asList(result, result));
+
+    BuildInfo cached = cache.get(1, 0).get(0);
+    assertEquals(Collections.singletonList(result), cached.getBuilders());
+    assertEquals(1, cached.getPassedCount());
+    // The revisions handed out before are left untouched.
+    assertTrue(revision.getBuilders().isEmpty());
+  }
+
+  @Test
+  public void testRemovedRevisionShrinksCoveredRange() {
+    RecentRevisionCache cache = getCache(2, getRevisions(1, 2, 3));
+
+    cache.remove("r3");
+
+    assertEquals(Arrays.asList("r2"), getCommitHashes(cache.get(1, 0)));
+    assertNull(cache.get(2, 0));
+  }
+
+  @Test
+  public void testWritesDuringLoadAreReplayed() {
+    RecentRevisionCache cache = new RecentRevisionCache(3, MAX_AGE, clock);
+    long load = cache.startLoad();
+    BuildBotData result = new BuildBotData("r2", "tester", new ArrayList<>(), BuilderStatus.PASSED);
+
+    cache.put(getRevisions(3));
+    cache.putBuilders(Collections.singletonList(result));
+    cache.remove("r1");
+
+    // The query ran before the writes were committed.
+    assertTrue(cache.load(getRevisions(1, 2), load));
+    assertEquals(Arrays.asList("r3", "r2"), getCommitHashes(cache.get(2, 0)));
+    assertEquals(Collections.singletonList(result), cache.get(2, 0).get(1).getBuilders());
+  }
+
+  @Test
+  public void testSupersededLoadIsDiscarded() {
+    RecentRevisionCache cache = new RecentRevisionCache(2, MAX_AGE, clock);
+    long load = cache.startLoad();
+
+    cache.startLoad();
+
+    assertFalse(cache.load(getRevisions(1, 2), load));
+    assertFalse(cache.isLoaded());
+  }
+
+  @Test
+  public void testLoadOutgrownByWritesIsDiscarded() {
+    RecentRevisionCache cache = new RecentRevisionCache(2, MAX_AGE, clock);
+    long load = cache.startLoad();
+
+    for (int i = 3; i < 6; i++) {
+      cache.put(getRevisions(i));
+    }
+
+    assertFalse(cache.load(getRevisions(1, 2), load));
+    assertFalse(cache.isLoaded());
+  }
+
+  @Test
+  public void testInvalidSettings() {
+    assertThrows(IllegalArgumentException.class, () -> new RecentRevisionCache(0, MAX_AGE));
+    assertThrows(IllegalArgumentException.class, () -> new RecentRevisionCache(2, Duration.ZERO));
+  }
+}
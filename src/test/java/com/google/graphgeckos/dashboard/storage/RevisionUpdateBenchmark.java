@@ -0,0 +1,129 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.testing.LocalDatastoreHelper;
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
+import com.google.graphgeckos.dashboard.datatypes.GitHubData;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of concurrent revision updates on the Datastore emulator, to check that
+ * making them safe does not serialize the whole ingest path.
+ *
+ * <p>Each run has {@link #THREADS} threads each updating {@link #UPDATES_PER_THREAD} times either
+ * their own revisions, as builders reporting on unrelated commits do, or a single hot revision. It
+ * is run with a single lock, which serializes all the updates of the process, and with the default
+ * striped locks. Every run also checks that no update was lost.
+ *
+ * <p>Not a test: run it with {@code mvn test-compile exec:java
+ * -Dexec.mainClass=com.google.graphgeckos.dashboard.storage.RevisionUpdateBenchmark
+ * -Dexec.classpathScope=test}, which needs the Cloud SDK Datastore emulator.
+ */
+public class RevisionUpdateBenchmark {
+  private static final int THREADS = 16;
+  private static final int UPDATES_PER_THREAD = 50;
+  private static final int REVISIONS_PER_THREAD = 5;
+
+  public static void main(String[] args) throws Exception {
+    LocalDatastoreHelper emulator =
+        LocalDatastoreHelper.newBuilder().setConsistency(1.0).setStoreOnDisk(false).build();
+    emulator.start();
+    try {
+      for (int stripes : new int[] {1, DatastoreRepository.LOCK_STRIPES}) {
+        for (boolean hot : new boolean[] {false, true}) {
+          emulator.reset();
+          DatastoreRepository repository =
+              new DatastoreRepository(emulator.getOptions().getService(), stripes);
+          double rate = run(repository, hot);
+          System.out.println(
+              String.format(
+                  "%5d lock stripes, %-18s %8.1f updates/s, %d transactions retried",
+                  stripes,
+                  hot ? "one hot revision:" : "distinct revisions:",
+                  rate,
+                  repository.getTransactionRetryCount()));
+        }
+      }
+    } finally {
+      emulator.stop();
+    }
+  }
+
+  private static String getCommitHash(int thread, int update, boolean hot) {
+    return hot ? "hot" : thread + "-" + update % REVISIONS_PER_THREAD;
+  }
+
+  /** Runs the concurrent updates and returns their throughput, in updates per second. */
+  private static double run(DatastoreRepository repository, boolean hot) throws Exception {
+    Timestamp time = Timestamp.now();
+    Set<String> commitHashes = new HashSet<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      for (int update = 0; update < REVISIONS_PER_THREAD; update++) {
+        commitHashes.add(getCommitHash(thread, update, hot));
+      }
+    }
+    for (String commitHash : commitHashes) {
+      repository.createRevisionEntry(new GitHubData(commitHash, time));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    List<Future<?>> workers = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int thread = 0; thread < THREADS; thread++) {
+      int worker = thread;
+      workers.add(
+          executor.submit(
+              () -> {
+                for (int update = 0; update < UPDATES_PER_THREAD; update++) {
+                  BuildBotData data =
+                      new BuildBotData(
+                          getCommitHash(worker, update, hot),
+                          "builder-" + worker + "-" + update,
+                          new ArrayList<>(),
+                          BuilderStatus.PASSED);
+                  if (!repository.updateRevisionEntry(data)) {
+                    throw new IllegalStateException("Update failed: " + data);
+                  }
+                }
+              }));
+    }
+    for (Future<?> worker : workers) {
+      worker.get();
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+
+    int stored = 0;
+    for (String commitHash : commitHashes) {
+      stored += repository.getRevisionEntry(commitHash).getBuilders().size();
+    }
+    if (stored != THREADS * UPDATES_PER_THREAD) {
+      throw new IllegalStateException(
+          String.format("Lost %d updates", THREADS * UPDATES_PER_THREAD - stored));
+    }
+    return THREADS * UPDATES_PER_THREAD / (elapsedNanos / 1e9);
+  }
+}
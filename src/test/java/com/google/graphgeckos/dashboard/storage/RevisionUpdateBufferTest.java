@@ -0,0 +1,156 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.graphgeckos.dashboard.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.graphgeckos.dashboard.datatypes.BuildBotData;
+import com.google.graphgeckos.dashboard.datatypes.BuilderStatus;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class RevisionUpdateBufferTest {
+  private final Duration ONE_HOUR = Duration.ofHours(1);
+
+  private DataRepository repository = Mockito.mock(DataRepository.class);
+
+  private RevisionUpdateBuffer buffer;
+
+  @Before
+  public void init() {
+    Mockito.when(repository.updateExistingRevisionEntries(Mockito.any()))
+        .thenReturn(Collections.emptySet());
+  }
+
+  @After
+  public void tearDown() {
+    if (buffer != null) {
+      buffer.close();
+    }
+  }
+
+  private BuildBotData getUpdate(String commitHash, String builder) {
+    return new BuildBotData(commitHash, builder, new ArrayList<>(), BuilderStatus.PASSED);
+  }
+
+  @Test
+  public void testUpdatesAreWrittenTogether() throws Exception {
+    buffer = new RevisionUpdateBuffer(repository, 100, ONE_HOUR);
+
+    CompletableFuture<Boolean> first = buffer.add(getUpdate("1", "a"));
+    buffer.add(getUpdate("1", "b"));
+    buffer.add(getUpdate("2", "a"));
+    assertEquals(3, buffer.getQueueDepth());
+
+    assertEquals(3, buffer.flush());
+
+    assertTrue(first.get());
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Collection<BuildBotData>> updates = ArgumentCaptor.forClass(Collection.class);
+    Mockito.verify(repository).updateExistingRevisionEntries(updates.capture());
+    assertEquals(3, updates.getValue().size());
+    assertEquals(0, buffer.getQueueDepth());
+    assertEquals(1, buffer.getStats().getFlushCount());
+    assertEquals(0, buffer.getStats().getFailedFlushCount());
+    assertEquals(3, buffer.getStats().getFlushedUpdates());
+    assertEquals(2, buffer.getStats().getFlushedRevisions());
+  }
+
+  @Test
+  public void testFullQueueIsFlushed() throws Exception {
+    buffer = new RevisionUpdateBuffer(repository, 2, ONE_HOUR);
+
+    buffer.add(getUpdate("1", "a"));
+    CompletableFuture<Boolean> last = buffer.add(getUpdate("2", "a"));
+
+    assertTrue(last.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testQueueIsFlushedPeriodically() throws Exception {
+    buffer = new RevisionUpdateBuffer(repository, 100, Duration.ofMillis(50));
+
+    assertTrue(buffer.add(getUpdate("1", "a")).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCloseFlushesQueue() throws Exception {
+    buffer = new RevisionUpdateBuffer(repository, 100, ONE_HOUR);
+    CompletableFuture<Boolean> update = buffer.add(getUpdate("1", "a"));
+
+    buffer.close();
+
+    assertTrue(update.isDone());
+    Mockito.verify(repository).updateExistingRevisionEntries(Mockito.any());
+    assertThrows(IllegalStateException.class, () -> buffer.add(getUpdate("1", "b")));
+  }
+
+  @Test
+  public void testFailedWriteFailsUpdates() {
+    Mockito.when(repository.updateExistingRevisionEntries(Mockito.any()))
+        .thenThrow(new IllegalStateException("unavailable"));
+    buffer = new RevisionUpdateBuffer(repository, 100, ONE_HOUR);
+    CompletableFuture<Boolean> update = buffer.add(getUpdate("1", "a"));
+
+    buffer.flush();
+
+    assertThrows(ExecutionException.class, update::get);
+    assertEquals(0, buffer.getQueueDepth());
+    assertEquals(0, buffer.getStats().getFlushCount());
+    assertEquals(1, buffer.getStats().getFailedFlushCount());
+    assertEquals(0, buffer.getStats().getFlushedUpdates());
+  }
+
+  @Test
+  public void testRefusedWriteFailsUpdates() {
+    Mockito.when(repository.updateExistingRevisionEntries(Mockito.any())).thenReturn(null);
+    buffer = new RevisionUpdateBuffer(repository, 100, ONE_HOUR);
+    CompletableFuture<Boolean> update = buffer.add(getUpdate("1", "a"));
+
+    assertEquals(0, buffer.flush());
+
+    assertThrows(ExecutionException.class, update::get);
+    assertEquals(0, buffer.getStats().getFlushCount());
+    assertEquals(1, buffer.getStats().getFailedFlushCount());
+    assertEquals(0, buffer.getStats().getFlushedRevisions());
+  }
+
+  @Test
+  public void testUpdateOfMissingRevisionIsNotWritten() throws Exception {
+    Mockito.when(repository.updateExistingRevisionEntries(Mockito.any()))
+        .thenReturn(Collections.singleton("2"));
+    buffer = new RevisionUpdateBuffer(repository, 100, ONE_HOUR);
+    CompletableFuture<Boolean> existing = buffer.add(getUpdate("1", "a"));
+    CompletableFuture<Boolean> missing = buffer.add(getUpdate("2", "a"));
+
+    buffer.flush();
+
+    assertTrue(existing.get());
+    assertFalse(missing.get());
+  }
+}